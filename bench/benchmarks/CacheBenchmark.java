@@ -0,0 +1,106 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import app_kvServer.IKVServer.CacheStrategy;
+import cache.ClockCache;
+import cache.FIFOCache;
+import cache.ICache;
+import cache.LFUCache;
+import cache.LRUCache;
+
+/**
+ * Single-threaded cost of each cache implementation for a get of a cached
+ * key (hit), a get of an uncached key (miss) and a put of an uncached key
+ * into a full cache (eviction).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CacheBenchmark {
+
+	@Param({ "LRU", "LFU", "FIFO", "CLOCK" })
+	public CacheStrategy strategy;
+
+	@Param({ "100", "10000", "1000000" })
+	public int size;
+
+	private ICache cache;
+	private String[] cachedKeys;
+	private String[] uncachedKeys;
+	private int next;
+	private boolean putUncached = true;
+
+	@Setup
+	public void setup() throws Exception {
+		cache = newCache(strategy, size);
+		cachedKeys = new String[size];
+		uncachedKeys = new String[size];
+		for(int i = 0; i < size; i++) {
+			cachedKeys[i] = "key" + i;
+			uncachedKeys[i] = "key" + (size + i);
+			cache.putKV(cachedKeys[i], "value");
+		}
+	}
+
+	@Benchmark
+	public String hit() throws Exception {
+		return cache.getKV(cachedKeys[nextIndex()]);
+	}
+
+	@Benchmark
+	public String miss() throws Exception {
+		return cache.getKV(uncachedKeys[nextIndex()]);
+	}
+
+	/**
+	 * Puts all the uncached keys, then all the cached ones, and so on, so
+	 * that each put is of a key evicted by the puts before it
+	 */
+	@Benchmark
+	public void evict() throws Exception {
+		int i = nextIndex();
+		if(i == 0) {
+			putUncached = !putUncached;
+		}
+		cache.putKV(putUncached ? uncachedKeys[i] : cachedKeys[i], "value");
+	}
+
+	private int nextIndex() {
+		if(++next == size) {
+			next = 0;
+		}
+		return next;
+	}
+
+	static ICache newCache(CacheStrategy strategy, int size) {
+		switch(strategy) {
+			case LRU:
+				return new LRUCache(size);
+			case LFU:
+				return new LFUCache(size);
+			case FIFO:
+				return new FIFOCache(size);
+			case CLOCK:
+				return new ClockCache(size);
+			default:
+				throw new IllegalArgumentException(
+					"No cache for strategy " + strategy);
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package benchmarks;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import app_kvServer.IKVServer.CacheStrategy;
+import cached_storage.CachedStorage;
+
+/**
+ * Throughput of one CachedStorage shared by several threads, for gets only
+ * and for a mix of gets and puts. The keys requested are twice as many as
+ * the cache holds, so that requests both hit and miss the cache.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CachedStorageBenchmark {
+
+	private static final int CACHE_SIZE = 1000;
+	private static final int N_KEYS = 2 * CACHE_SIZE;
+
+	@Param({ "LRU", "LFU", "FIFO", "CLOCK" })
+	public CacheStrategy strategy;
+
+	private File rootDir;
+	private CachedStorage storage;
+	private String[] keys;
+
+	@Setup
+	public void setup() throws Exception {
+		rootDir = Files.createTempDirectory("cached-storage-benchmark")
+			.toFile();
+		storage = new CachedStorage(new File(rootDir, "data").getPath(),
+			strategy, CACHE_SIZE);
+		keys = new String[N_KEYS];
+		for(int i = 0; i < N_KEYS; i++) {
+			keys[i] = "key" + i;
+			storage.putKV(keys[i], "value");
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		storage.clearStorage();
+		storage.close();
+		StorageBenchmark.deleteRecursively(rootDir);
+	}
+
+	@Benchmark
+	@Threads(8)
+	public String get() throws Exception {
+		return storage.getKV(randomKey());
+	}
+
+	@Benchmark
+	@Group("mixed")
+	@GroupThreads(6)
+	public String mixedGet() throws Exception {
+		return storage.getKV(randomKey());
+	}
+
+	@Benchmark
+	@Group("mixed")
+	@GroupThreads(2)
+	public void mixedPut() throws Exception {
+		storage.putKV(randomKey(), "value");
+	}
+
+	private String randomKey() {
+		return keys[ThreadLocalRandom.current().nextInt(N_KEYS)];
+	}
+}
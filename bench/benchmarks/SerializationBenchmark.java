@@ -0,0 +1,82 @@
+package benchmarks;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import common.messages.KVMessage;
+import common.messages.KVMessage.StatusType;
+import common.messages.KVMessageImpl;
+import serialization.BinarySerialization;
+import serialization.Serialization;
+
+/**
+ * Cost of converting a PUT request to and from the text and the binary
+ * wire formats
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SerializationBenchmark {
+
+	@Param({ "10", "1000", "100000" })
+	public int valueSize;
+
+	private KVMessage message;
+	private String[] lines;
+	private byte[] frame;
+	private ByteArrayOutputStream output;
+
+	@Setup
+	public void setup() {
+		char[] chars = new char[valueSize];
+		Arrays.fill(chars, 'v');
+		message = new KVMessageImpl("key", new String(chars), StatusType.PUT);
+		lines = Serialization.serialize(message).split("\n");
+		frame = BinarySerialization.serialize(message);
+		output = new ByteArrayOutputStream(2 * frame.length);
+	}
+
+	@Benchmark
+	public String serializeText() {
+		return Serialization.serialize(message);
+	}
+
+	@Benchmark
+	public int serializeTextToStream() throws Exception {
+		output.reset();
+		Serialization.serialize(message, output);
+		return output.size();
+	}
+
+	@Benchmark
+	public KVMessage unserializeText() {
+		return Serialization.unserialize(lines);
+	}
+
+	@Benchmark
+	public byte[] serializeBinary() {
+		return BinarySerialization.serialize(message);
+	}
+
+	@Benchmark
+	public KVMessage unserializeBinary() throws Exception {
+		return BinarySerialization.unserialize(ByteBuffer.wrap(frame));
+	}
+}
@@ -0,0 +1,103 @@
+package benchmarks;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import app_kvServer.IKVServer.StorageStrategy;
+import storage.IStorage;
+import storage.LogStorage;
+import storage.Storage;
+
+/**
+ * Single-threaded cost of a get and a put on each persistent storage
+ * engine, for keys already in storage. Storage lives in a temporary
+ * directory, so the results depend on the file system it is on.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StorageBenchmark {
+
+	private static final int N_KEYS = 1000;
+
+	@Param({ "File", "Log" })
+	public StorageStrategy strategy;
+
+	@Param({ "100", "10000" })
+	public int valueSize;
+
+	private File rootDir;
+	private IStorage storage;
+	private String[] keys;
+	private String value;
+	private int next;
+
+	@Setup
+	public void setup() throws Exception {
+		rootDir = Files.createTempDirectory("storage-benchmark").toFile();
+		String rootPath = new File(rootDir, "data").getPath();
+		storage = strategy == StorageStrategy.Log ?
+			new LogStorage(rootPath) : new Storage(rootPath);
+
+		char[] chars = new char[valueSize];
+		Arrays.fill(chars, 'v');
+		value = new String(chars);
+		keys = new String[N_KEYS];
+		for(int i = 0; i < N_KEYS; i++) {
+			keys[i] = "key" + i;
+			storage.putKV(keys[i], value);
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		storage.clear();
+		storage.close();
+		deleteRecursively(rootDir);
+	}
+
+	@Benchmark
+	public String get() throws Exception {
+		return storage.getKV(keys[nextIndex()]);
+	}
+
+	@Benchmark
+	public void put() throws Exception {
+		storage.putKV(keys[nextIndex()], value);
+	}
+
+	private int nextIndex() {
+		if(++next == N_KEYS) {
+			next = 0;
+		}
+		return next;
+	}
+
+	static void deleteRecursively(File file) {
+		File[] children = file.listFiles();
+		if(children != null) {
+			for(File child : children) {
+				deleteRecursively(child);
+			}
+		}
+		file.delete();
+	}
+}
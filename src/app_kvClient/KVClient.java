@@ -37,8 +37,6 @@ public class KVClient implements IKVClient {
 	private static final String PROMPT = "KVClient>>> ";
 	private static final String PROMPTIN = "KVClient<<< ";
 
-	public volatile static boolean waitForServer = false;
-
 	private BufferedReader stdin;
 	public boolean stop = false;
 	private boolean inputReady = true;
@@ -50,21 +48,21 @@ public class KVClient implements IKVClient {
 
 	public void run(){
 
+		stdin = new BufferedReader(new InputStreamReader(System.in));
 		while(!stop) {
-			
-			if (!waitForServer){
-			stdin = new BufferedReader(new InputStreamReader(System.in));
 			System.out.print(PROMPTIN);
-			
-			
+
 			try {
 				String cmdLine = stdin.readLine();
+				if(cmdLine == null) {
+					stop = true;
+					break;
+				}
 				this.handleCommand(cmdLine);
 			} catch (IOException e) {
 				stop = true;
 				printError("CLI does not respond - KVClient terminated ");
 			}
-			}
 		}
 	}
 
@@ -85,15 +83,11 @@ public class KVClient implements IKVClient {
 				break;
 
 			case "put":
-				waitForServer = true;
-				// stop = true;
 				logger.info("User input: put command");
 				put(tokens);
 				break;
 
 			case "get":
-				waitForServer = true;
-				// stop = true;
 				logger.info("User input: get command");
 				get(tokens);
 				break;
@@ -140,9 +134,10 @@ public class KVClient implements IKVClient {
 		String key = tokens[1];
 		
 		try{
-			this.client.get(key);
+			printResponse(this.client.get(key));
 		}catch (Exception e){
-
+			logger.warn("Get request failed", e);
+			printError("Request failed: " + e.getMessage());
 		}
 
 	}
@@ -163,9 +158,11 @@ public class KVClient implements IKVClient {
 		String key = tokens[1];
 
 		try {			
-			this.client.put(key, (tokens.length == 3) ? tokens[2] : null);
+			printResponse(this.client.put(key,
+				(tokens.length == 3) ? tokens[2] : null));
 		} catch (Exception e) {
-			System.out.println("Exceptions");
+			logger.warn("Put request failed", e);
+			printError("Request failed: " + e.getMessage());
 		}
 
 
@@ -265,6 +262,36 @@ public class KVClient implements IKVClient {
 	}
 
 
+	private void printResponse(KVMessage response) {
+		switch(response.getStatus()){
+			case GET_ERROR:
+				System.out.printf(PROMPT + "GET_ERROR: %s\n", response.getValue());
+				break;
+			case GET_SUCCESS:
+				System.out.printf(PROMPT + "GET_SUCCESS: key: %s, value: %s\n", response.getKey(), response.getValue());
+				break;
+			case PUT_SUCCESS:
+				System.out.printf(PROMPT + "PUT_SUCCESS: key: %s, value: %s\n", response.getKey(), response.getValue());
+				break;
+			case PUT_UPDATE:
+				System.out.printf(PROMPT + "PUT_UPDATE: key: %s, value: %s\n", response.getKey(), response.getValue());
+				break;
+			case PUT_ERROR:
+				System.out.printf(PROMPT + "PUT_ERROR: %s\n", response.getValue());
+				break;
+			case DELETE_SUCCESS:
+				System.out.printf(PROMPT + "DELETE_SUCCESS: key: %s, value: %s\n", response.getKey(), response.getValue());
+				break;
+			case DELETE_ERROR:
+				System.out.printf(PROMPT + "DELETE_ERROR: %s\n", response.getValue());
+				break;
+			default:
+				// Should have been caught in unserialize function
+				System.out.println("Server has returned invalid input");
+				break;
+		}
+	}
+
 	private void printError(String error){
 		System.out.println(PROMPT + "Error! " +  error);
 	}
@@ -313,11 +340,9 @@ public class KVClient implements IKVClient {
 			this.client = new KVStore(hostname, port);
 			// String success_print = "Sucessfully connected to server 
 			// at address: " + hostname + " with port number : " + port;				
-			this.client.addListener(this);
 			this.client.connect();
 			System.out.printf("Successful Connection to Server at addresss: %s with port number: %d\n", hostname, port);			
 			logger.info("Sucessfully connected to server at address: " + hostname + " at port: " + port);			
-			this.client.start();
 		} catch (Exception e) {
 			logger.info("Failed to connect to Server at address: " + hostname + " with port number: " + port);
 			printError("System unable to successfully connect.");
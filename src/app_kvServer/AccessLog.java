@@ -0,0 +1,67 @@
+package app_kvServer;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.apache.log4j.Logger;
+
+import common.messages.KVBatchMessage;
+import common.messages.KVMessage;
+
+/**
+ * Logs a random sample of the requests served, with their outcome and how
+ * long they took, to the "access" logger at INFO level. Requests that are
+ * not sampled cost one random number.
+ */
+public class AccessLog {
+
+	private static Logger logger = Logger.getLogger("access");
+
+	/**
+	 * Log one in this many requests by default
+	 */
+	public static final int DEFAULT_SAMPLE_RATE = 1000;
+
+	private static final double NS_TO_MS = 1000000;
+
+	private volatile int sampleRate;
+
+	/**
+	 * Constructs a new AccessLog.
+	 * @param sampleRate log one in this many requests, 0 to log none
+	 */
+	public AccessLog(int sampleRate) {
+		this.sampleRate = sampleRate;
+	}
+
+	/**
+	 * @param sampleRate log one in this many requests, 0 to log none
+	 */
+	public void setSampleRate(int sampleRate) {
+		this.sampleRate = sampleRate;
+	}
+
+	/**
+	 * Decides whether to log the request about to be handled
+	 * @return true if the request is to be passed to log() once handled
+	 */
+	public boolean sample() {
+		int rate = sampleRate;
+		return rate > 0 && ThreadLocalRandom.current().nextInt(rate) == 0 &&
+			logger.isInfoEnabled();
+	}
+
+	/**
+	 * Logs a sampled request
+	 * @param request the request handled
+	 * @param response the response sent back for it
+	 * @param elapsedNs time taken to handle the request
+	 */
+	public void log(KVMessage request, KVMessage response, long elapsedNs) {
+		String subject = request instanceof KVBatchMessage ?
+			((KVBatchMessage) request).getMessages().size() + " keys" :
+			request.getKey();
+		logger.info(request.getStatus() + " " + subject + " -> " +
+			response.getStatus() + " in " + (elapsedNs / NS_TO_MS) + " ms" +
+			" (1 in " + sampleRate + " sampled)");
+	}
+}
@@ -1,9 +1,8 @@
 package app_kvServer;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.BufferedReader;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.Socket;
@@ -12,9 +11,10 @@ import org.apache.log4j.Logger;
 
 import app_kvServer.KVServer;
 import common.messages.KVMessage;
-import common.messages.KVMessageImpl;
-import common.messages.KVMessage.StatusType;
+import serialization.BinaryFrameReader;
+import serialization.BinarySerialization;
 import serialization.Serialization;
+import serialization.TextMessageReader;
 
 
 
@@ -28,15 +28,13 @@ public class ClientConnection implements Runnable {
 	private static Logger logger = Logger.getRootLogger();
 	
 	private boolean isOpen;
-	private static final int BUFFER_SIZE = 122880;
-	private static final int DROP_SIZE = 128 * BUFFER_SIZE;
-	private static final int MAX_REQUEST_LINES = 1024;
 	
 	private Socket clientSocket;
 	private InputStream input;
 	private OutputStream output;
 
 	private KVServer parentServer;
+	private RequestHandler requestHandler;
 	
 	/**
 	 * Constructs a new CientConnection object for a given TCP socket.
@@ -46,6 +44,7 @@ public class ClientConnection implements Runnable {
 		this.clientSocket = clientSocket;
 		this.isOpen = true;
 		this.parentServer = parentServer;
+		this.requestHandler = new RequestHandler(parentServer);
 	}
 	
 	/**
@@ -54,12 +53,16 @@ public class ClientConnection implements Runnable {
 	 */
 	public void run() {
 		try {
-			output = clientSocket.getOutputStream();
-			input = clientSocket.getInputStream();
+			output = new BufferedOutputStream(clientSocket.getOutputStream());
+			input = new BufferedInputStream(clientSocket.getInputStream());
 			
 			while(isOpen) {
 				try {
-					handleRequests();
+					if(acceptBinaryHandshake()) {
+						handleBinaryRequests();
+					} else {
+						handleRequests();
+					}
 				} catch(IOException e) {
 					logger.info("Connection to client lost");
 					isOpen = false;
@@ -83,121 +86,95 @@ public class ClientConnection implements Runnable {
 	}
 
 	/**
-	 * Reads inputs line by line until an empty line is encountered. At this
-	 * point all accumulated lines are considered one single request and this
-	 * request is attempted to be processed.
+	 * Checks whether the client opens the connection with the handshake of
+	 * the binary protocol, and confirms it if so. Otherwise nothing is
+	 * consumed from the input.
+	 * @return whether the connection uses the binary protocol
 	 */
-	private void handleRequests() throws IOException {
-		BufferedReader inStream =
-			new BufferedReader(new InputStreamReader(input));
-		
-		String lines[] = new String[MAX_REQUEST_LINES];
-		int i = 0;
-		String line = null;
-		while((line = inStream.readLine()) != null) {
-			if(line.isEmpty()) {
-				String actualLines[] = new String[i];
-				for(int j = 0; j < i; j++) {
-					actualLines[j] = lines[j];
-				}
-				handleRequest(actualLines);
-				i = 0;
-			} else {
-				lines[i] = line;
-				i++;
-			}
+	private boolean acceptBinaryHandshake() throws IOException {
+		input.mark(1);
+		if(input.read() != (BinarySerialization.MAGIC & 0xFF)) {
+			input.reset();
+			return false;
+		}
+		int version = input.read();
+		if(version != BinarySerialization.VERSION) {
+			throw new IOException("Unsupported binary protocol version: " +
+				version);
 		}
+		output.write(BinarySerialization.getHandshake());
+		output.flush();
+		return true;
 	}
 
 	/**
-	 * Handles a single request, provided as a list of lines
-	 * @param lines the lines in the request (excluding trailing empty line)
+	 * Processes requests of the binary protocol until the client closes the
+	 * connection. As with the text protocol, responses are only pushed onto
+	 * the network once no further request is buffered.
 	 */
-	private void handleRequest(String[] lines) {
-		// Attempt to unserialize request from string into KVMessage
+	private void handleBinaryRequests() throws IOException {
+		BinaryFrameReader frames = new BinaryFrameReader(input);
 		KVMessage request;
-		try {
-			request = Serialization.unserialize(lines);
-		} catch(IllegalArgumentException e) {
-			logger.info("Unable to unserialize request: " + e.getMessage());
-			KVMessage response = new KVMessageImpl(null,
-				"Invalid request", StatusType.GET_ERROR);
-			sendResponse(response);
-			return;
+		while((request = frames.read()) != null) {
+			sendBinaryResponse(requestHandler.handleRequest(request));
+			if(!frames.isReady()) {
+				flush();
+			}
 		}
 
-		// Attempt to process the request given its type
-		switch(request.getStatus()) {
-			case GET:
-				handleGetRequest(request);
-				break;
-			case PUT:
-				handlePutRequest(request);
-				break;
-			default:
-				// Should have been caught in unserialize function
-		}
+		// End of stream, the client has closed the connection
+		isOpen = false;
 	}
 
-	private void handleGetRequest(KVMessage request) {
-		// Attempt to get from cached storage
-		logger.info("Handling GET request: " + request.getKey());
-		String value;
-		try {
-			value = parentServer.getKV(request.getKey());
-		} catch(FileNotFoundException e) {
-			logger.info("Requested key not found: " + request.getKey());
-			KVMessage response = new KVMessageImpl(null,
-				"Specified key not found", StatusType.GET_ERROR);
-			sendResponse(response);
-			return;
-		} catch(Exception e) {
-			logger.error("Unable to get key-value from cached storage", e);
-			KVMessage response = new KVMessageImpl(null,
-				"Error while processing request", StatusType.GET_ERROR);
+	/**
+	 * Reads inputs line by line until an empty line is encountered. At this
+	 * point all accumulated lines are considered one single request and this
+	 * request is attempted to be processed. Clients may pipeline requests;
+	 * these are answered in order, and responses are only pushed onto the
+	 * network once no further request is buffered. The parse buffer and
+	 * request object are reused for every request on the connection.
+	 */
+	private void handleRequests() throws IOException {
+		TextMessageReader requests = new TextMessageReader(input);
+		while(true) {
+			KVMessage response;
+			try {
+				KVMessage request = requests.read();
+				if(request == null) {
+					break;
+				}
+				response = requestHandler.handleRequest(request);
+			} catch(IllegalArgumentException e) {
+				response = requestHandler.handleInvalidRequest(e);
+			}
 			sendResponse(response);
-			return;
+			if(!requests.isReady()) {
+				flush();
+			}
 		}
 
-		// Upon success, return result in response
-		KVMessage response = new KVMessageImpl(request.getKey(), value,
-			StatusType.GET_SUCCESS);
-		sendResponse(response);
+		// End of stream, the client has closed the connection
+		isOpen = false;
 	}
 
-	private void handlePutRequest(KVMessage request) {
-		// Attempt to insert into cached storage
-		logger.info("Handling PUT request: " + request.getKey());
-		boolean isInStorage;
+	private void sendResponse(KVMessage response) {
 		try {
-			isInStorage = parentServer.inStorage(request.getKey());
-			parentServer.putKV(request.getKey(), request.getValue());
-		} catch(Exception e) {
-			logger.error("Unable to put key-value into cached storage", e);
-			StatusType status = request.getValue() == null ?
-				StatusType.DELETE_ERROR :
-				StatusType.PUT_ERROR;
-			KVMessage response = new KVMessageImpl(null,
-				"Error while processing request", status);
-			sendResponse(response);
-			return;
+			Serialization.serialize(response, output);
+		} catch(IOException e) {
+			logger.error("Unable to send response to client", e);
 		}
-
-		// Upon success, return response message
-		StatusType status = isInStorage ?
-			(request.getValue() == null ?
-				StatusType.DELETE_SUCCESS : StatusType.PUT_UPDATE) :
-			StatusType.PUT_SUCCESS;
-		KVMessage response = new KVMessageImpl(request.getKey(),
-			request.getValue(), status);
-		sendResponse(response);
 	}
 
-	private void sendResponse(KVMessage response) {
-		String responseString = Serialization.serialize(response);
+	private void sendBinaryResponse(KVMessage response) {
+		try {
+			output.write(BinarySerialization.serialize(response));
+		} catch(IOException e) {
+			logger.error("Unable to send response to client", e);
+		}
+	}
 
+	private void flush() {
 		try {
-			output.write(responseString.getBytes());
 			output.flush();
 		} catch(IOException e) {
 			logger.error("Unable to send response to client", e);
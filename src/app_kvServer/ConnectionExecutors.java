@@ -0,0 +1,85 @@
+package app_kvServer;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Creates the executor that runs ClientConnections in VirtualThread mode.
+ * On a JDK with virtual threads every connection gets its own virtual
+ * thread, which only costs a small heap-allocated stack while it is blocked
+ * on its socket. Older JDKs fall back to a bounded pool of platform threads
+ * with reduced stacks, so that a burst of clients is turned away instead of
+ * exhausting the process's native threads.
+ */
+final class ConnectionExecutors {
+
+	private static Logger logger = Logger.getRootLogger();
+
+	/**
+	 * Maximum number of connections served at once by the fallback pool
+	 */
+	public static final int DEFAULT_MAX_THREADS = 1000;
+
+	private static final long THREAD_STACK_SIZE = 256 * 1024;
+	private static final long IDLE_THREAD_TIMEOUT_S = 60;
+
+	private ConnectionExecutors() {
+	}
+
+	/**
+	 * Creates an executor running each submitted connection on its own
+	 * thread. Submissions are rejected with RejectedExecutionException when
+	 * the fallback pool already runs maxThreads connections.
+	 * @param maxThreads maximum number of platform threads used when virtual
+	 *           threads are not available
+	 */
+	static ExecutorService newConnectionExecutor(int maxThreads) {
+		ExecutorService executor = newVirtualThreadExecutor();
+		if(executor != null) {
+			logger.info("Serving connections on virtual threads");
+			return executor;
+		}
+
+		logger.info("Virtual threads not available, serving connections " +
+			"on up to " + maxThreads + " threads");
+		return new ThreadPoolExecutor(0, maxThreads,
+			IDLE_THREAD_TIMEOUT_S, TimeUnit.SECONDS,
+			new SynchronousQueue<Runnable>(), new ConnectionThreadFactory());
+	}
+
+	/**
+	 * Looks up Executors.newVirtualThreadPerTaskExecutor() by reflection, as
+	 * the build targets JDKs that predate it
+	 * @return the executor, or null if virtual threads are not available
+	 */
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			Method factory = Class.forName("java.util.concurrent.Executors")
+				.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch(ReflectiveOperationException e) {
+			// Either missing, or a preview feature that is not enabled
+			return null;
+		}
+	}
+
+	private static class ConnectionThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger nCreated = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable connection) {
+			Thread thread = new Thread(null, connection,
+				"connection-" + nCreated.incrementAndGet(), THREAD_STACK_SIZE);
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
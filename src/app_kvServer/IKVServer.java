@@ -5,7 +5,25 @@ public interface IKVServer {
         None,
         LRU,
         LFU,
-        FIFO
+        FIFO,
+        CLOCK
+    };
+
+    public enum StorageStrategy {
+        File,
+        Log
+    };
+
+    public enum ConnectionMode {
+        ThreadPerConnection,
+        Reactor,
+        VirtualThread
+    };
+
+    public enum Durability {
+        None,
+        Batched,
+        EveryWrite
     };
 
     /**
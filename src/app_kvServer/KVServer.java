@@ -2,16 +2,25 @@ package app_kvServer;
 
 import logger.LogSetup;
 
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.io.IOException;
 import java.net.BindException;
+import java.nio.channels.ServerSocketChannel;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 
 import cache.ICache;
+import cache.NegativeCache;
 import cached_storage.CachedStorage;
+import storage.LogCompactor;
+import storage.LoggedStorage;
 
 public class KVServer implements IKVServer {
 
@@ -24,7 +33,13 @@ public class KVServer implements IKVServer {
 	private CachedStorage cachedStorage;
 
     private ServerSocket serverSocket;
-    private boolean isRunning;
+    private volatile boolean isRunning;
+
+	private ConnectionMode connectionMode = ConnectionMode.ThreadPerConnection;
+	private int nWorkers;
+	private ReactorServer reactor;
+	private AccessLog accessLog = new AccessLog(AccessLog.DEFAULT_SAMPLE_RATE);
+	private ExecutorService connectionExecutor;
 
 	/**
 	 * Start KV Server at given port
@@ -34,12 +49,29 @@ public class KVServer implements IKVServer {
 	 * @param strategy specifies the cache replacement strategy in case the
 	 * 			 cache is full and there is a GET- or PUT-request on a key that
 	 *           is currently not contained in the cache. Options are "FIFO",
-	 *           "LRU", and "LFU".
+	 *           "LRU", "LFU", and "CLOCK".
 	 */
 	public KVServer(int port, int cacheSize, CacheStrategy cacheStrategy) {
+		this(port, cacheSize, cacheStrategy, StorageStrategy.File);
+	}
+
+	/**
+	 * Start KV Server at given port
+	 * @param port given port for storage server to operate
+	 * @param cacheSize specifies how many key-value pairs the server is allowed
+	 *           to keep in-memory
+	 * @param strategy specifies the cache replacement strategy in case the
+	 * 			 cache is full and there is a GET- or PUT-request on a key that
+	 *           is currently not contained in the cache. Options are "FIFO",
+	 *           "LRU", "LFU", and "CLOCK".
+	 * @param storageStrategy specifies the persistent storage engine. Options
+	 *           are "File" and "Log".
+	 */
+	public KVServer(int port, int cacheSize, CacheStrategy cacheStrategy,
+			StorageStrategy storageStrategy) {
 		this.port = port;
 		this.cachedStorage = new CachedStorage(PERSISTENT_STORAGE_ROOT_DIR,
-			cacheStrategy, cacheSize);
+			cacheStrategy, cacheSize, storageStrategy);
 	}
 
 	@Override
@@ -60,6 +92,117 @@ public class KVServer implements IKVServer {
 		return cachedStorage.getCacheStrategy();
 	}
 
+	/**
+	 * Get the persistent storage strategy of the server
+	 * @return  storage strategy
+	 */
+	public StorageStrategy getStorageStrategy() {
+		return cachedStorage.getStorageStrategy();
+	}
+
+	/**
+	 * Adjust background compaction of log-structured storage
+	 * @param garbageRatio fraction of dead bytes at which a log segment is
+	 *           compacted
+	 * @param bytesPerSecond maximum rate at which compaction reads segments,
+	 *           0 for no limit
+	 */
+	public void configureCompaction(double garbageRatio, long bytesPerSecond) {
+		cachedStorage.configureCompaction(garbageRatio, bytesPerSecond);
+	}
+
+	/**
+	 * Set how writes are made durable. Should be called before run().
+	 * @param durability None to not sync writes to disk, Batched to sync
+	 *           them every syncIntervalMs, or EveryWrite to sync each write
+	 *           before it completes
+	 * @param syncIntervalMs time between syncs for Batched durability
+	 */
+	public void configureDurability(Durability durability,
+			int syncIntervalMs) {
+		cachedStorage.configureDurability(durability, syncIntervalMs);
+	}
+
+	/**
+	 * Get how writes are made durable
+	 * @return  durability level
+	 */
+	public Durability getDurability() {
+		return cachedStorage.getDurability();
+	}
+
+	/**
+	 * Limit the cache by the estimated memory taken by its entries rather
+	 * than by their number, so that large values cannot take up more memory
+	 * than intended. Should be called before run().
+	 * @param maxBytes budget in bytes, 0 to limit the number of entries to
+	 *           the cache size
+	 */
+	public void configureCacheBudget(long maxBytes) {
+		cachedStorage.configureCacheBudget(maxBytes);
+	}
+
+	/**
+	 * Set up caching of keys found missing from storage, so that repeated
+	 * gets of a missing key skip the lookup in storage. Should be called
+	 * before run().
+	 * @param maxEntries maximum number of missing keys remembered, 0 to not
+	 *           remember any
+	 * @param ttlMs time for which a key is remembered as missing
+	 */
+	public void configureNegativeCache(int maxEntries, long ttlMs) {
+		cachedStorage.configureNegativeCache(maxEntries, ttlMs);
+	}
+
+	/**
+	 * Set how many of the requests served are written to the access log
+	 * @param sampleRate log one in this many requests, 0 to log none
+	 */
+	public void setAccessLogSampling(int sampleRate) {
+		accessLog.setSampleRate(sampleRate);
+	}
+
+	/**
+	 * Get the access log requests are sampled into
+	 * @return  access log
+	 */
+	AccessLog getAccessLog() {
+		return this.accessLog;
+	}
+
+	/**
+	 * Set how often LFU use counts are halved
+	 * @param agingPeriod number of cache accesses between agings, 0 to never
+	 *           age
+	 */
+	public void configureCacheAging(int agingPeriod) {
+		cachedStorage.configureCacheAging(agingPeriod);
+	}
+
+	/**
+	 * Select how client connections are served. Must be called before run().
+	 * @param connectionMode ThreadPerConnection to serve each connection with
+	 *           blocking I/O on its own thread, VirtualThread to do the same
+	 *           on virtual threads (or a bounded pool on older JDKs), or
+	 *           Reactor to serve all connections from one selector thread
+	 * @param nWorkers number of threads processing requests in Reactor mode,
+	 *           or maximum number of connection threads in VirtualThread
+	 *           mode when virtual threads are not available. 0 selects the
+	 *           default for the mode.
+	 */
+	public void setConnectionMode(ConnectionMode connectionMode, int nWorkers) {
+		this.connectionMode = connectionMode;
+		this.nWorkers = nWorkers;
+	}
+
+	/**
+	 * Get how client connections are served
+	 * @return  connection mode
+	 */
+	public ConnectionMode getConnectionMode() {
+		return this.connectionMode;
+	}
+
 	@Override
     public int getCacheSize() {
 		return cachedStorage.getCacheSize();
@@ -80,6 +223,15 @@ public class KVServer implements IKVServer {
 		return cachedStorage.getKV(key);
 	}
 
+	/**
+	 * Get the value associated with the key, like getKV, but without the
+	 * cost of an exception when the key is missing
+	 * @return the value, or null if the key is not in storage
+	 */
+	public String lookupKV(String key) throws Exception {
+		return cachedStorage.lookupKV(key);
+	}
+
 	@Override
     public void putKV(String key, String value) throws Exception {
 		// Check if we're doing a regular insert/update or delete
@@ -90,6 +242,41 @@ public class KVServer implements IKVServer {
 		}
 	}
 
+	/**
+	 * Get the values of several keys at once
+	 * @return the keys found, in the order given, with their values
+	 */
+	public Map<String, String> getKVs(List<String> keys) throws Exception {
+		return cachedStorage.getKVs(keys);
+	}
+
+	/**
+	 * Put several key-value pairs at once. Unlike putKV, a pair cannot
+	 * delete its key.
+	 * @throws IllegalArgumentException if a value is null or empty
+	 */
+	public void putKVs(Map<String, String> entries) throws Exception {
+		for(Map.Entry<String, String> entry : entries.entrySet()) {
+			if(entry.getValue() == null || entry.getValue().isEmpty()) {
+				throw new IllegalArgumentException(
+					"Batched put without value: " + entry.getKey());
+			}
+		}
+		cachedStorage.putKVs(entries);
+	}
+
+	/**
+	 * Get the keys in a range, in ascending order, with their values
+	 * @param startKey the first key of the range, included
+	 * @param endKey the key the range stops at, excluded, or null for no end
+	 * @param limit the maximum number of keys to return
+	 * @return the keys found, in order, with their values
+	 */
+	public Map<String, String> scan(String startKey, String endKey,
+			int limit) throws Exception {
+		return cachedStorage.scan(startKey, endKey, limit);
+	}
+
 	@Override
     public void clearCache() {
 		cachedStorage.clearCache();
@@ -104,19 +291,29 @@ public class KVServer implements IKVServer {
     public void run() {
 		isRunning = initializeServer();
 
-        if(serverSocket != null) {
+		if(isRunning && connectionMode == ConnectionMode.Reactor) {
+			reactor.run();
+		} else if(serverSocket != null) {
 	        while(this.isRunning) {
 	            try {
 	                Socket client = serverSocket.accept();                
 	                ClientConnection connection = 
 	                		new ClientConnection(client, this);
-	                new Thread(connection).start();
+	                if(connectionExecutor == null) {
+	                	new Thread(connection).start();
+	                } else if(!execute(connection, client)) {
+	                	continue;
+	                }
 	                
+	                // The address rather than the host name, which would
+	                // need a reverse DNS lookup on the accept thread
 	                logger.info("Connected to " +
-	                		client.getInetAddress().getHostName() +
+	                		client.getInetAddress().getHostAddress() +
 	                		" on port " + client.getPort());
 	            } catch (IOException e) {
-	            	logger.error("Unable to establish connection", e);
+	            	if(this.isRunning) {
+	            		logger.error("Unable to establish connection", e);
+	            	}
 	            }
 	        }
 		}
@@ -124,6 +321,28 @@ public class KVServer implements IKVServer {
         logger.info("Server stopped");
 	}
 
+	/**
+	 * Hands a connection over to the connection executor, closing it if the
+	 * executor is saturated
+	 * @return whether the connection is being served
+	 */
+	private boolean execute(ClientConnection connection, Socket client) {
+		try {
+			connectionExecutor.execute(connection);
+			return true;
+		} catch(RejectedExecutionException e) {
+			logger.warn("Too many connections, refusing " +
+				client.getInetAddress().getHostAddress());
+			try {
+				client.close();
+			} catch(IOException closeException) {
+				logger.error("Unable to close refused connection",
+					closeException);
+			}
+			return false;
+		}
+	}
+
 	@Override
     public void kill() {
 		isRunning = false;
@@ -133,6 +352,12 @@ public class KVServer implements IKVServer {
 	@Override
     public void close() {
 		isRunning = false;
+		if(reactor != null) {
+			reactor.stop();
+		}
+		if(connectionExecutor != null) {
+			connectionExecutor.shutdown();
+		}
         try {
 			if(serverSocket != null) {
 				serverSocket.close();
@@ -140,12 +365,27 @@ public class KVServer implements IKVServer {
 		} catch (IOException e) {
 			logger.error("Unable to close socket on port: " + port, e);
 		}
+		cachedStorage.close();
 	}
 
     private boolean initializeServer() {
 		logger.info("Initializing server socket");
     	try {
-            this.serverSocket = new ServerSocket(this.port);
+			if(connectionMode == ConnectionMode.Reactor) {
+				ServerSocketChannel serverChannel = ServerSocketChannel.open();
+				serverChannel.socket().bind(new InetSocketAddress(this.port));
+				this.serverSocket = serverChannel.socket();
+				this.reactor = new ReactorServer(serverChannel, this,
+					nWorkers > 0 ? nWorkers : ReactorServer.DEFAULT_N_WORKERS);
+			} else {
+				this.serverSocket = new ServerSocket(this.port);
+				if(connectionMode == ConnectionMode.VirtualThread) {
+					this.connectionExecutor =
+						ConnectionExecutors.newConnectionExecutor(
+							nWorkers > 0 ? nWorkers :
+								ConnectionExecutors.DEFAULT_MAX_THREADS);
+				}
+			}
 			logger.info("Server listening on port: " +
 				serverSocket.getLocalPort());    
             return true;
@@ -162,18 +402,42 @@ public class KVServer implements IKVServer {
     /**
      * Main entry point for the KV server application. 
      * @param args contains the port number at args[0], cache size (# entries)
-	 * at args[1], and cache strategy (one of: None, LRU, LFU, FIFO) at args[2]
+	 * at args[1], and cache strategy (one of: None, LRU, LFU, FIFO, CLOCK) at
+	 * args[2],
+	 * followed by any number of optional settings of the form name=value:
+	 *   storage=<File|Log>    persistent storage engine (default File)
+	 *   compaction-ratio=<r>  fraction of dead bytes at which a log segment
+	 *                         is compacted (default 0.5)
+	 *   compaction-rate=<n>   compaction I/O budget in bytes per second
+	 *                         (default 16 MB/s, 0 for no limit)
+	 *   lfu-aging=<n>         halve LFU use counts every n cache accesses
+	 *                         (default 0, never)
+	 *   log-level=<level>     lowest level of events to log, one of ALL, DEBUG,
+	 *                         INFO (default), WARN, ERROR, FATAL or OFF. Each
+	 *                         request is only logged at DEBUG.
+	 *   async-log=<b>         whether events are written out on a background
+	 *                         thread, true (default) or false
+	 *   access-log=<n>        log one in n requests to the access log
+	 *                         (default 1000, 0 for none)
+	 *   durability=<d>        when writes are synced to disk through a
+	 *                         write-ahead log, one of None (default),
+	 *                         Batched or EveryWrite
+	 *   sync-interval=<ms>    time between syncs for Batched durability
+	 *                         (default 10 ms)
+	 *   mode=<m>              how connections are served, one of
+	 *                         ThreadPerConnection (default), VirtualThread
+	 *                         or Reactor
+	 *   workers=<n>           request processing threads in Reactor mode
+	 *                         (default twice the number of cores), or
+	 *                         maximum connection threads in VirtualThread
+	 *                         mode without virtual threads (default 1000)
      */
     public static void main(String[] args) {
     	try {
-			// Start logging
-			new LogSetup("logs/server.log", Level.ALL);
-
 			// Check argument count
-			if(args.length != 3) {
+			if(args.length < 3) {
 				System.out.println("Error: Invalid number of arguments");
-				System.out.println("Usage: Server <port> <cache size> " +
-					"<cache strategy>");
+				printUsage();
 				return;
 			}
 
@@ -193,14 +457,151 @@ public class KVServer implements IKVServer {
 				case "FIFO":
 					cacheStrategy = CacheStrategy.FIFO;
 					break;
+				case "CLOCK":
+					cacheStrategy = CacheStrategy.CLOCK;
+					break;
 				default:
 					System.out.println("Error: Invalid cache strategy " +
-						"(should be one of LRU, LFU, or FIFO)");
+						"(should be one of LRU, LFU, FIFO, or CLOCK)");
 					return;
 			}
 
+			// Parse optional settings
+			StorageStrategy storageStrategy = StorageStrategy.File;
+			double compactionRatio = LogCompactor.DEFAULT_GARBAGE_RATIO;
+			long compactionRate = LogCompactor.DEFAULT_BYTES_PER_SECOND;
+			int lfuAgingPeriod = 0;
+			Level logLevel = Level.INFO;
+			boolean isAsyncLog = true;
+			int accessLogSampleRate = AccessLog.DEFAULT_SAMPLE_RATE;
+			Durability durability = Durability.None;
+			int syncIntervalMs = LoggedStorage.DEFAULT_SYNC_INTERVAL_MS;
+			ConnectionMode connectionMode = ConnectionMode.ThreadPerConnection;
+			int nWorkers = 0;
+			int negativeCacheSize = 0;
+			long negativeCacheTtlMs = NegativeCache.DEFAULT_TTL_MS;
+			long cacheBytes = 0;
+			for(int i = 3; i < args.length; i++) {
+				String[] setting = args[i].split("=", 2);
+				if(setting.length != 2) {
+					System.out.println("Error: Invalid setting: " + args[i]);
+					printUsage();
+					return;
+				}
+				switch(setting[0]) {
+					case "storage":
+						switch(setting[1]) {
+							case "File":
+								storageStrategy = StorageStrategy.File;
+								break;
+							case "Log":
+								storageStrategy = StorageStrategy.Log;
+								break;
+							default:
+								System.out.println("Error: Invalid storage " +
+									"(should be one of File or Log)");
+								return;
+						}
+						break;
+					case "compaction-ratio":
+						compactionRatio = Double.parseDouble(setting[1]);
+						break;
+					case "compaction-rate":
+						compactionRate = Long.parseLong(setting[1]);
+						break;
+					case "lfu-aging":
+						lfuAgingPeriod = Integer.parseInt(setting[1]);
+						break;
+					case "log-level":
+						logLevel = Level.toLevel(setting[1], null);
+						if(logLevel == null) {
+							System.out.println("Error: Invalid log level " +
+								"(should be one of " +
+								LogSetup.getPossibleLogLevels() + ")");
+							return;
+						}
+						break;
+					case "async-log":
+						isAsyncLog = Boolean.parseBoolean(setting[1]);
+						break;
+					case "access-log":
+						accessLogSampleRate = Integer.parseInt(setting[1]);
+						break;
+					case "durability":
+						switch(setting[1]) {
+							case "None":
+								durability = Durability.None;
+								break;
+							case "Batched":
+								durability = Durability.Batched;
+								break;
+							case "EveryWrite":
+								durability = Durability.EveryWrite;
+								break;
+							default:
+								System.out.println("Error: Invalid " +
+									"durability (should be one of None, " +
+									"Batched or EveryWrite)");
+								return;
+						}
+						break;
+					case "sync-interval":
+						syncIntervalMs = Integer.parseInt(setting[1]);
+						break;
+					case "mode":
+						switch(setting[1]) {
+							case "ThreadPerConnection":
+								connectionMode =
+									ConnectionMode.ThreadPerConnection;
+								break;
+							case "VirtualThread":
+								connectionMode = ConnectionMode.VirtualThread;
+								break;
+							case "Reactor":
+								connectionMode = ConnectionMode.Reactor;
+								break;
+							default:
+								System.out.println("Error: Invalid mode " +
+									"(should be one of ThreadPerConnection, " +
+									"VirtualThread or Reactor)");
+								return;
+						}
+						break;
+					case "workers":
+						nWorkers = Integer.parseInt(setting[1]);
+						break;
+					case "negative-cache":
+						negativeCacheSize = Integer.parseInt(setting[1]);
+						break;
+					case "negative-ttl":
+						negativeCacheTtlMs = Long.parseLong(setting[1]);
+						break;
+					case "cache-bytes":
+						cacheBytes = Long.parseLong(setting[1]);
+						break;
+					default:
+						System.out.println("Error: Unknown setting: " +
+							setting[0]);
+						printUsage();
+						return;
+				}
+			}
+
+			// Start logging
+			new LogSetup("logs/server.log", logLevel, isAsyncLog);
+
 			// Start server
-			new KVServer(port, cacheSize, cacheStrategy).run();
+			KVServer server = new KVServer(port, cacheSize, cacheStrategy,
+				storageStrategy);
+			server.configureCompaction(compactionRatio, compactionRate);
+			server.configureCacheAging(lfuAgingPeriod);
+			server.configureCacheBudget(cacheBytes);
+			server.configureNegativeCache(negativeCacheSize,
+				negativeCacheTtlMs);
+			server.configureDurability(durability, syncIntervalMs);
+			server.setAccessLogSampling(accessLogSampleRate);
+			server.setConnectionMode(connectionMode, nWorkers);
+			server.run();
 
 		} catch (IOException e) {
 			System.out.println("Error: Unable to initialize logger");
@@ -208,11 +609,22 @@ public class KVServer implements IKVServer {
 			System.exit(1);
 
 		} catch (NumberFormatException e) {
-			System.out.println("Error: Invalid argument: <port> or " +
-				"<cache size> not a valid number");
-			System.out.println("Usage: Server <port> <cache size> " +
-				"<cache strategy>");
+			System.out.println("Error: Invalid argument: <port>, " +
+				"<cache size> or setting not a valid number");
+			printUsage();
 			System.exit(1);
 		}
     }
+
+	private static void printUsage() {
+		System.out.println("Usage: Server <port> <cache size> " +
+			"<cache strategy> [storage=<File|Log>] [compaction-ratio=<r>] " +
+			"[compaction-rate=<bytes/s>] [lfu-aging=<n>] " +
+			"[log-level=<level>] [async-log=<true|false>] " +
+			"[access-log=<n>] " +
+			"[durability=<None|Batched|EveryWrite>] [sync-interval=<ms>] " +
+			"[mode=<ThreadPerConnection|VirtualThread|Reactor>] " +
+			"[workers=<n>] [negative-cache=<n>] [negative-ttl=<ms>] " +
+			"[cache-bytes=<n>]");
+	}
 }
@@ -0,0 +1,309 @@
+package app_kvServer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import common.messages.KVMessage;
+import common.messages.KVMessageImpl;
+import common.messages.KVMessage.StatusType;
+import serialization.BinarySerialization;
+import serialization.Serialization;
+
+/**
+ * State of one client connection served by a ReactorServer. Bytes are read
+ * and written by the selector thread only. Complete requests are queued and
+ * handled by at most one worker thread at a time, so responses are always
+ * sent in the order the requests arrived.
+ */
+class ReactorConnection implements Runnable {
+
+	private static Logger logger = Logger.getRootLogger();
+
+	private static final int READ_BUFFER_SIZE = 16 * 1024;
+	private static final int MAX_REQUEST_BYTES =
+		BinarySerialization.MAX_FRAME_BYTES;
+	private static final int MAX_REQUEST_LINES =
+		Serialization.MAX_MESSAGE_LINES;
+	private static final int MAX_QUEUED_REQUESTS = 256;
+	private static final long MAX_QUEUED_RESPONSE_BYTES = 4 * 1024 * 1024;
+
+	private SocketChannel channel;
+	private SelectionKey key;
+	private ReactorServer reactor;
+	private RequestHandler requestHandler;
+
+	// Selector thread only
+	private ByteBuffer input;
+	private int scanPosition;
+	private List<String> lines;
+	private boolean isInputClosed;
+	private boolean isProtocolKnown;
+
+	// Set before the first request is queued
+	private boolean isBinary;
+
+	// Guarded by this
+	private Queue<KVMessage> requests;
+	private boolean isProcessing;
+
+	private Queue<ByteBuffer> responses;
+	private final AtomicLong responseBytes = new AtomicLong();
+	final AtomicBoolean isUpdatePending = new AtomicBoolean();
+
+	/**
+	 * Constructs a new ReactorConnection for an accepted client channel.
+	 * @param channel the non-blocking channel to the client
+	 * @param key the key the channel is registered with in the selector
+	 * @param reactor the reactor serving the connection
+	 * @param requestHandler handler to process requests with
+	 */
+	ReactorConnection(SocketChannel channel, SelectionKey key,
+			ReactorServer reactor, RequestHandler requestHandler) {
+		this.channel = channel;
+		this.key = key;
+		this.reactor = reactor;
+		this.requestHandler = requestHandler;
+		this.input = ByteBuffer.allocate(READ_BUFFER_SIZE);
+		this.lines = new ArrayList<String>();
+		this.requests = new ArrayDeque<KVMessage>();
+		this.responses = new ConcurrentLinkedQueue<ByteBuffer>();
+	}
+
+	/**
+	 * Reads whatever the client has sent and queues every request completed
+	 * by it. Called from the selector thread.
+	 */
+	void read() throws IOException {
+		if(!input.hasRemaining()) {
+			if(input.capacity() >= MAX_REQUEST_BYTES) {
+				throw new IOException("Request line too long");
+			}
+			ByteBuffer larger = ByteBuffer.allocate(Math.min(
+				2 * input.capacity(), MAX_REQUEST_BYTES));
+			input.flip();
+			larger.put(input);
+			input = larger;
+		}
+
+		int n = channel.read(input);
+		if(n < 0) {
+			logger.info("Connection to client closed");
+			isInputClosed = true;
+			return;
+		}
+
+		if(!isProtocolKnown) {
+			detectProtocol();
+		}
+		if(isProtocolKnown) {
+			if(isBinary) {
+				parseFrames();
+			} else {
+				parseLines();
+			}
+		}
+	}
+
+	/**
+	 * Checks whether the client opened the connection with the handshake of
+	 * the binary protocol, confirming it if so
+	 */
+	private void detectProtocol() throws IOException {
+		if(input.position() == 0) {
+			return;
+		}
+		if(input.get(0) != BinarySerialization.MAGIC) {
+			isProtocolKnown = true;
+			return;
+		}
+		if(input.position() < 2) {
+			return;
+		}
+		if(input.get(1) != BinarySerialization.VERSION) {
+			throw new IOException("Unsupported binary protocol version: " +
+				input.get(1));
+		}
+
+		isBinary = true;
+		isProtocolKnown = true;
+		byte[] handshake = BinarySerialization.getHandshake();
+		responseBytes.addAndGet(handshake.length);
+		responses.add(ByteBuffer.wrap(handshake));
+		input.flip();
+		input.position(2);
+		input.compact();
+	}
+
+	/**
+	 * Queues every complete frame read so far, keeping a partial frame at the
+	 * start of the buffer
+	 */
+	private void parseFrames() throws IOException {
+		input.flip();
+		try {
+			KVMessage request;
+			while((request = BinarySerialization.unserialize(input)) != null) {
+				enqueue(request);
+			}
+		} catch(IllegalArgumentException e) {
+			throw new IOException("Invalid frame: " + e.getMessage());
+		} finally {
+			input.compact();
+		}
+	}
+
+	/**
+	 * Splits the input read so far into lines. Accumulated lines form one
+	 * request each time an empty line is encountered.
+	 */
+	private void parseLines() throws IOException {
+		byte[] bytes = input.array();
+		int end = input.position();
+		int lineStart = 0;
+		for(int i = scanPosition; i < end; i++) {
+			if(bytes[i] != '\n') {
+				continue;
+			}
+			int lineEnd = i;
+			if(lineEnd > lineStart && bytes[lineEnd - 1] == '\r') {
+				lineEnd--;
+			}
+			if(lineEnd == lineStart) {
+				enqueue(unserialize(lines.toArray(new String[lines.size()])));
+				lines.clear();
+			} else {
+				if(lines.size() >= MAX_REQUEST_LINES) {
+					throw new IOException("Too many lines in request");
+				}
+				lines.add(new String(bytes, lineStart, lineEnd - lineStart,
+					StandardCharsets.UTF_8));
+			}
+			lineStart = i + 1;
+		}
+
+		// Keep the partial line at the start of the buffer
+		input.flip();
+		input.position(lineStart);
+		input.compact();
+		scanPosition = input.position();
+	}
+
+	/**
+	 * Unserializes a request of the text protocol. An invalid request is
+	 * replaced by an error message, which the request handler rejects in turn,
+	 * so that the client still gets a response in its place.
+	 */
+	private KVMessage unserialize(String[] lines) {
+		try {
+			return Serialization.unserialize(lines);
+		} catch(IllegalArgumentException e) {
+			logger.info("Unable to unserialize request: " + e.getMessage());
+			return new KVMessageImpl(null, e.getMessage(),
+				StatusType.GET_ERROR);
+		}
+	}
+
+	private synchronized void enqueue(KVMessage request) {
+		requests.add(request);
+		if(!isProcessing) {
+			isProcessing = true;
+			reactor.submit(this);
+		}
+	}
+
+	/**
+	 * Handles queued requests until none are left. Runs on a worker thread.
+	 */
+	public void run() {
+		while(true) {
+			KVMessage request;
+			synchronized(this) {
+				request = requests.poll();
+				if(request == null) {
+					isProcessing = false;
+					break;
+				}
+			}
+
+			KVMessage response = requestHandler.handleRequest(request);
+			byte[] bytes = isBinary ?
+				BinarySerialization.serialize(response) :
+				Serialization.serialize(response).getBytes(
+					StandardCharsets.UTF_8);
+			responseBytes.addAndGet(bytes.length);
+			responses.add(ByteBuffer.wrap(bytes));
+			reactor.requestUpdate(this);
+		}
+		reactor.requestUpdate(this);
+	}
+
+	/**
+	 * Writes as much of the pending responses as the socket accepts. Called
+	 * from the selector thread.
+	 */
+	void flush() throws IOException {
+		ByteBuffer response;
+		while((response = responses.peek()) != null) {
+			channel.write(response);
+			if(response.hasRemaining()) {
+				return;
+			}
+			responses.poll();
+			responseBytes.addAndGet(-response.capacity());
+		}
+	}
+
+	/**
+	 * Selects the events to wait for next. Reading is paused while too many
+	 * requests are queued, or while the client is not reading responses
+	 * fast enough and too many of them are waiting to be sent. Once the
+	 * client has closed its end and every response has been sent, the
+	 * connection is closed. Called from the selector thread.
+	 */
+	void updateInterest() throws IOException {
+		if(!key.isValid()) {
+			return;
+		}
+
+		int ops = 0;
+		boolean isDone;
+		synchronized(this) {
+			if(!isInputClosed && requests.size() < MAX_QUEUED_REQUESTS &&
+					responseBytes.get() < MAX_QUEUED_RESPONSE_BYTES) {
+				ops |= SelectionKey.OP_READ;
+			}
+			isDone = isInputClosed && !isProcessing && requests.isEmpty();
+		}
+		if(!responses.isEmpty()) {
+			ops |= SelectionKey.OP_WRITE;
+		} else if(isDone) {
+			close();
+			return;
+		}
+		key.interestOps(ops);
+	}
+
+	/**
+	 * Closes the connection, dropping any unsent responses
+	 */
+	void close() {
+		key.cancel();
+		try {
+			channel.close();
+		} catch(IOException e) {
+			logger.error("Unable to tear down connection to client", e);
+		}
+	}
+}
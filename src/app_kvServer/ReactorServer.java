@@ -0,0 +1,179 @@
+package app_kvServer;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Non-blocking front end for the server. A single selector thread accepts
+ * connections and does all socket reads and writes, while requests are
+ * processed on a small fixed pool of worker threads. Idle connections thus
+ * only cost their buffers, not a thread each.
+ */
+public class ReactorServer implements Runnable {
+
+	private static Logger logger = Logger.getRootLogger();
+
+	public static final int DEFAULT_N_WORKERS =
+		2 * Runtime.getRuntime().availableProcessors();
+
+	private ServerSocketChannel serverChannel;
+	private RequestHandler requestHandler;
+	private Selector selector;
+	private ExecutorService workers;
+	private ConcurrentLinkedQueue<ReactorConnection> pendingUpdates;
+	private volatile boolean isRunning;
+
+	/**
+	 * Constructs a new ReactorServer.
+	 * @param serverChannel the bound channel to accept connections on
+	 * @param parentServer the server whose storage requests operate on
+	 * @param nWorkers number of threads processing requests
+	 */
+	public ReactorServer(ServerSocketChannel serverChannel,
+			KVServer parentServer, int nWorkers) throws IOException {
+		this.serverChannel = serverChannel;
+		this.requestHandler = new RequestHandler(parentServer);
+		this.selector = Selector.open();
+		this.workers = Executors.newFixedThreadPool(nWorkers);
+		this.pendingUpdates = new ConcurrentLinkedQueue<ReactorConnection>();
+		this.isRunning = true;
+	}
+
+	/**
+	 * Runs the selector loop until stopped
+	 */
+	public void run() {
+		try {
+			serverChannel.configureBlocking(false);
+			serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+
+			while(isRunning) {
+				selector.select();
+				applyPendingUpdates();
+
+				Iterator<SelectionKey> keys =
+					selector.selectedKeys().iterator();
+				while(keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if(!key.isValid()) {
+						continue;
+					}
+
+					if(key.isAcceptable()) {
+						accept();
+						continue;
+					}
+
+					ReactorConnection connection =
+						(ReactorConnection) key.attachment();
+					try {
+						if(key.isReadable()) {
+							connection.read();
+						}
+						if(key.isValid() && key.isWritable()) {
+							connection.flush();
+						}
+						connection.updateInterest();
+					} catch(IOException e) {
+						logger.info("Connection to client lost");
+						connection.close();
+					}
+				}
+			}
+		} catch(IOException e) {
+			logger.error("Error in connection selector loop", e);
+		} finally {
+			shutdown();
+		}
+	}
+
+	/**
+	 * Stops the selector loop and closes all client connections
+	 */
+	public void stop() {
+		isRunning = false;
+		selector.wakeup();
+	}
+
+	/**
+	 * Schedules a connection's queued requests for processing
+	 */
+	void submit(ReactorConnection connection) {
+		try {
+			workers.execute(connection);
+		} catch(RejectedExecutionException e) {
+			// Shutting down
+		}
+	}
+
+	/**
+	 * Asks the selector thread to send a connection's new responses and to
+	 * refresh the events it waits for
+	 */
+	void requestUpdate(ReactorConnection connection) {
+		if(connection.isUpdatePending.compareAndSet(false, true)) {
+			pendingUpdates.add(connection);
+			selector.wakeup();
+		}
+	}
+
+	private void applyPendingUpdates() {
+		ReactorConnection connection;
+		while((connection = pendingUpdates.poll()) != null) {
+			connection.isUpdatePending.set(false);
+			try {
+				connection.flush();
+				connection.updateInterest();
+			} catch(IOException e) {
+				logger.info("Connection to client lost");
+				connection.close();
+			}
+		}
+	}
+
+	private void accept() {
+		try {
+			SocketChannel channel = serverChannel.accept();
+			if(channel == null) {
+				return;
+			}
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			SelectionKey key = channel.register(selector,
+				SelectionKey.OP_READ);
+			key.attach(new ReactorConnection(channel, key, this,
+				requestHandler));
+
+			logger.info("Connected to " +
+				channel.socket().getInetAddress().getHostAddress() +
+				" on port " + channel.socket().getPort());
+		} catch(IOException e) {
+			logger.error("Unable to establish connection", e);
+		}
+	}
+
+	private void shutdown() {
+		workers.shutdown();
+		for(SelectionKey key : selector.keys()) {
+			if(key.attachment() instanceof ReactorConnection) {
+				((ReactorConnection) key.attachment()).close();
+			}
+		}
+		try {
+			selector.close();
+		} catch(IOException e) {
+			logger.error("Unable to close connection selector", e);
+		}
+	}
+}
@@ -0,0 +1,243 @@
+package app_kvServer;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import common.messages.KVBatchMessage;
+import common.messages.KVMessage;
+import common.messages.KVMessageImpl;
+import common.messages.KVScanMessage;
+import common.messages.KVMessage.StatusType;
+
+/**
+ * Processes requests against the server's storage and produces the matching
+ * responses, independently of how the request was received from the client.
+ */
+public class RequestHandler {
+
+	private static Logger logger = Logger.getRootLogger();
+
+	private KVServer parentServer;
+	private AccessLog accessLog;
+
+	/**
+	 * Constructs a new RequestHandler for the given server.
+	 * @param parentServer the server whose storage requests operate on
+	 */
+	public RequestHandler(KVServer parentServer) {
+		this.parentServer = parentServer;
+		this.accessLog = parentServer.getAccessLog();
+	}
+
+	/**
+	 * Produces the response to a request that could not be unserialized
+	 * @param e the reason the request is invalid
+	 * @return the response to send back to the client
+	 */
+	public KVMessage handleInvalidRequest(IllegalArgumentException e) {
+		logger.info("Unable to unserialize request: " + e.getMessage());
+		return new KVMessageImpl(null, "Invalid request",
+			StatusType.GET_ERROR);
+	}
+
+	/**
+	 * Handles a single unserialized request
+	 * @param request the request received from the client
+	 * @return the response to send back to the client
+	 */
+	public KVMessage handleRequest(KVMessage request) {
+		if(!accessLog.sample()) {
+			return processRequest(request);
+		}
+		long startTime = System.nanoTime();
+		KVMessage response = processRequest(request);
+		accessLog.log(request, response, System.nanoTime() - startTime);
+		return response;
+	}
+
+	private KVMessage processRequest(KVMessage request) {
+		// Attempt to process the request given its type
+		switch(request.getStatus()) {
+			case GET:
+				return handleGetRequest(request);
+			case PUT:
+				return handlePutRequest(request);
+			case MGET:
+				return handleMultiGetRequest((KVBatchMessage) request);
+			case MPUT:
+				return handleMultiPutRequest((KVBatchMessage) request);
+			case SCAN:
+				return handleScanRequest((KVScanMessage) request);
+			default:
+				logger.info("Unexpected message type from client: " +
+					request.getStatus());
+				return new KVMessageImpl(null, "Invalid request",
+					StatusType.GET_ERROR);
+		}
+	}
+
+	private KVMessage handleGetRequest(KVMessage request) {
+		// Attempt to get from cached storage
+		if(logger.isDebugEnabled()) {
+			logger.debug("Handling GET request: " + request.getKey());
+		}
+		String value;
+		try {
+			value = parentServer.lookupKV(request.getKey());
+		} catch(Exception e) {
+			logger.error("Unable to get key-value from cached storage", e);
+			return new KVMessageImpl(null, "Error while processing request",
+				StatusType.GET_ERROR);
+		}
+		if(value == null) {
+			if(logger.isDebugEnabled()) {
+				logger.debug("Requested key not found: " + request.getKey());
+			}
+			return new KVMessageImpl(null, "Specified key not found",
+				StatusType.GET_ERROR);
+		}
+
+		// Upon success, return result in response
+		return new KVMessageImpl(request.getKey(), value,
+			StatusType.GET_SUCCESS);
+	}
+
+	private KVMessage handlePutRequest(KVMessage request) {
+		// Attempt to insert into cached storage
+		if(logger.isDebugEnabled()) {
+			logger.debug("Handling PUT request: " + request.getKey());
+		}
+		boolean isInStorage;
+		try {
+			isInStorage = parentServer.inStorage(request.getKey());
+			parentServer.putKV(request.getKey(), request.getValue());
+		} catch(Exception e) {
+			logger.error("Unable to put key-value into cached storage", e);
+			StatusType status = request.getValue() == null ?
+				StatusType.DELETE_ERROR :
+				StatusType.PUT_ERROR;
+			return new KVMessageImpl(null, "Error while processing request",
+				status);
+		}
+
+		// Upon success, return response message
+		StatusType status = isInStorage ?
+			(request.getValue() == null ?
+				StatusType.DELETE_SUCCESS : StatusType.PUT_UPDATE) :
+			StatusType.PUT_SUCCESS;
+		return new KVMessageImpl(request.getKey(), request.getValue(), status);
+	}
+
+	private KVMessage handleMultiGetRequest(KVBatchMessage request) {
+		// Attempt to get every key at once from cached storage
+		List<KVMessage> gets = request.getMessages();
+		if(logger.isDebugEnabled()) {
+			logger.debug("Handling MGET request: " + gets.size() + " keys");
+		}
+		List<String> keys = new ArrayList<String>(gets.size());
+		for(KVMessage get : gets) {
+			keys.add(get.getKey());
+		}
+		Map<String, String> values;
+		try {
+			values = parentServer.getKVs(keys);
+		} catch(Exception e) {
+			logger.error("Unable to get key-values from cached storage", e);
+			values = null;
+		}
+
+		// Respond to each key as a GET would
+		List<KVMessage> responses = new ArrayList<KVMessage>(keys.size());
+		for(String key : keys) {
+			if(values == null) {
+				responses.add(new KVMessageImpl(null,
+					"Error while processing request", StatusType.GET_ERROR));
+			} else if(values.containsKey(key)) {
+				responses.add(new KVMessageImpl(key, values.get(key),
+					StatusType.GET_SUCCESS));
+			} else {
+				responses.add(new KVMessageImpl(null, "Specified key not found",
+					StatusType.GET_ERROR));
+			}
+		}
+		return new KVBatchMessage(StatusType.MGET_RESPONSE, responses);
+	}
+
+	private KVMessage handleMultiPutRequest(KVBatchMessage request) {
+		// Attempt to insert every pair at once into cached storage. A key
+		// given more than once takes its last value.
+		List<KVMessage> puts = request.getMessages();
+		if(logger.isDebugEnabled()) {
+			logger.debug("Handling MPUT request: " + puts.size() + " keys");
+		}
+		Map<String, String> entries =
+			new LinkedHashMap<String, String>(puts.size() * 2);
+		Map<String, Boolean> isInStorage =
+			new LinkedHashMap<String, Boolean>(puts.size() * 2);
+		boolean failed = false;
+		try {
+			for(KVMessage put : puts) {
+				entries.put(put.getKey(), put.getValue());
+				if(!isInStorage.containsKey(put.getKey())) {
+					isInStorage.put(put.getKey(),
+						parentServer.inStorage(put.getKey()));
+				}
+			}
+			parentServer.putKVs(entries);
+		} catch(IllegalArgumentException e) {
+			logger.info("Invalid MPUT request: " + e.getMessage());
+			failed = true;
+		} catch(Exception e) {
+			logger.error("Unable to put key-values into cached storage", e);
+			failed = true;
+		}
+
+		// Respond to each pair as a PUT would, the batch failing as a whole
+		List<KVMessage> responses = new ArrayList<KVMessage>(puts.size());
+		for(KVMessage put : puts) {
+			if(failed) {
+				responses.add(new KVMessageImpl(null,
+					"Error while processing request", StatusType.PUT_ERROR));
+			} else {
+				StatusType status = isInStorage.get(put.getKey()) ?
+					StatusType.PUT_UPDATE : StatusType.PUT_SUCCESS;
+				responses.add(new KVMessageImpl(put.getKey(), put.getValue(),
+					status));
+			}
+		}
+		return new KVBatchMessage(StatusType.MPUT_RESPONSE, responses);
+	}
+
+	private KVMessage handleScanRequest(KVScanMessage request) {
+		// Attempt to read one page of the range from cached storage
+		if(logger.isDebugEnabled()) {
+			logger.debug("Handling SCAN request: " + request.getKey() +
+				" to " + request.getValue());
+		}
+		if(request.getLimit() < 1) {
+			logger.info("Invalid SCAN limit: " + request.getLimit());
+			return new KVMessageImpl(null, "Invalid request",
+				StatusType.GET_ERROR);
+		}
+		Map<String, String> values;
+		try {
+			values = parentServer.scan(request.getKey(), request.getValue(),
+				Math.min(request.getLimit(), KVBatchMessage.MAX_SIZE));
+		} catch(Exception e) {
+			logger.error("Unable to scan cached storage", e);
+			return new KVMessageImpl(null, "Error while processing request",
+				StatusType.GET_ERROR);
+		}
+
+		List<KVMessage> responses = new ArrayList<KVMessage>(values.size());
+		for(Map.Entry<String, String> entry : values.entrySet()) {
+			responses.add(new KVMessageImpl(entry.getKey(), entry.getValue(),
+				StatusType.GET_SUCCESS));
+		}
+		return new KVBatchMessage(StatusType.SCAN_RESPONSE, responses);
+	}
+}
@@ -0,0 +1,269 @@
+package cache;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Concurrent cache using the CLOCK approximation of LRU. Entries live in a
+ * ConcurrentHashMap and in a fixed ring of slots. A hit only sets the
+ * referenced bit of its entry, without taking any lock, so readers never wait
+ * on each other or on writers. Insertions and deletions are serialized on a
+ * single lock; to find a victim, the clock hand sweeps the ring clearing
+ * referenced bits until it reaches an entry not used since its last pass.
+ *
+ * The cache holds either a number of entries, one per slot of the ring, or
+ * entries up to a total weight in bytes, in which case the ring grows as
+ * needed and the hand evicts until the new entry fits.
+ */
+public class ClockCache implements ICache {
+
+	private static Logger logger = Logger.getRootLogger();
+
+    private static final int INITIAL_RING_SIZE = 64;
+
+    private int cacheSize;
+    private ConcurrentHashMap<String, Entry> cache;
+
+    private final Object writeLock = new Object();
+    private Entry[] ring;
+    private int hand;
+    private int[] freeSlots;
+    private int nFreeSlots;
+    private long maxBytes;
+    private long nBytes;
+
+    public ClockCache(int cacheSize) {
+        logger.info("Initializing CLOCK cache with " + cacheSize + " entries");
+        this.cacheSize = cacheSize;
+        cache = new ConcurrentHashMap<String, Entry>();
+        ring = new Entry[Math.max(cacheSize, 0)];
+        freeSlots = new int[ring.length];
+        resetSlots();
+    }
+
+    /**
+     * Get the cache size
+     * @return  cache size
+     */
+    public int getCacheSize() {
+        return this.cacheSize;
+    }
+
+    /**
+     * Limit the cache by the total weight of its entries instead of by
+     * their number, clearing it
+     * @param maxBytes budget in bytes, or 0 to limit the number of entries
+     */
+    public void setMaxBytes(long maxBytes) {
+        synchronized(writeLock) {
+            logger.info("Limiting CLOCK cache to " + maxBytes + " bytes");
+            this.maxBytes = maxBytes;
+            cache.clear();
+            ring = new Entry[maxBytes > 0 ? INITIAL_RING_SIZE :
+                Math.max(cacheSize, 0)];
+            freeSlots = new int[ring.length];
+            resetSlots();
+            nBytes = 0;
+        }
+    }
+
+    /**
+     * Get the total weight of the entries in the cache
+     * @return  weight in bytes
+     */
+    public long getSizeBytes() {
+        synchronized(writeLock) {
+            return nBytes;
+        }
+    }
+
+    /**
+     * Check if key is in cache.
+     * NOTE: does not modify any other properties
+     * @return  true if key in cache, false otherwise
+     */
+    public boolean inCache(String key) {
+        return cache.containsKey(key);
+    }
+
+    /**
+     * Get the value associated with the key, counting it as a use
+     * @return  value associated with key, or null if the key is not cached
+     * @throws Exception
+     *      when key not in the key range of the server
+     */
+    public String getKV(String key) throws Exception {
+        // Hits are not logged, as the appender lock would serialize readers
+        Entry entry = cache.get(key);
+        if(entry == null) {
+            return null;
+        }
+        if(!entry.referenced) {
+            // Only write when needed, to keep hot entries' cache lines shared
+            entry.referenced = true;
+        }
+        return entry.value;
+    }
+
+    /**
+     * Put the key-value pair into storage
+     * @throws Exception
+     *      when key not in the key range of the server
+     */
+    public void putKV(String key, String value) throws Exception {
+        synchronized(writeLock) {
+            // If already in cache, just update
+            Entry entry = cache.get(key);
+            if(entry != null) {
+                if(logger.isDebugEnabled()) {
+                    logger.debug("Updating in cache: " + key);
+                }
+                nBytes += EntryWeight.of(key, value) -
+                    EntryWeight.of(key, entry.value);
+                entry.value = value;
+                entry.referenced = true;
+                // A larger value may take the cache over its budget
+                while(maxBytes > 0 && nBytes > maxBytes) {
+                    freeSlots[nFreeSlots++] = evict();
+                }
+                return;
+            }
+
+            long weight = EntryWeight.of(key, value);
+            int slot;
+            if(maxBytes > 0) {
+                if(weight > maxBytes) {
+                    // Cache cannot hold the entry
+                    return;
+                }
+                // Evict until the entry fits, then take a free slot
+                while(nBytes + weight > maxBytes) {
+                    freeSlots[nFreeSlots++] = evict();
+                }
+                if(nFreeSlots == 0) {
+                    growRing();
+                }
+                slot = freeSlots[--nFreeSlots];
+            } else if(ring.length == 0) {
+                // Cache cannot hold any entries
+                return;
+            } else if(nFreeSlots > 0) {
+                // Take a free slot, or evict an entry if there is none
+                slot = freeSlots[--nFreeSlots];
+            } else {
+                slot = evict();
+            }
+
+            if(logger.isDebugEnabled()) {
+                logger.debug("Inserting into cache: " + key);
+            }
+            entry = new Entry(key, value, slot);
+            ring[slot] = entry;
+            cache.put(key, entry);
+            nBytes += weight;
+        }
+    }
+
+    /**
+     * Delete the key-value pair from storage
+     * @throws Exception
+     *      when key not in the key range of the server
+     */
+    public void deleteKV(String key) throws Exception {
+        synchronized(writeLock) {
+            if(logger.isDebugEnabled()) {
+                logger.debug("Deleting from cache: " + key);
+            }
+            Entry entry = cache.remove(key);
+            if(entry != null) {
+                ring[entry.slot] = null;
+                freeSlots[nFreeSlots++] = entry.slot;
+                nBytes -= EntryWeight.of(key, entry.value);
+            }
+        }
+    }
+
+    /**
+     * Clear the local cache of the server
+     */
+    public void clear() {
+        synchronized(writeLock) {
+            logger.info("Clearing cache");
+            cache.clear();
+            Arrays.fill(ring, null);
+            resetSlots();
+            nBytes = 0;
+        }
+    }
+
+    /**
+     * Advances the clock hand to the first entry that has not been used since
+     * the hand last passed it, and evicts it. Caller must hold writeLock and
+     * the ring must hold at least one entry.
+     * @return the slot freed up, which is not added to the free slots
+     */
+    private int evict() {
+        while(true) {
+            Entry entry = ring[hand];
+            int slot = hand;
+            hand = (hand + 1) % ring.length;
+            if(entry == null) {
+                // Free slot, with a budget in bytes
+                continue;
+            } else if(entry.referenced) {
+                entry.referenced = false;
+            } else {
+                if(logger.isDebugEnabled()) {
+                    logger.debug("Evicting from cache: " + entry.key);
+                }
+                cache.remove(entry.key);
+                ring[slot] = null;
+                nBytes -= EntryWeight.of(entry.key, entry.value);
+                return slot;
+            }
+        }
+    }
+
+    /**
+     * Doubles the number of slots in the ring, with the new slots free to
+     * be handed out lowest first. Caller must hold writeLock.
+     */
+    private void growRing() {
+        int oldLength = ring.length;
+        int newLength = Math.max(INITIAL_RING_SIZE, 2 * oldLength);
+        ring = Arrays.copyOf(ring, newLength);
+        freeSlots = Arrays.copyOf(freeSlots, newLength);
+        for(int i = newLength - 1; i >= oldLength; i--) {
+            freeSlots[nFreeSlots++] = i;
+        }
+    }
+
+    /**
+     * Marks every slot free, to be handed out lowest first
+     */
+    private void resetSlots() {
+        nFreeSlots = freeSlots.length;
+        for(int i = 0; i < nFreeSlots; i++) {
+            freeSlots[i] = nFreeSlots - 1 - i;
+        }
+        hand = 0;
+    }
+
+    /**
+     * Cache entry, shared between the map and its slot in the ring
+     */
+    private static class Entry {
+        final String key;
+        final int slot;
+        volatile String value;
+        volatile boolean referenced;
+
+        Entry(String key, String value, int slot) {
+            this.key = key;
+            this.value = value;
+            this.slot = slot;
+        }
+    }
+}
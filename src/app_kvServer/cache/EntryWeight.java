@@ -0,0 +1,26 @@
+package cache;
+
+/**
+ * Estimates the memory a cache entry takes up, for caches limited by a
+ * budget in bytes rather than by their number of entries.
+ */
+public final class EntryWeight {
+
+    /**
+     * Rough cost of an entry beyond its characters: the two String objects
+     * and their arrays, plus the cache's own node and map entry
+     */
+    public static final int ENTRY_OVERHEAD_BYTES = 128;
+
+    private EntryWeight() {
+    }
+
+    /**
+     * Get the estimated weight of an entry. Characters are counted at two
+     * bytes each, so that the estimate holds whatever the strings contain.
+     * @return  weight in bytes
+     */
+    public static long of(String key, String value) {
+        return ENTRY_OVERHEAD_BYTES + 2L * (key.length() + value.length());
+    }
+}
@@ -1,27 +1,32 @@
 package cache;
 
-import java.util.Hashtable;
-import java.util.LinkedList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import org.apache.log4j.Logger;
 
 import app_kvServer.IKVServer;
 
+/**
+ * First-in-first-out cache. Entries are kept in a LinkedHashMap in insertion
+ * order, so that insertion, deletion and eviction of the oldest entry are all
+ * constant time. Updating an entry does not change its position. The cache
+ * holds either a number of entries, or entries up to a total weight in bytes.
+ */
 public class FIFOCache implements ICache {
 
 	private static Logger logger = Logger.getRootLogger();
 
     private int cacheSize;
-    private Hashtable<String, String> cache;
-    private int nEntriesInCache;
-    private LinkedList<String> fifoOrder;
+    private long maxBytes;
+    private long nBytes;
+    private LinkedHashMap<String, String> cache;
 
     public FIFOCache(int cacheSize) {
         logger.info("Initializing FIFO cache with " + cacheSize + " entries");
         this.cacheSize = cacheSize;
-        cache = new Hashtable<String, String>();
-        nEntriesInCache = 0;
-        fifoOrder = new LinkedList<String>();
+        cache = new LinkedHashMap<String, String>();
     }
 
     /**
@@ -32,24 +37,44 @@ public class FIFOCache implements ICache {
         return this.cacheSize;
     }
 
+    /**
+     * Limit the cache by the total weight of its entries instead of by
+     * their number, clearing it
+     * @param maxBytes budget in bytes, or 0 to limit the number of entries
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        logger.info("Limiting FIFO cache to " + maxBytes + " bytes");
+        clear();
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Get the total weight of the entries in the cache
+     * @return  weight in bytes
+     */
+    public synchronized long getSizeBytes() {
+        return nBytes;
+    }
+
     /**
      * Check if key is in cache.
      * NOTE: does not modify any other properties
      * @return  true if key in cache, false otherwise
      */
-    public boolean inCache(String key) {
+    public synchronized boolean inCache(String key) {
         return cache.containsKey(key);
     }
 
     /**
-     * Get the value associated with the key, assume caller has already checked
-     * that it exists before calling
-     * @return  value associated with key
+     * Get the value associated with the key, counting it as a use
+     * @return  value associated with key, or null if the key is not cached
      * @throws Exception
      *      when key not in the key range of the server
      */
-    public String getKV(String key) throws Exception {
-        logger.info("Getting from cache: " + key);
+    public synchronized String getKV(String key) throws Exception {
+        if(logger.isDebugEnabled()) {
+            logger.debug("Getting from cache: " + key);
+        }
         return cache.get(key);
     }
 
@@ -58,26 +83,41 @@ public class FIFOCache implements ICache {
      * @throws Exception
      *      when key not in the key range of the server
      */
-    public void putKV(String key, String value) throws Exception {
+    public synchronized void putKV(String key, String value) throws Exception {
         // If already in cache, just update
         if(inCache(key)) {
-            logger.info("Updating in cache: " + key);
-            cache.put(key, value);
+            if(logger.isDebugEnabled()) {
+                logger.debug("Updating in cache: " + key);
+            }
+            String oldValue = cache.put(key, value);
+            nBytes += EntryWeight.of(key, value) -
+                EntryWeight.of(key, oldValue);
+            // A larger value may take the cache over its budget
+            while(maxBytes > 0 && nBytes > maxBytes) {
+                evictOldest();
+            }
             return;
         }
 
-        // Check if we need to evict an entry first
-        if(nEntriesInCache >= cacheSize) {
-            String keyToEvict = fifoOrder.removeFirst();
-            logger.info("Evicting from cache: " + keyToEvict);
-            cache.remove(keyToEvict);
-            nEntriesInCache--;
+        // Check if we need to evict entries first
+        long weight = EntryWeight.of(key, value);
+        if(maxBytes > 0 && weight > maxBytes) {
+            // Entry larger than the whole budget, leave the cache as it is
+            return;
+        }
+        while(isFull(weight)) {
+            if(cache.isEmpty()) {
+                // Cache cannot hold the entry
+                return;
+            }
+            evictOldest();
         }
 
-        logger.info("Inserting into cache: " + key);
+        if(logger.isDebugEnabled()) {
+            logger.debug("Inserting into cache: " + key);
+        }
         cache.put(key, value);
-        nEntriesInCache++;
-        fifoOrder.addLast(key);
+        nBytes += weight;
     }
 
     /**
@@ -85,20 +125,44 @@ public class FIFOCache implements ICache {
      * @throws Exception
      *      when key not in the key range of the server
      */
-    public void deleteKV(String key) throws Exception {
-        logger.info("Deleting from cache: " + key);
-        cache.remove(key);
-        nEntriesInCache--;
-        fifoOrder.remove(key);
+    public synchronized void deleteKV(String key) throws Exception {
+        if(logger.isDebugEnabled()) {
+            logger.debug("Deleting from cache: " + key);
+        }
+        String value = cache.remove(key);
+        if(value != null) {
+            nBytes -= EntryWeight.of(key, value);
+        }
     }
 
     /**
      * Clear the local cache of the server
      */
-    public void clear() {
+    public synchronized void clear() {
         logger.info("Clearing cache");
         cache.clear();
-        nEntriesInCache = 0;
-        fifoOrder.clear();
+        nBytes = 0;
+    }
+
+    /**
+     * Check if an entry of the given weight can only be inserted after
+     * evicting another
+     */
+    private boolean isFull(long weight) {
+        if(maxBytes > 0) {
+            return nBytes + weight > maxBytes;
+        }
+        return cache.size() >= cacheSize;
+    }
+
+    private void evictOldest() {
+        Iterator<Map.Entry<String, String>> oldest =
+            cache.entrySet().iterator();
+        Map.Entry<String, String> entry = oldest.next();
+        if(logger.isDebugEnabled()) {
+            logger.debug("Evicting from cache: " + entry.getKey());
+        }
+        nBytes -= EntryWeight.of(entry.getKey(), entry.getValue());
+        oldest.remove();
     }
 }
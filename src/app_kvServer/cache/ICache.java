@@ -9,6 +9,21 @@ public interface ICache {
      */
     public int getCacheSize();
 
+    /**
+     * Limit the cache by the total weight of its entries, as estimated by
+     * EntryWeight, instead of by their number. Clears the cache, so should
+     * be called before the cache is used.
+     * @param maxBytes budget for the weight of all entries, or 0 to limit
+     *           the cache to getCacheSize() entries again
+     */
+    public void setMaxBytes(long maxBytes);
+
+    /**
+     * Get the total weight of the entries in the cache
+     * @return  weight in bytes, as estimated by EntryWeight
+     */
+    public long getSizeBytes();
+
     /**
      * Check if key is in cache.
      * NOTE: does not modify any other properties
@@ -17,9 +32,8 @@ public interface ICache {
     public boolean inCache(String key);
 
     /**
-     * Get the value associated with the key, assume caller has already checked
-     * that it exists before calling
-     * @return  value associated with key
+     * Get the value associated with the key, counting it as a use
+     * @return  value associated with key, or null if the key is not cached
      * @throws Exception
      *      when key not in the key range of the server
      */
@@ -1,27 +1,52 @@
 package cache;
 
-import java.util.Hashtable;
-import java.util.LinkedList;
+import java.util.HashMap;
 
 import org.apache.log4j.Logger;
 
 import app_kvServer.IKVServer;
 
+/**
+ * Least-frequently-used cache. Entries are grouped into buckets of equal use
+ * count, and the buckets are kept in a linked list in increasing count order,
+ * so that counting a use and evicting are both constant time. Within a bucket
+ * entries are ordered by recency, so ties are broken least recently used first.
+ *
+ * The cache holds either a number of entries, or entries up to a total
+ * weight in bytes.
+ *
+ * Optionally, use counts can be aged: after a given number of accesses, all
+ * counts are halved, so that keys that were hot long ago are eventually
+ * evicted again.
+ */
 public class LFUCache implements ICache {
 
 	private static Logger logger = Logger.getRootLogger();
 
     private int cacheSize;
-    private Hashtable<String, String> cache;
-    private int nEntriesInCache;
-    private Hashtable<String, Integer> lfuUsages;
+    private long maxBytes;
+    private long nBytes;
+    private HashMap<String, Node> cache;
+    private Bucket buckets;
+    private int agingPeriod;
+    private int accessesSinceAging;
 
     public LFUCache(int cacheSize) {
+        this(cacheSize, 0);
+    }
+
+    /**
+     * Constructs a new LFU cache
+     * @param cacheSize maximum number of entries to keep
+     * @param agingPeriod number of accesses after which all use counts are
+     *           halved, 0 to never age
+     */
+    public LFUCache(int cacheSize, int agingPeriod) {
         logger.info("Initializing LFU cache with " + cacheSize + " entries");
         this.cacheSize = cacheSize;
-        cache = new Hashtable<String, String>();
-        nEntriesInCache = 0;
-        lfuUsages = new Hashtable<String, Integer>();
+        this.agingPeriod = agingPeriod;
+        cache = new HashMap<String, Node>();
+        buckets = new Bucket(0);
     }
 
     /**
@@ -32,26 +57,60 @@ public class LFUCache implements ICache {
         return this.cacheSize;
     }
 
+    /**
+     * Limit the cache by the total weight of its entries instead of by
+     * their number, clearing it
+     * @param maxBytes budget in bytes, or 0 to limit the number of entries
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        logger.info("Limiting LFU cache to " + maxBytes + " bytes");
+        clear();
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Get the total weight of the entries in the cache
+     * @return  weight in bytes
+     */
+    public synchronized long getSizeBytes() {
+        return nBytes;
+    }
+
+    /**
+     * Set how often use counts are halved
+     * @param agingPeriod number of accesses after which all use counts are
+     *           halved, 0 to never age
+     */
+    public synchronized void setAgingPeriod(int agingPeriod) {
+        this.agingPeriod = agingPeriod;
+        this.accessesSinceAging = 0;
+    }
+
     /**
      * Check if key is in cache.
      * NOTE: does not modify any other properties
      * @return  true if key in cache, false otherwise
      */
-    public boolean inCache(String key) {
+    public synchronized boolean inCache(String key) {
         return cache.containsKey(key);
     }
 
     /**
-     * Get the value associated with the key, assume caller has already checked
-     * that it exists before calling
-     * @return  value associated with key
+     * Get the value associated with the key, counting it as a use
+     * @return  value associated with key, or null if the key is not cached
      * @throws Exception
      *      when key not in the key range of the server
      */
-    public String getKV(String key) throws Exception {
-        logger.info("Getting from cache: " + key);
-        lfuUsages.put(key, lfuUsages.get(key) + 1);
-        return cache.get(key);
+    public synchronized String getKV(String key) throws Exception {
+        if(logger.isDebugEnabled()) {
+            logger.debug("Getting from cache: " + key);
+        }
+        Node node = cache.get(key);
+        if(node == null) {
+            return null;
+        }
+        countUse(node);
+        return node.value;
     }
 
     /**
@@ -59,39 +118,50 @@ public class LFUCache implements ICache {
      * @throws Exception
      *      when key not in the key range of the server
      */
-    public void putKV(String key, String value) throws Exception {
+    public synchronized void putKV(String key, String value) throws Exception {
         // If already in cache, just update
-        if(inCache(key)) {
-            logger.info("Updating in cache: " + key);
-            cache.put(key, value);
-            lfuUsages.put(key, lfuUsages.get(key) + 1);
+        Node node = cache.get(key);
+        if(node != null) {
+            if(logger.isDebugEnabled()) {
+                logger.debug("Updating in cache: " + key);
+            }
+            nBytes += EntryWeight.of(key, value) -
+                EntryWeight.of(key, node.value);
+            node.value = value;
+            countUse(node);
+            // A larger value may take the cache over its budget
+            while(maxBytes > 0 && nBytes > maxBytes) {
+                evictLfu();
+            }
             return;
         }
 
-        // Check if we need to evict an entry first
-        if(nEntriesInCache >= cacheSize) {
-            String keyToEvict = getLfuKey();
-            logger.info("Evicting from cache: " + keyToEvict +
-                " (has " + lfuUsages.get(keyToEvict) + " usage(s))");
-            cache.remove(keyToEvict);
-            nEntriesInCache--;
-            lfuUsages.remove(keyToEvict);
+        // Check if we need to evict entries first
+        long weight = EntryWeight.of(key, value);
+        if(maxBytes > 0 && weight > maxBytes) {
+            // Entry larger than the whole budget, leave the cache as it is
+            return;
         }
-
-        logger.info("Inserting into cache: " + key);
-        cache.put(key, value);
-        nEntriesInCache++;
-        lfuUsages.put(key, 1);
-    }
-
-    private String getLfuKey() {
-        String lfuKey = null;
-        for(String key : lfuUsages.keySet()) {
-            if(lfuKey == null || lfuUsages.get(key) < lfuUsages.get(lfuKey)) {
-                lfuKey = key;
+        while(isFull(weight)) {
+            if(buckets.next == buckets) {
+                // Cache cannot hold the entry
+                return;
             }
+            evictLfu();
+        }
+
+        if(logger.isDebugEnabled()) {
+            logger.debug("Inserting into cache: " + key);
+        }
+        Bucket bucket = buckets.next;
+        if(bucket.frequency != 1) {
+            bucket = buckets.insertAfter(1);
         }
-        return lfuKey;
+        node = new Node(key, value);
+        bucket.append(node);
+        cache.put(key, node);
+        nBytes += weight;
+        countAccess();
     }
 
     /**
@@ -99,20 +169,196 @@ public class LFUCache implements ICache {
      * @throws Exception
      *      when key not in the key range of the server
      */
-    public void deleteKV(String key) throws Exception {
-        logger.info("Deleting from cache: " + key);
-        cache.remove(key);
-        nEntriesInCache--;
-        lfuUsages.remove(key);
+    public synchronized void deleteKV(String key) throws Exception {
+        if(logger.isDebugEnabled()) {
+            logger.debug("Deleting from cache: " + key);
+        }
+        Node node = cache.remove(key);
+        if(node != null) {
+            remove(node);
+            nBytes -= EntryWeight.of(key, node.value);
+        }
     }
 
     /**
      * Clear the local cache of the server
      */
-    public void clear() {
+    public synchronized void clear() {
         logger.info("Clearing cache");
         cache.clear();
-        nEntriesInCache = 0;
-        lfuUsages.clear();
+        buckets.prev = buckets;
+        buckets.next = buckets;
+        accessesSinceAging = 0;
+        nBytes = 0;
+    }
+
+    /**
+     * Check if an entry of the given weight can only be inserted after
+     * evicting another
+     */
+    private boolean isFull(long weight) {
+        if(maxBytes > 0) {
+            return nBytes + weight > maxBytes;
+        }
+        return cache.size() >= cacheSize;
+    }
+
+    private void evictLfu() {
+        Bucket lfuBucket = buckets.next;
+        Node lfuNode = lfuBucket.head.next;
+        if(logger.isDebugEnabled()) {
+            logger.debug("Evicting from cache: " + lfuNode.key +
+                " (has " + lfuBucket.frequency + " usage(s))");
+        }
+        remove(lfuNode);
+        cache.remove(lfuNode.key);
+        nBytes -= EntryWeight.of(lfuNode.key, lfuNode.value);
+    }
+
+    /**
+     * Moves a node to the bucket for one more use
+     */
+    private void countUse(Node node) {
+        Bucket bucket = node.bucket;
+        Bucket next = bucket.next;
+        if(next.frequency != bucket.frequency + 1 &&
+                bucket.head.next == node && bucket.head.prev == node) {
+            // Sole entry of its bucket, so the bucket can move up with it
+            bucket.frequency++;
+            countAccess();
+            return;
+        }
+        if(next.frequency != bucket.frequency + 1) {
+            next = bucket.insertAfter(bucket.frequency + 1);
+        }
+        remove(node);
+        next.append(node);
+        countAccess();
+    }
+
+    /**
+     * Unlinks a node from its bucket, dropping the bucket if left empty
+     */
+    private void remove(Node node) {
+        Bucket bucket = node.bucket;
+        node.unlink();
+        if(bucket.isEmpty()) {
+            bucket.unlink();
+        }
+    }
+
+    private void countAccess() {
+        if(agingPeriod > 0 && ++accessesSinceAging >= agingPeriod) {
+            age();
+            accessesSinceAging = 0;
+        }
+    }
+
+    /**
+     * Halves all use counts. Buckets that end up with the same count are
+     * merged, keeping the entries of the previously lower count first.
+     */
+    private void age() {
+        logger.info("Aging cache usage counts");
+        Bucket previous = buckets;
+        Bucket bucket = buckets.next;
+        while(bucket != buckets) {
+            Bucket next = bucket.next;
+            int frequency = Math.max(1, bucket.frequency / 2);
+            if(previous != buckets && previous.frequency == frequency) {
+                previous.takeAll(bucket);
+                bucket.unlink();
+            } else {
+                bucket.frequency = frequency;
+                previous = bucket;
+            }
+            bucket = next;
+        }
+    }
+
+    /**
+     * Cache entry, linked into the recency list of its bucket
+     */
+    private static class Node {
+        final String key;
+        String value;
+        Bucket bucket;
+        Node prev = this;
+        Node next = this;
+
+        Node(String key, String value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        void unlink() {
+            prev.next = next;
+            next.prev = prev;
+            prev = this;
+            next = this;
+            bucket = null;
+        }
+    }
+
+    /**
+     * All entries with the same use count, least recently used first. Both
+     * the bucket list and each entry list are circular around a sentinel.
+     */
+    private static class Bucket {
+        int frequency;
+        final Node head = new Node(null, null);
+        Bucket prev = this;
+        Bucket next = this;
+
+        Bucket(int frequency) {
+            this.frequency = frequency;
+        }
+
+        boolean isEmpty() {
+            return head.next == head;
+        }
+
+        void append(Node node) {
+            node.bucket = this;
+            node.prev = head.prev;
+            node.next = head;
+            head.prev.next = node;
+            head.prev = node;
+        }
+
+        /**
+         * Moves every entry of the other bucket to the end of this one
+         */
+        void takeAll(Bucket other) {
+            for(Node node = other.head.next; node != other.head;
+                    node = node.next) {
+                node.bucket = this;
+            }
+            if(other.isEmpty()) {
+                return;
+            }
+            Node first = other.head.next;
+            Node last = other.head.prev;
+            first.prev = head.prev;
+            last.next = head;
+            head.prev.next = first;
+            head.prev = last;
+            other.head.prev = other.head;
+            other.head.next = other.head;
+        }
+
+        Bucket insertAfter(int frequency) {
+            Bucket bucket = new Bucket(frequency);
+            bucket.prev = this;
+            bucket.next = next;
+            next.prev = bucket;
+            next = bucket;
+            return bucket;
+        }
+
+        void unlink() {
+            prev.next = next;
+            next.prev = prev;
+        }
     }
 }
@@ -1,28 +1,32 @@
 package cache;
 
-import java.util.Date;
-import java.util.Hashtable;
-import java.util.LinkedList;
+import java.util.HashMap;
 
 import org.apache.log4j.Logger;
 
 import app_kvServer.IKVServer;
 
+/**
+ * Least-recently-used cache. Entries are kept in a doubly linked list ordered
+ * from least to most recently used, with a hash index into the list, so that
+ * hits, insertions and evictions are all constant time. The cache holds
+ * either a number of entries, or entries up to a total weight in bytes.
+ */
 public class LRUCache implements ICache {
 
 	private static Logger logger = Logger.getRootLogger();
 
     private int cacheSize;
-    private Hashtable<String, String> cache;
-    private int nEntriesInCache;
-    private Hashtable<String, Date> lruTimes;
+    private long maxBytes;
+    private long nBytes;
+    private HashMap<String, Node> cache;
+    private Node head;
 
     public LRUCache(int cacheSize) {
         logger.info("Initializing LRU cache with " + cacheSize + " entries");
         this.cacheSize = cacheSize;
-        cache = new Hashtable<String, String>();
-        nEntriesInCache = 0;
-        lruTimes = new Hashtable<String, Date>();
+        cache = new HashMap<String, Node>();
+        head = new Node(null, null);
     }
 
     /**
@@ -33,26 +37,50 @@ public class LRUCache implements ICache {
         return this.cacheSize;
     }
 
+    /**
+     * Limit the cache by the total weight of its entries instead of by
+     * their number, clearing it
+     * @param maxBytes budget in bytes, or 0 to limit the number of entries
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        logger.info("Limiting LRU cache to " + maxBytes + " bytes");
+        clear();
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Get the total weight of the entries in the cache
+     * @return  weight in bytes
+     */
+    public synchronized long getSizeBytes() {
+        return nBytes;
+    }
+
     /**
      * Check if key is in cache.
      * NOTE: does not modify any other properties
      * @return  true if key in cache, false otherwise
      */
-    public boolean inCache(String key) {
+    public synchronized boolean inCache(String key) {
         return cache.containsKey(key);
     }
 
     /**
-     * Get the value associated with the key, assume caller has already checked
-     * that it exists before calling
-     * @return  value associated with key
+     * Get the value associated with the key, counting it as a use
+     * @return  value associated with key, or null if the key is not cached
      * @throws Exception
      *      when key not in the key range of the server
      */
-    public String getKV(String key) throws Exception {
-        logger.info("Getting from cache: " + key);
-        lruTimes.put(key, new Date());
-        return cache.get(key);
+    public synchronized String getKV(String key) throws Exception {
+        if(logger.isDebugEnabled()) {
+            logger.debug("Getting from cache: " + key);
+        }
+        Node node = cache.get(key);
+        if(node == null) {
+            return null;
+        }
+        node.moveToBack(head);
+        return node.value;
     }
 
     /**
@@ -60,39 +88,45 @@ public class LRUCache implements ICache {
      * @throws Exception
      *      when key not in the key range of the server
      */
-    public void putKV(String key, String value) throws Exception {
+    public synchronized void putKV(String key, String value) throws Exception {
         // If already in cache, just update
-        if(inCache(key)) {
-            logger.info("Updating in cache: " + key);
-            cache.put(key, value);
-            lruTimes.put(key, new Date());
+        Node node = cache.get(key);
+        if(node != null) {
+            if(logger.isDebugEnabled()) {
+                logger.debug("Updating in cache: " + key);
+            }
+            nBytes += EntryWeight.of(key, value) -
+                EntryWeight.of(key, node.value);
+            node.value = value;
+            node.moveToBack(head);
+            // A larger value may take the cache over its budget
+            while(maxBytes > 0 && nBytes > maxBytes) {
+                evictLru();
+            }
             return;
         }
 
-        // Check if we need to evict an entry first
-        if(nEntriesInCache >= cacheSize) {
-            String keyToEvict = getLruTime();
-            logger.info("Evicting from cache: " + keyToEvict +
-                " (last used at " + lruTimes.get(keyToEvict) + ")");
-            cache.remove(keyToEvict);
-            nEntriesInCache--;
-            lruTimes.remove(keyToEvict);
+        // Check if we need to evict entries first
+        long weight = EntryWeight.of(key, value);
+        if(maxBytes > 0 && weight > maxBytes) {
+            // Entry larger than the whole budget, leave the cache as it is
+            return;
         }
-
-        logger.info("Inserting into cache: " + key);
-        cache.put(key, value);
-        nEntriesInCache++;
-        lruTimes.put(key, new Date());
-    }
-
-    private String getLruTime() {
-        String lfuKey = null;
-        for(String key : lruTimes.keySet()) {
-            if(lfuKey == null || lruTimes.get(key).before(lruTimes.get(lfuKey))) {
-                lfuKey = key;
+        while(isFull(weight)) {
+            if(head.next == head) {
+                // Cache cannot hold the entry
+                return;
             }
+            evictLru();
+        }
+
+        if(logger.isDebugEnabled()) {
+            logger.debug("Inserting into cache: " + key);
         }
-        return lfuKey;
+        node = new Node(key, value);
+        node.moveToBack(head);
+        cache.put(key, node);
+        nBytes += weight;
     }
 
     /**
@@ -100,20 +134,78 @@ public class LRUCache implements ICache {
      * @throws Exception
      *      when key not in the key range of the server
      */
-    public void deleteKV(String key) throws Exception {
-        logger.info("Deleting from cache: " + key);
-        cache.remove(key);
-        nEntriesInCache--;
-        lruTimes.remove(key);
+    public synchronized void deleteKV(String key) throws Exception {
+        if(logger.isDebugEnabled()) {
+            logger.debug("Deleting from cache: " + key);
+        }
+        Node node = cache.remove(key);
+        if(node != null) {
+            node.unlink();
+            nBytes -= EntryWeight.of(key, node.value);
+        }
     }
 
     /**
      * Clear the local cache of the server
      */
-    public void clear() {
+    public synchronized void clear() {
         logger.info("Clearing cache");
         cache.clear();
-        nEntriesInCache = 0;
-        lruTimes.clear();
+        head.prev = head;
+        head.next = head;
+        nBytes = 0;
+    }
+
+    /**
+     * Check if an entry of the given weight can only be inserted after
+     * evicting another
+     */
+    private boolean isFull(long weight) {
+        if(maxBytes > 0) {
+            return nBytes + weight > maxBytes;
+        }
+        return cache.size() >= cacheSize;
+    }
+
+    private void evictLru() {
+        Node lruNode = head.next;
+        if(logger.isDebugEnabled()) {
+            logger.debug("Evicting from cache: " + lruNode.key);
+        }
+        lruNode.unlink();
+        cache.remove(lruNode.key);
+        nBytes -= EntryWeight.of(lruNode.key, lruNode.value);
+    }
+
+    /**
+     * Entry of the recency list. The list is circular around a sentinel
+     * head node: head.next is the least and head.prev the most recently used.
+     */
+    private static class Node {
+        final String key;
+        String value;
+        Node prev = this;
+        Node next = this;
+
+        Node(String key, String value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        void unlink() {
+            prev.next = next;
+            next.prev = prev;
+            prev = this;
+            next = this;
+        }
+
+        void moveToBack(Node head) {
+            prev.next = next;
+            next.prev = prev;
+            prev = head.prev;
+            next = head;
+            head.prev.next = this;
+            head.prev = this;
+        }
     }
 }
@@ -0,0 +1,128 @@
+package cache;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Concurrent cache of keys recently found to be missing from storage, so
+ * that repeated lookups of the same missing key need not go to storage each
+ * time. An entry expires after a fixed time, and the oldest entries are
+ * dropped once the cache is full. The owner must invalidate a key whenever
+ * it is put. Lookups take no lock.
+ */
+public class NegativeCache {
+
+	private static Logger logger = Logger.getRootLogger();
+
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+    public static final long DEFAULT_TTL_MS = 1000;
+
+    private final int maxEntries;
+    private final long ttlNs;
+
+    // Expiry time of each key, in System.nanoTime()
+    private final ConcurrentHashMap<String, Long> expiries;
+    // Keys with their expiry times in the order they were added. A pair
+    // whose key has since expired, been invalidated or been added again is
+    // stale: it still counts towards maxEntries until it is polled, but
+    // removes nothing then.
+    private final ConcurrentLinkedQueue<Missing> order;
+    private final AtomicInteger orderSize = new AtomicInteger();
+
+    /**
+     * @param maxEntries maximum number of missing keys remembered
+     * @param ttlMs time for which a key is remembered as missing
+     */
+    public NegativeCache(int maxEntries, long ttlMs) {
+        logger.info("Initializing negative cache with " + maxEntries +
+            " entries for " + ttlMs + " ms");
+        this.maxEntries = maxEntries;
+        this.ttlNs = TimeUnit.MILLISECONDS.toNanos(ttlMs);
+        this.expiries = new ConcurrentHashMap<String, Long>();
+        this.order = new ConcurrentLinkedQueue<Missing>();
+    }
+
+    /**
+     * Check if key was recently found to be missing
+     * @return  true if key is known to be missing, false if it may exist
+     */
+    public boolean isMissing(String key) {
+        Long expiry = expiries.get(key);
+        if(expiry == null) {
+            return false;
+        }
+        if(System.nanoTime() - expiry >= 0) {
+            expiries.remove(key, expiry);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Remember that key is missing
+     */
+    public void addMissing(String key) {
+        long expiry = System.nanoTime() + ttlNs;
+        while(true) {
+            Long previous = expiries.putIfAbsent(key, expiry);
+            if(previous == null) {
+                break;
+            }
+            if(System.nanoTime() - previous < 0) {
+                // Still remembered, and queued along with its expiry
+                return;
+            }
+            if(expiries.replace(key, previous, expiry)) {
+                break;
+            }
+        }
+        order.add(new Missing(key, expiry));
+        // Bounding the queue also bounds the keys remembered, since every
+        // key remembered is in the queue along with its current expiry
+        if(orderSize.incrementAndGet() > maxEntries) {
+            Missing oldest = order.poll();
+            if(oldest != null) {
+                orderSize.decrementAndGet();
+                // Only if the key has not been added again since
+                expiries.remove(oldest.key, oldest.expiry);
+            }
+        }
+    }
+
+    /**
+     * Forget that key is missing, because it has been put
+     */
+    public void invalidate(String key) {
+        expiries.remove(key);
+    }
+
+    /**
+     * Forget every missing key
+     */
+    public void clear() {
+        // Queue first, so that a key added meanwhile is at worst left with
+        // a stale pair rather than remembered without one
+        while(order.poll() != null) {
+            orderSize.decrementAndGet();
+        }
+        expiries.clear();
+    }
+
+    /**
+     * A key and the expiry time it was remembered with
+     */
+    private static class Missing {
+
+        final String key;
+        final Long expiry;
+
+        Missing(String key, Long expiry) {
+            this.key = key;
+            this.expiry = expiry;
+        }
+    }
+}
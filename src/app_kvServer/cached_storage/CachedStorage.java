@@ -1,30 +1,70 @@
 package cached_storage;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.log4j.Logger;
 
 import app_kvServer.IKVServer.CacheStrategy;
+import app_kvServer.IKVServer.Durability;
+import app_kvServer.IKVServer.StorageStrategy;
+import cache.ClockCache;
 import cache.ICache;
 import cache.LFUCache;
 import cache.LRUCache;
 import cache.FIFOCache;
+import cache.NegativeCache;
 import storage.IStorage;
+import storage.LogCompactor;
+import storage.LogStorage;
+import storage.LoggedStorage;
 import storage.Storage;
 
 /**
- * Represents a connection end point for a particular client that is 
- * connected to the server. This class is responsible for message reception 
- * and sending.
+ * Combines a cache with persistent storage. Operations are made linearizable
+ * per key with a striped set of read/write locks: gets of any key and
+ * operations on keys in different stripes run in parallel, while a put or
+ * delete excludes all other operations on keys in its stripe. Operations on
+ * several keys lock each of their stripes, in ascending order like clearing,
+ * which locks every stripe.
+ *
+ * An ordered index of every key in storage is kept in memory alongside it,
+ * so that the keys in a range can be read in order without going through
+ * the whole storage. A counting Bloom filter over the same keys answers
+ * most lookups of keys that are not in storage without touching the disk.
+ * Optionally, keys recently found missing despite the filter are also
+ * remembered for a short time in a negative cache.
  */
 public class CachedStorage {
 
 	private static Logger logger = Logger.getRootLogger();
 
+    private static final int N_LOCK_STRIPES = 64;
+    private static final int MIN_KEY_FILTER_CAPACITY = 1 << 16;
+    private static final String WRITE_AHEAD_LOG_SUFFIX = ".wal";
+
     private CacheStrategy cacheStrategy;
+    private StorageStrategy storageStrategy;
     private ICache cache;
     private IStorage storage;
+    private File writeAheadLogFile;
+    private LogCompactor compactor;
+    private ReentrantReadWriteLock[] locks;
+    private volatile ConcurrentSkipListSet<String> keyIndex;
+    private volatile CountingBloomFilter keyFilter;
+    private volatile NegativeCache negativeCache;
 	
 	/**
 	 * Constructs a new CachedStorage object with the given parameters.
@@ -34,11 +74,36 @@ public class CachedStorage {
 	 * @param strategy specifies the cache replacement strategy in case the
 	 * 			 cache is full and there is a GET- or PUT-request on a key that
 	 *           is currently not contained in the cache. Options are "FIFO",
-	 *           "LRU", and "LFU".
+	 *           "LRU", "LFU", and "CLOCK".
 	 */
     public CachedStorage(String storageRootDir, CacheStrategy cacheStrategy,
             int cacheSize) {
+        this(storageRootDir, cacheStrategy, cacheSize, StorageStrategy.File);
+    }
+
+	/**
+	 * Constructs a new CachedStorage object with the given parameters.
+	 * @param storageRootDir root directory to store persistent data to
+	 * @param cacheSize specifies how many key-value pairs the server is allowed
+	 *           to keep in-memory
+	 * @param strategy specifies the cache replacement strategy in case the
+	 * 			 cache is full and there is a GET- or PUT-request on a key that
+	 *           is currently not contained in the cache. Options are "FIFO",
+	 *           "LRU", "LFU", and "CLOCK".
+	 * @param storageStrategy specifies the persistent storage engine. Options
+	 *           are "File" (one file per key) and "Log" (append-only log
+	 *           segments).
+	 */
+    public CachedStorage(String storageRootDir, CacheStrategy cacheStrategy,
+            int cacheSize, StorageStrategy storageStrategy) {
 		this.cacheStrategy = cacheStrategy;
+		this.storageStrategy = storageStrategy;
+
+        // Set up locks
+        locks = new ReentrantReadWriteLock[N_LOCK_STRIPES];
+        for(int i = 0; i < N_LOCK_STRIPES; i++) {
+            locks[i] = new ReentrantReadWriteLock();
+        }
 
         // Set up cache
         switch(cacheStrategy) {
@@ -51,12 +116,42 @@ public class CachedStorage {
             case FIFO:
                 cache = new FIFOCache(cacheSize);
                 break;
+            case CLOCK:
+                cache = new ClockCache(cacheSize);
+                break;
             default:
                 cache = null;
         }
 
         // Set up storage
-        storage = new Storage(storageRootDir);
+        switch(storageStrategy) {
+            case Log:
+                try {
+                    LogStorage logStorage = new LogStorage(storageRootDir);
+                    compactor = logStorage.startCompaction(
+                        LogCompactor.DEFAULT_GARBAGE_RATIO,
+                        LogCompactor.DEFAULT_BYTES_PER_SECOND);
+                    storage = logStorage;
+                } catch(IOException e) {
+                    logger.fatal("Unable to open log-structured storage", e);
+                    throw new IllegalStateException(
+                        "Unable to open log-structured storage", e);
+                }
+                break;
+            default:
+                storage = new Storage(storageRootDir);
+        }
+
+        // Replay writes left in the write-ahead log by a crash, which must
+        // happen even if the log is not to be used any more
+        writeAheadLogFile =
+            new File(storageRootDir + WRITE_AHEAD_LOG_SUFFIX);
+        if(writeAheadLogFile.length() > 0) {
+            configureDurability(Durability.None,
+                LoggedStorage.DEFAULT_SYNC_INTERVAL_MS);
+        } else {
+            rebuildKeyIndex();
+        }
 	}
 
     /**
@@ -67,6 +162,119 @@ public class CachedStorage {
 		return this.cacheStrategy;
 	}
 
+    /**
+     * Get the persistent storage strategy of the server
+     * @return  storage strategy
+     */
+    public StorageStrategy getStorageStrategy() {
+        return this.storageStrategy;
+    }
+
+    /**
+     * Adjust background compaction of log-structured storage. Has no effect
+     * for other storage strategies.
+     * @param garbageRatio fraction of dead bytes at which a log segment is
+     *           compacted
+     * @param bytesPerSecond maximum rate at which compaction reads segments,
+     *           0 for no limit
+     */
+    public void configureCompaction(double garbageRatio, long bytesPerSecond) {
+        if(compactor != null) {
+            compactor.setGarbageRatio(garbageRatio);
+            compactor.setBytesPerSecond(bytesPerSecond);
+        }
+    }
+
+    /**
+     * Set how writes are made durable. Any level other than None puts a
+     * write-ahead log (kept beside the storage directory) in front of the
+     * persistent storage. Should be called before serving requests.
+     * @param durability None to not sync writes to disk, Batched to sync
+     *           them every syncIntervalMs, or EveryWrite to sync each write
+     *           before it completes
+     * @param syncIntervalMs time between syncs for Batched durability
+     */
+    public void configureDurability(Durability durability,
+            int syncIntervalMs) {
+        lockAll();
+        try {
+            if(storage instanceof LoggedStorage) {
+                ((LoggedStorage) storage).setDurability(durability,
+                    syncIntervalMs);
+            } else if(durability != Durability.None ||
+                    writeAheadLogFile.length() > 0) {
+                storage = new LoggedStorage(storage, writeAheadLogFile,
+                    durability, syncIntervalMs);
+                // Replaying the log may have changed the keys
+                rebuildKeyIndex();
+            }
+        } catch(IOException e) {
+            logger.fatal("Unable to open write-ahead log", e);
+            throw new IllegalStateException(
+                "Unable to open write-ahead log", e);
+        } finally {
+            unlockAll();
+        }
+    }
+
+    /**
+     * Get how writes are made durable
+     * @return  durability level
+     */
+    public Durability getDurability() {
+        if(storage instanceof LoggedStorage) {
+            return ((LoggedStorage) storage).getDurability();
+        } else {
+            return Durability.None;
+        }
+    }
+
+    /**
+     * Set how often LFU use counts are halved, so that keys that were hot
+     * long ago can be evicted again. Has no effect for other cache strategies.
+     * @param agingPeriod number of cache accesses between agings, 0 to never
+     *           age
+     */
+    public void configureCacheAging(int agingPeriod) {
+        if(cache instanceof LFUCache) {
+            ((LFUCache) cache).setAgingPeriod(agingPeriod);
+        }
+    }
+
+    /**
+     * Limit the cache by the estimated memory taken by its entries instead
+     * of by their number, clearing it. Should be called before serving
+     * requests.
+     * @param maxBytes budget in bytes, 0 to limit the number of entries
+     */
+    public void configureCacheBudget(long maxBytes) {
+        lockAll();
+        try {
+            if(cache != null) {
+                cache.setMaxBytes(maxBytes);
+            }
+        } finally {
+            unlockAll();
+        }
+    }
+
+    /**
+     * Set up caching of keys found missing from storage. Should be called
+     * before serving requests.
+     * @param maxEntries maximum number of missing keys remembered, 0 to not
+     *           remember any
+     * @param ttlMs time for which a key is remembered as missing
+     */
+    public void configureNegativeCache(int maxEntries, long ttlMs) {
+        lockAll();
+        try {
+            negativeCache = maxEntries > 0 && ttlMs > 0 ?
+                new NegativeCache(maxEntries, ttlMs) : null;
+        } finally {
+            unlockAll();
+        }
+    }
+
     /**
      * Get the cache size
      * @return  cache size
@@ -85,7 +293,12 @@ public class CachedStorage {
      * @return  true if key in storage, false otherwise
      */
     public boolean inStorage(String key) {
-        return storage.inStorage(key);
+        // Keys the filter rules out need no lookup in storage
+        CountingBloomFilter filter = keyFilter;
+        NegativeCache missing = negativeCache;
+        return (filter == null || filter.mightContain(key)) &&
+            (missing == null || !missing.isMissing(key)) &&
+            storage.inStorage(key);
     }
 
     /**
@@ -107,17 +320,59 @@ public class CachedStorage {
      * @throws Exception
      *      when key not in the key range of the server
      */
-    public synchronized String getKV(String key) throws Exception {
-        if(cache != null && inCache(key)) {
-            return cache.getKV(key);
+    public String getKV(String key) throws Exception {
+        String value = lookupKV(key);
+        if(value == null) {
+            throw new FileNotFoundException("Specified key not found");
+        }
+        return value;
+    }
+
+    /**
+     * Get the value associated with the key, without the cost of an
+     * exception when it is missing
+     * @return  value associated with key, or null if key not in storage
+     * @throws Exception
+     *      when key not in the key range of the server
+     */
+    public String lookupKV(String key) throws Exception {
+        ReentrantReadWriteLock.ReadLock lock = getLock(key).readLock();
+        lock.lock();
+        try {
+            return readKV(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the value associated with the key through the cache, filling the
+     * cache on a miss. Must be called with the key's stripe locked.
+     * @return  value associated with key, or null if key not in storage
+     */
+    private String readKV(String key) throws Exception {
+        if(cache != null) {
+            String value = cache.getKV(key);
+            if(value != null) {
+                return value;
+            }
         }
 
         if(!inStorage(key)) {
-            throw new FileNotFoundException("Specified key not found");
+            // Only remembered under the lock, which puts are excluded from
+            NegativeCache missing = negativeCache;
+            if(missing != null) {
+                missing.addMissing(key);
+            }
+            return null;
         }
 
+        // Concurrent misses on the same key may both fill the cache, but
+        // always with the same value since puts are excluded
         String value = storage.getKV(key);
-        cache.putKV(key, value);
+        if(cache != null) {
+            cache.putKV(key, value);
+        }
         return value;
     }
 
@@ -126,14 +381,119 @@ public class CachedStorage {
      * @throws Exception
      *      when key not in the key range of the server
      */
-    public synchronized void putKV(String key, String value) throws Exception {
-        // Put into persistent storage first
-        storage.putKV(key, value);
+    public void putKV(String key, String value) throws Exception {
+        ReentrantReadWriteLock.WriteLock lock = getLock(key).writeLock();
+        lock.lock();
+        try {
+            // No longer missing, even if only partly written
+            if(negativeCache != null) {
+                negativeCache.invalidate(key);
+            }
 
-        // Put into cache if successfully inserted into persistent storage
-        if(cache != null) {
-            cache.putKV(key, value);
+            // Put into persistent storage, then the key index and filter
+            storage.putKV(key, value);
+            if(keyIndex.add(key) && keyFilter != null) {
+                keyFilter.add(key);
+            }
+
+            // Put into cache if successfully inserted into persistent storage
+            if(cache != null) {
+                cache.putKV(key, value);
+            }
+        } finally {
+            lock.unlock();
+        }
+        growKeyFilterIfFull();
+    }
+
+    /**
+     * Get the values associated with several keys, as of a single point in
+     * time
+     * @return  the keys found, in the order given, with their values
+     */
+    public Map<String, String> getKVs(List<String> keys) throws Exception {
+        List<Lock> stripeLocks = lockStripes(keys, false);
+        try {
+            Map<String, String> values =
+                new LinkedHashMap<String, String>(keys.size() * 2);
+            for(String key : keys) {
+                String value = readKV(key);
+                if(value != null) {
+                    values.put(key, value);
+                }
+            }
+            return values;
+        } finally {
+            unlockStripes(stripeLocks);
+        }
+    }
+
+    /**
+     * Put several key-value pairs into storage at once, which is written
+     * out together where the storage supports it
+     * @throws Exception
+     *      when a pair could not be put, in which case any of them may have
+     *      been put
+     */
+    public void putKVs(Map<String, String> entries) throws Exception {
+        List<Lock> stripeLocks = lockStripes(entries.keySet(), true);
+        try {
+            if(negativeCache != null) {
+                for(String key : entries.keySet()) {
+                    negativeCache.invalidate(key);
+                }
+            }
+            storage.putKVs(entries);
+            for(String key : entries.keySet()) {
+                if(keyIndex.add(key) && keyFilter != null) {
+                    keyFilter.add(key);
+                }
+            }
+            if(cache != null) {
+                for(Map.Entry<String, String> entry : entries.entrySet()) {
+                    cache.putKV(entry.getKey(), entry.getValue());
+                }
+            }
+        } finally {
+            unlockStripes(stripeLocks);
         }
+        growKeyFilterIfFull();
+    }
+
+    /**
+     * Get the keys in a range, in ascending order, with their values. Keys
+     * are read one at a time from the index, which is not a snapshot: each
+     * key's value is current when it is read, and keys put or deleted
+     * during the scan may or may not be included. Values are read from
+     * persistent storage without going through the cache, so that a scan
+     * does not evict the keys in use.
+     * @param startKey the first key of the range, included
+     * @param endKey the key the range stops at, excluded, or null for no end
+     * @param limit the maximum number of keys to return
+     * @return  the keys found, in order, with their values
+     */
+    public Map<String, String> scan(String startKey, String endKey,
+            int limit) throws Exception {
+        NavigableSet<String> range = endKey == null ?
+            keyIndex.tailSet(startKey, true) :
+            keyIndex.subSet(startKey, true, endKey, false);
+        Map<String, String> values = new LinkedHashMap<String, String>();
+        for(String key : range) {
+            if(values.size() >= limit) {
+                break;
+            }
+            ReentrantReadWriteLock.ReadLock lock = getLock(key).readLock();
+            lock.lock();
+            try {
+                // Deleted since it was reached in the index
+                if(inStorage(key)) {
+                    values.put(key, storage.getKV(key));
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+        return values;
     }
 
     /**
@@ -141,36 +501,191 @@ public class CachedStorage {
      * @throws Exception
      *      when key not in the key range of the server
      */
-    public synchronized void deleteKV(String key) throws Exception {
-        // Delete from persistent storage first
-        storage.deleteKV(key);
+    public void deleteKV(String key) throws Exception {
+        ReentrantReadWriteLock.WriteLock lock = getLock(key).writeLock();
+        lock.lock();
+        try {
+            // Delete from persistent storage first
+            storage.deleteKV(key);
+            if(keyIndex.remove(key) && keyFilter != null) {
+                keyFilter.remove(key);
+            }
 
-        // Delete from cache if successfully deleted from persistent storage
-        if(cache != null) {
-            cache.deleteKV(key);
+            // Delete from cache if successfully deleted from persistent
+            // storage
+            if(cache != null) {
+                cache.deleteKV(key);
+            }
+        } finally {
+            lock.unlock();
         }
     }
 
     /**
      * Clear the local cache of the server
      */
-    public synchronized void clearCache() {
-        logger.info("Clearing cache");
-        if(cache != null) {
-            cache.clear();
+    public void clearCache() {
+        lockAll();
+        try {
+            logger.info("Clearing cache");
+            if(cache != null) {
+                cache.clear();
+            }
+            if(negativeCache != null) {
+                negativeCache.clear();
+            }
+        } finally {
+            unlockAll();
         }
     }
 
     /**
      * Clear the storage of the server
      */
-    public synchronized void clearStorage() {
-		this.clearCache();
-        logger.warn("Clearing persistent storage");
+    public void clearStorage() {
+        lockAll();
+        try {
+            this.clearCache();
+            logger.warn("Clearing persistent storage");
+            try {
+                storage.clear();
+            } catch(Exception e) {
+                logger.error("Unable to clear persistent storage", e);
+            }
+            rebuildKeyIndex();
+        } finally {
+            unlockAll();
+        }
+    }
+
+    /**
+     * Release the persistent storage, which must not be used afterwards
+     */
+    public void close() {
+        lockAll();
+        try {
+            storage.close();
+        } catch(Exception e) {
+            logger.error("Unable to close persistent storage", e);
+        } finally {
+            unlockAll();
+        }
+    }
+
+    /**
+     * Fill the key index and key filter from persistent storage. Must be
+     * called with every stripe locked, or before serving requests.
+     */
+    private void rebuildKeyIndex() {
+        ConcurrentSkipListSet<String> keys = new ConcurrentSkipListSet<String>();
         try {
-            storage.clear();
+            keys.addAll(storage.keys());
+            keyIndex = keys;
+            rebuildKeyFilter();
         } catch(Exception e) {
-            logger.error("Unable to clear persistent storage", e);
+            // Without every key, the filter would hide the missing ones
+            logger.error("Unable to list keys in persistent storage; scans " +
+                "will miss them and lookups are not filtered", e);
+            keyIndex = keys;
+            keyFilter = null;
+        }
+    }
+
+    /**
+     * Fill a new key filter from the key index, sized for twice as many keys
+     * so that it can grow. Must be called with every stripe locked, or
+     * before serving requests.
+     */
+    private void rebuildKeyFilter() {
+        int nKeys = 0;
+        for(Iterator<String> keys = keyIndex.iterator(); keys.hasNext();
+                keys.next()) {
+            nKeys++;
+        }
+        CountingBloomFilter filter = new CountingBloomFilter(
+            Math.max(MIN_KEY_FILTER_CAPACITY, 2 * nKeys),
+            CountingBloomFilter.DEFAULT_FALSE_POSITIVE_RATE);
+        for(String key : keyIndex) {
+            filter.add(key);
+        }
+        keyFilter = filter;
+    }
+
+    /**
+     * Replace the key filter with a larger one once it holds more keys than
+     * it was sized for, which would raise its false positive rate
+     */
+    private void growKeyFilterIfFull() {
+        CountingBloomFilter filter = keyFilter;
+        if(filter == null || filter.size() <= filter.getCapacity()) {
+            return;
+        }
+        lockAll();
+        try {
+            if(keyFilter == filter) {
+                logger.info("Growing key filter beyond " +
+                    filter.getCapacity() + " keys");
+                rebuildKeyFilter();
+            }
+        } finally {
+            unlockAll();
+        }
+    }
+
+    /**
+     * Get the lock of the stripe the given key belongs to
+     */
+    private ReentrantReadWriteLock getLock(String key) {
+        return locks[getStripe(key)];
+    }
+
+    private static int getStripe(String key) {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        return hash & (N_LOCK_STRIPES - 1);
+    }
+
+    /**
+     * Lock the stripes the given keys belong to, each once and in ascending
+     * order
+     * @param exclusive whether to take the write locks rather than the read
+     *           locks
+     * @return the locks taken
+     */
+    private List<Lock> lockStripes(Collection<String> keys,
+            boolean exclusive) {
+        TreeSet<Integer> stripes = new TreeSet<Integer>();
+        for(String key : keys) {
+            stripes.add(getStripe(key));
+        }
+        List<Lock> stripeLocks = new ArrayList<Lock>(stripes.size());
+        for(int stripe : stripes) {
+            Lock lock = exclusive ? locks[stripe].writeLock() :
+                locks[stripe].readLock();
+            lock.lock();
+            stripeLocks.add(lock);
+        }
+        return stripeLocks;
+    }
+
+    private static void unlockStripes(List<Lock> stripeLocks) {
+        for(int i = stripeLocks.size() - 1; i >= 0; i--) {
+            stripeLocks.get(i).unlock();
+        }
+    }
+
+    /**
+     * Exclusively lock every stripe, always in the same order
+     */
+    private void lockAll() {
+        for(ReentrantReadWriteLock lock : locks) {
+            lock.writeLock().lock();
+        }
+    }
+
+    private void unlockAll() {
+        for(int i = locks.length - 1; i >= 0; i--) {
+            locks[i].writeLock().unlock();
         }
     }
 }
@@ -0,0 +1,169 @@
+package cached_storage;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Concurrent counting Bloom filter over keys. It answers whether a key may
+ * have been added, with no false negatives and a small rate of false
+ * positives, from memory alone. Each position holds a 4-bit counter rather
+ * than a bit, so that keys can be removed again. Counters are packed sixteen
+ * to a long and updated with compare-and-set, so no lock is taken.
+ *
+ * A counter that reaches 15 sticks there, since it can no longer tell how
+ * many keys share it: it is never decremented again, which can only cause
+ * false positives. A key must only be removed if it was added before and
+ * has not been removed since, or the filter may give false negatives.
+ */
+public class CountingBloomFilter {
+
+    public static final double DEFAULT_FALSE_POSITIVE_RATE = 0.01;
+
+    private static final int COUNTER_BITS = 4;
+    private static final int COUNTERS_PER_WORD = 64 / COUNTER_BITS;
+    private static final long COUNTER_MASK = (1L << COUNTER_BITS) - 1;
+
+    private final AtomicLongArray counters;
+    private final int nCounters;
+    private final int nHashes;
+    private final int capacity;
+    private final AtomicInteger nKeys = new AtomicInteger();
+
+    /**
+     * Constructs a filter sized for the given number of keys
+     * @param capacity number of keys the filter holds at the given false
+     *           positive rate; more keys raise the rate
+     * @param falsePositiveRate fraction of keys never added for which
+     *           mightContain() is true, between 0 and 1
+     */
+    public CountingBloomFilter(int capacity, double falsePositiveRate) {
+        if(capacity < 1 || falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("Invalid Bloom filter size: " +
+                capacity + " keys at " + falsePositiveRate);
+        }
+        double ln2 = Math.log(2);
+        long bestCounters = (long) Math.ceil(
+            -capacity * Math.log(falsePositiveRate) / (ln2 * ln2));
+        long nWords = (bestCounters + COUNTERS_PER_WORD - 1) /
+            COUNTERS_PER_WORD;
+        if(nWords * COUNTERS_PER_WORD > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Bloom filter too large: " +
+                capacity + " keys at " + falsePositiveRate);
+        }
+        this.counters = new AtomicLongArray((int) nWords);
+        this.nCounters = (int) nWords * COUNTERS_PER_WORD;
+        this.nHashes = Math.max(1,
+            (int) Math.round((double) nCounters / capacity * ln2));
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return the number of keys the filter was sized for
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of keys added and not removed since
+     */
+    public int size() {
+        return nKeys.get();
+    }
+
+    /**
+     * Check whether a key may have been added
+     * @return false if the key was certainly not added (or was removed
+     *         since), true if it probably was
+     */
+    public boolean mightContain(String key) {
+        long hash = hash(key);
+        int hash1 = (int) hash;
+        int hash2 = (int) (hash >>> 32);
+        for(int i = 0; i < nHashes; i++) {
+            if(getCounter(indexOf(hash1, hash2, i)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Add a key, which must not be in the filter already
+     */
+    public void add(String key) {
+        long hash = hash(key);
+        int hash1 = (int) hash;
+        int hash2 = (int) (hash >>> 32);
+        for(int i = 0; i < nHashes; i++) {
+            updateCounter(indexOf(hash1, hash2, i), 1);
+        }
+        nKeys.incrementAndGet();
+    }
+
+    /**
+     * Remove a key, which must have been added and not removed since
+     */
+    public void remove(String key) {
+        long hash = hash(key);
+        int hash1 = (int) hash;
+        int hash2 = (int) (hash >>> 32);
+        for(int i = 0; i < nHashes; i++) {
+            updateCounter(indexOf(hash1, hash2, i), -1);
+        }
+        nKeys.decrementAndGet();
+    }
+
+    /**
+     * Get the i-th position of a key, combining two hashes as in Kirsch and
+     * Mitzenmacher, "Less Hashing, Same Performance"
+     */
+    private int indexOf(int hash1, int hash2, int i) {
+        int combined = hash1 + i * hash2;
+        return (combined & Integer.MAX_VALUE) % nCounters;
+    }
+
+    private int getCounter(int index) {
+        long word = counters.get(index / COUNTERS_PER_WORD);
+        int shift = (index % COUNTERS_PER_WORD) * COUNTER_BITS;
+        return (int) ((word >>> shift) & COUNTER_MASK);
+    }
+
+    /**
+     * Add delta (1 or -1) to a counter, unless it is stuck at its maximum or
+     * already 0
+     */
+    private void updateCounter(int index, int delta) {
+        int wordIndex = index / COUNTERS_PER_WORD;
+        int shift = (index % COUNTERS_PER_WORD) * COUNTER_BITS;
+        while(true) {
+            long word = counters.get(wordIndex);
+            long counter = (word >>> shift) & COUNTER_MASK;
+            if(counter == COUNTER_MASK || (counter == 0 && delta < 0)) {
+                return;
+            }
+            long updated = word + ((long) delta << shift);
+            if(counters.compareAndSet(wordIndex, word, updated)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the key's characters, with its bits mixed by
+     * the MurmurHash3 finalizer so that both halves are usable
+     */
+    private static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for(int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -1,5 +1,8 @@
 package storage;
 
+import java.util.Map;
+import java.util.Set;
+
 import app_kvServer.IKVServer;
 
 public interface IStorage {
@@ -19,6 +22,13 @@ public interface IStorage {
      */
     public String getKV(String key) throws Exception;
 
+    /**
+     * Get every key in storage, for rebuilding in-memory structures over
+     * the keys on start. Not meant to be called while serving requests.
+     * @return  the keys, in no particular order
+     */
+    public Set<String> keys() throws Exception;
+
     /**
      * Put the key-value pair into storage
      * @throws Exception
@@ -26,6 +36,15 @@ public interface IStorage {
      */
     public void putKV(String key, String value) throws Exception;
 
+    /**
+     * Put several key-value pairs into storage as one grouped write
+     * @param entries the pairs to put, none of whose values is null
+     * @throws Exception
+     *      when a pair cannot be put, in which case some of the pairs may
+     *      have been put
+     */
+    public void putKVs(Map<String, String> entries) throws Exception;
+
     /**
      * Delete the key-value pair from storage
      * @throws Exception
@@ -37,4 +56,16 @@ public interface IStorage {
      * Clear the storage of the server
      */
     public void clear() throws Exception;
+
+    /**
+     * Force every change made so far out to the disk, so that it survives a
+     * crash of the machine
+     */
+    public void sync() throws Exception;
+
+    /**
+     * Release any resources held by the storage, which must not be used
+     * afterwards
+     */
+    public void close() throws Exception;
 }
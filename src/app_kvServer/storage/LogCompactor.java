@@ -0,0 +1,187 @@
+package storage;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Reclaims the space held by overwritten and deleted records of a LogStorage.
+ * Sealed segments whose fraction of dead bytes reaches the garbage ratio have
+ * their live records copied into the active segment, after which the old
+ * segment is deleted. Each record is moved under the storage write lock on its
+ * own, so gets never wait on compaction and puts wait for at most one record.
+ * Reads from old segments are throttled to a byte budget per second.
+ */
+public class LogCompactor implements Runnable {
+
+	private static Logger logger = Logger.getRootLogger();
+
+    public static final double DEFAULT_GARBAGE_RATIO = 0.5;
+    public static final long DEFAULT_BYTES_PER_SECOND = 16 * 1024 * 1024;
+    private static final long CHECK_INTERVAL_MS = 5000;
+    private static final double NS_PER_S = 1000000000.0;
+    private static final long NS_PER_MS = 1000000;
+
+    private LogStorage storage;
+    private volatile double garbageRatio;
+    private volatile long bytesPerSecond;
+
+    private Thread thread;
+    private volatile boolean isStopped;
+    private final Object sleepLock = new Object();
+
+    private long windowStartTime;
+    private long windowBytes;
+
+    /**
+     * Constructs a new LogCompactor for the given storage.
+     * @param storage the storage to compact
+     * @param garbageRatio fraction of dead bytes at which a sealed segment
+     *           is compacted
+     * @param bytesPerSecond maximum rate at which segments are read while
+     *           compacting, 0 for no limit
+     */
+    LogCompactor(LogStorage storage, double garbageRatio,
+            long bytesPerSecond) {
+        this.storage = storage;
+        this.garbageRatio = garbageRatio;
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    public double getGarbageRatio() {
+        return garbageRatio;
+    }
+
+    public void setGarbageRatio(double garbageRatio) {
+        this.garbageRatio = garbageRatio;
+    }
+
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public void setBytesPerSecond(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /**
+     * Starts compacting periodically in a background thread
+     */
+    void start() {
+        thread = new Thread(this, "log-compactor");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the background thread, waiting for it to finish moving its
+     * current record. The thread is never interrupted, since interrupting a
+     * thread in the middle of FileChannel I/O closes the channel.
+     */
+    void stop() {
+        isStopped = true;
+        synchronized(sleepLock) {
+            sleepLock.notifyAll();
+        }
+        if(thread != null) {
+            try {
+                thread.join();
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public void run() {
+        logger.info("Starting log compaction (garbage ratio " + garbageRatio +
+            ", " + bytesPerSecond + " bytes/s)");
+        while(!isStopped) {
+            try {
+                runOnce();
+            } catch(IOException e) {
+                logger.error("Unable to compact log segments", e);
+            }
+            pause(CHECK_INTERVAL_MS);
+        }
+        logger.info("Log compaction stopped");
+    }
+
+    /**
+     * Compacts every sealed segment currently over the garbage ratio, oldest
+     * first. Only one pass runs at a time per storage.
+     */
+    void runOnce() throws IOException {
+        synchronized(storage.compactionLock) {
+            for(LogSegment segment :
+                    storage.getCompactionCandidates(garbageRatio)) {
+                if(isStopped) {
+                    return;
+                }
+                compact(segment);
+            }
+        }
+    }
+
+    private void compact(LogSegment segment) throws IOException {
+        logger.info("Compacting log segment " + segment.id + " (" +
+            Math.round(segment.garbageRatio() * 100) + "% garbage, " +
+            Math.round(segment.tombstoneRatio() * 100) + "% tombstones)");
+        windowStartTime = System.nanoTime();
+        windowBytes = 0;
+
+        long offset = 0;
+        DataInputStream in = segment.openStream();
+        try {
+            LogRecord record;
+            while((record = LogRecord.read(in)) != null) {
+                storage.relocate(record, segment, offset);
+                offset += record.length;
+                throttle(record.length);
+                if(isStopped) {
+                    // Already moved records are simply duplicates for now
+                    return;
+                }
+            }
+        } finally {
+            in.close();
+        }
+
+        if(offset != segment.size()) {
+            logger.warn("Not removing log segment " + segment.id +
+                ": unreadable record at offset " + offset);
+            return;
+        }
+        storage.retire(segment);
+    }
+
+    /**
+     * Sleeps as long as needed to keep within the configured byte budget
+     */
+    private void throttle(long bytes) {
+        long rate = bytesPerSecond;
+        if(rate <= 0) {
+            return;
+        }
+        windowBytes += bytes;
+        long budgetTime = windowStartTime + (long) (windowBytes * NS_PER_S /
+            rate);
+        long ahead = budgetTime - System.nanoTime();
+        if(ahead >= NS_PER_MS) {
+            pause(ahead / NS_PER_MS);
+        }
+    }
+
+    private void pause(long ms) {
+        synchronized(sleepLock) {
+            if(isStopped) {
+                return;
+            }
+            try {
+                sleepLock.wait(ms);
+            } catch(InterruptedException e) {
+                isStopped = true;
+            }
+        }
+    }
+}
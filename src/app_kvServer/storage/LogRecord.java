@@ -0,0 +1,173 @@
+package storage;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A single key-value record as laid out in a LogStorage segment:
+ *
+ *   crc (int) | key length (int) | value length (int) | key | value
+ *
+ * The CRC covers everything after itself. A value length of -1 marks a
+ * tombstone, i.e. a deletion of the key.
+ */
+class LogRecord {
+
+    static final int HEADER_SIZE = 12;
+
+    private static final int TOMBSTONE_LENGTH = -1;
+    private static final int MAX_KEY_BYTES = 1 << 16;
+    private static final int MAX_VALUE_BYTES = 1 << 24;
+
+    final String key;
+    final String value;
+    final int length;
+
+    private LogRecord(String key, String value, int length) {
+        this.key = key;
+        this.value = value;
+        this.length = length;
+    }
+
+    /**
+     * @return true if this record marks the deletion of its key
+     */
+    boolean isTombstone() {
+        return value == null;
+    }
+
+    /**
+     * Encodes a record ready to be appended to a segment
+     * @param key the key of the record
+     * @param value the value of the record, null for a tombstone
+     * @return buffer positioned at the start of the encoded record
+     */
+    static ByteBuffer encode(String key, String value) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] valueBytes = value == null ? null :
+            value.getBytes(StandardCharsets.UTF_8);
+        int valueLength = valueBytes == null ? 0 : valueBytes.length;
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + keyBytes.length +
+            valueLength);
+        buffer.position(4);
+        buffer.putInt(keyBytes.length);
+        buffer.putInt(valueBytes == null ? TOMBSTONE_LENGTH : valueLength);
+        buffer.put(keyBytes);
+        if(valueBytes != null) {
+            buffer.put(valueBytes);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 4, buffer.capacity() - 4);
+        buffer.putInt(0, (int) crc.getValue());
+        buffer.rewind();
+        return buffer;
+    }
+
+    /**
+     * Encodes several records back to back, ready to be appended at once
+     * @param entries the keys and values of the records, in order
+     * @param lengths if not null, filled with the length of each record
+     * @return buffer positioned at the start of the first record
+     */
+    static ByteBuffer encode(Map<String, String> entries, int[] lengths) {
+        ByteBuffer[] records = new ByteBuffer[entries.size()];
+        int totalLength = 0;
+        int i = 0;
+        for(Map.Entry<String, String> entry : entries.entrySet()) {
+            records[i] = encode(entry.getKey(), entry.getValue());
+            if(lengths != null) {
+                lengths[i] = records[i].remaining();
+            }
+            totalLength += records[i].remaining();
+            i++;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(totalLength);
+        for(ByteBuffer record : records) {
+            buffer.put(record);
+        }
+        buffer.rewind();
+        return buffer;
+    }
+
+    /**
+     * Decodes a record that was read back in full from a segment
+     * @param buffer buffer holding exactly one encoded record
+     * @return the decoded record
+     * @throws IOException if the record is corrupt
+     */
+    static LogRecord decode(ByteBuffer buffer) throws IOException {
+        byte[] bytes = buffer.array();
+        int crc = buffer.getInt(0);
+        int keyLength = buffer.getInt(4);
+        int valueLength = buffer.getInt(8);
+        int bodyLength = keyLength +
+            (valueLength == TOMBSTONE_LENGTH ? 0 : valueLength);
+        if(keyLength < 0 || HEADER_SIZE + bodyLength != buffer.capacity() ||
+                crc != checksum(bytes, bytes.length)) {
+            throw new IOException("Corrupt record in log segment");
+        }
+        return fromBytes(bytes, keyLength, valueLength);
+    }
+
+    /**
+     * Reads the next record from a sequential stream over a segment
+     * @param in stream positioned at the start of a record
+     * @return the record read, or null at the end of the segment or at a
+     *      torn or corrupt record (e.g. left behind by a crash mid-append)
+     */
+    static LogRecord read(DataInputStream in) throws IOException {
+        int crc;
+        try {
+            crc = in.readInt();
+        } catch(EOFException e) {
+            return null;
+        }
+
+        try {
+            int keyLength = in.readInt();
+            int valueLength = in.readInt();
+            if(keyLength < 0 || keyLength > MAX_KEY_BYTES ||
+                    valueLength < TOMBSTONE_LENGTH ||
+                    valueLength > MAX_VALUE_BYTES) {
+                return null;
+            }
+
+            int bodyLength = keyLength +
+                (valueLength == TOMBSTONE_LENGTH ? 0 : valueLength);
+            byte[] bytes = new byte[HEADER_SIZE + bodyLength];
+            ByteBuffer.wrap(bytes).putInt(crc).putInt(keyLength)
+                .putInt(valueLength);
+            in.readFully(bytes, HEADER_SIZE, bodyLength);
+            if(crc != checksum(bytes, bytes.length)) {
+                return null;
+            }
+            return fromBytes(bytes, keyLength, valueLength);
+        } catch(EOFException e) {
+            return null;
+        }
+    }
+
+    private static LogRecord fromBytes(byte[] bytes, int keyLength,
+            int valueLength) {
+        String key = new String(bytes, HEADER_SIZE, keyLength,
+            StandardCharsets.UTF_8);
+        String value = valueLength == TOMBSTONE_LENGTH ? null :
+            new String(bytes, HEADER_SIZE + keyLength, valueLength,
+                StandardCharsets.UTF_8);
+        return new LogRecord(key, value, bytes.length);
+    }
+
+    private static int checksum(byte[] bytes, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 4, length - 4);
+        return (int) crc.getValue();
+    }
+}
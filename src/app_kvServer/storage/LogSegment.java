@@ -0,0 +1,194 @@
+package storage;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A single append-only file of a LogStorage. Appends are expected to be
+ * serialized by the caller, reads may happen concurrently from any thread.
+ */
+class LogSegment {
+
+    private static final String FILE_PREFIX = "segment-";
+    private static final String FILE_SUFFIX = ".log";
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    final int id;
+    private File file;
+    private FileChannel channel;
+    private volatile long size;
+    private volatile long liveBytes;
+    private volatile long tombstoneBytes;
+
+    /**
+     * Opens (creating if necessary) the segment with the given id.
+     * @param rootDir the directory holding all segments
+     * @param id the id of the segment
+     */
+    LogSegment(String rootDir, int id) throws IOException {
+        this.id = id;
+        this.file = new File(rootDir, fileName(id));
+        this.channel = FileChannel.open(file.toPath(),
+            StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+        this.size = channel.size();
+    }
+
+    /**
+     * @return the file name used for the segment with the given id
+     */
+    static String fileName(int id) {
+        return String.format("%s%08d%s", FILE_PREFIX, id, FILE_SUFFIX);
+    }
+
+    /**
+     * @return the id of the segment stored in the given file, or -1 if the
+     *      file is not a segment
+     */
+    static int parseId(String fileName) {
+        if(!fileName.startsWith(FILE_PREFIX) ||
+                !fileName.endsWith(FILE_SUFFIX)) {
+            return -1;
+        }
+        try {
+            return Integer.parseInt(fileName.substring(FILE_PREFIX.length(),
+                fileName.length() - FILE_SUFFIX.length()));
+        } catch(NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return the number of bytes currently in the segment
+     */
+    long size() {
+        return size;
+    }
+
+    /**
+     * @return the number of bytes in the segment belonging to records that
+     *      are still referenced (current values and retained tombstones)
+     */
+    long liveBytes() {
+        return liveBytes;
+    }
+
+    /**
+     * Adjusts the live byte count. Caller must serialize all adjustments.
+     */
+    void addLiveBytes(long delta) {
+        liveBytes += delta;
+    }
+
+    /**
+     * Adds retained tombstones to the live byte count, keeping track of them
+     * separately as well. Caller must serialize all adjustments.
+     */
+    void addTombstoneBytes(long delta) {
+        tombstoneBytes += delta;
+        liveBytes += delta;
+    }
+
+    /**
+     * @return the fraction of the segment taken up by dead records
+     */
+    double garbageRatio() {
+        return garbageRatio(false);
+    }
+
+    /**
+     * @param isOldest whether no older segment remains, in which case the
+     *           tombstones of this one hide nothing and are dead as well
+     * @return the fraction of the segment taken up by dead records
+     */
+    double garbageRatio(boolean isOldest) {
+        long total = size;
+        long live = isOldest ? liveBytes - tombstoneBytes : liveBytes;
+        return total == 0 ? 0 : 1.0 - (double) live / total;
+    }
+
+    /**
+     * @return the fraction of the segment taken up by tombstones
+     */
+    double tombstoneRatio() {
+        long total = size;
+        return total == 0 ? 0 : (double) tombstoneBytes / total;
+    }
+
+    /**
+     * Appends an encoded record to the end of the segment
+     * @return the offset at which the record was written
+     */
+    long append(ByteBuffer record) throws IOException {
+        long offset = size;
+        long position = offset;
+        while(record.hasRemaining()) {
+            position += channel.write(record, position);
+        }
+        size = position;
+        return offset;
+    }
+
+    /**
+     * Reads back the record at the given location
+     */
+    LogRecord read(long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        long position = offset;
+        while(buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if(n < 0) {
+                throw new IOException("Record extends past end of segment " +
+                    id);
+            }
+            position += n;
+        }
+        return LogRecord.decode(buffer);
+    }
+
+    /**
+     * Opens a sequential stream over the records of the segment, starting
+     * at the first record
+     */
+    DataInputStream openStream() throws IOException {
+        return new DataInputStream(new BufferedInputStream(
+            new FileInputStream(file), READ_BUFFER_SIZE));
+    }
+
+    /**
+     * Discards everything after the given offset, used to drop a torn
+     * record left at the tail of the segment
+     */
+    void truncate(long length) throws IOException {
+        channel.truncate(length);
+        size = length;
+    }
+
+    /**
+     * Forces everything appended so far out to the disk
+     */
+    void force() throws IOException {
+        channel.force(false);
+    }
+
+    void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Closes the segment and removes its file from disk
+     */
+    void delete() throws IOException {
+        close();
+        if(!file.delete()) {
+            throw new IOException("Unable to delete segment: " +
+                file.getName());
+        }
+    }
+}
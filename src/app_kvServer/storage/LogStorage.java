@@ -0,0 +1,459 @@
+package storage;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Persistent storage backed by segmented, append-only log files (in the style
+ * of Bitcask). Every put or delete is a single sequential append to the
+ * active segment, and an in-memory index maps each key to the location of
+ * its latest record. The index is rebuilt by replaying the segments on start.
+ * Space held by overwritten and deleted records is reclaimed in the
+ * background by a LogCompactor.
+ */
+public class LogStorage implements IStorage {
+
+	private static Logger logger = Logger.getRootLogger();
+
+    public static final long DEFAULT_MAX_SEGMENT_BYTES = 64 * 1024 * 1024;
+
+    private String rootDir;
+    private long maxSegmentBytes;
+
+    private ConcurrentHashMap<String, RecordLocation> index;
+    private ConcurrentSkipListMap<Integer, LogSegment> segments;
+    private volatile LogSegment activeSegment;
+    private final Object writeLock = new Object();
+    // Held by a compaction pass, so that the background compactor and
+    // compact() never work on the same segments at once
+    final Object compactionLock = new Object();
+    private LogCompactor compactor;
+
+    /**
+	 * Constructs a new LogStorage object to manage persistent storage.
+	 * @param rootDir the root directory to store all segments in
+	 */
+    public LogStorage(String rootDir) throws IOException {
+        this(rootDir, DEFAULT_MAX_SEGMENT_BYTES);
+    }
+
+    /**
+	 * Constructs a new LogStorage object to manage persistent storage.
+	 * @param rootDir the root directory to store all segments in
+	 * @param maxSegmentBytes size after which the active segment is closed
+	 *           and a new one is started
+	 */
+    public LogStorage(String rootDir, long maxSegmentBytes)
+            throws IOException {
+        logger.info("Initializing log-structured persistent storage");
+        this.rootDir = rootDir;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.index = new ConcurrentHashMap<String, RecordLocation>();
+        this.segments = new ConcurrentSkipListMap<Integer, LogSegment>();
+        new File(rootDir).mkdirs();
+        recover();
+    }
+
+    /**
+     * Check if key is in storage.
+     * NOTE: does not modify any other properties
+     * @return  true if key in storage, false otherwise
+     */
+    @Override
+    public boolean inStorage(String key) {
+        return index.containsKey(key);
+    }
+
+    /**
+     * Get every key in storage, as held by the index
+     * @return  the keys, in no particular order
+     */
+    @Override
+    public Set<String> keys() {
+        return new HashSet<String>(index.keySet());
+    }
+
+    /**
+     * Get the value associated with the key, assume caller has already checked
+     * that it exists before calling
+     * @return  value associated with key
+     * @throws Exception
+     *      when key not in the key range of the server
+     */
+    @Override
+    public String getKV(String key) throws Exception {
+        if(logger.isDebugEnabled()) {
+            logger.debug("Getting from storage: " + key);
+        }
+        while(true) {
+            RecordLocation location = index.get(key);
+            if(location == null) {
+                throw new FileNotFoundException("Specified key not found");
+            }
+            LogSegment segment = segments.get(location.segmentId);
+            if(segment == null) {
+                // Record was moved by compaction in the meantime, look again
+                continue;
+            }
+            try {
+                return segment.read(location.offset, location.length).value;
+            } catch(ClosedChannelException e) {
+                if(segments.get(location.segmentId) == segment) {
+                    throw e;
+                }
+                // Segment was retired by compaction while reading, look again
+            }
+        }
+    }
+
+    /**
+     * Put the key-value pair into storage
+     * @throws Exception
+     *      when key not in the key range of the server
+     */
+    @Override
+    public void putKV(String key, String value) throws Exception {
+        ByteBuffer record = LogRecord.encode(key, value);
+        synchronized(writeLock) {
+            RecordLocation location = append(record);
+            segments.get(location.segmentId).addLiveBytes(location.length);
+            RecordLocation previous = index.put(key, location);
+            if(previous == null) {
+                if(logger.isDebugEnabled()) {
+                    logger.debug("Inserting into storage: " + key);
+                }
+            } else {
+                if(logger.isDebugEnabled()) {
+                    logger.debug("Updating in storage: " + key);
+                }
+                release(previous);
+            }
+        }
+    }
+
+    /**
+     * Put several key-value pairs into storage with a single append of all
+     * their records
+     */
+    @Override
+    public void putKVs(Map<String, String> entries) throws Exception {
+        int[] lengths = new int[entries.size()];
+        ByteBuffer records = LogRecord.encode(entries, lengths);
+        synchronized(writeLock) {
+            RecordLocation location = append(records);
+            segments.get(location.segmentId).addLiveBytes(location.length);
+            long offset = location.offset;
+            int i = 0;
+            for(String key : entries.keySet()) {
+                release(index.put(key, new RecordLocation(location.segmentId,
+                    offset, lengths[i])));
+                offset += lengths[i++];
+            }
+        }
+    }
+
+    /**
+     * Delete the key-value pair from storage
+     * @throws Exception
+     *      when key not in the key range of the server
+     */
+    @Override
+    public void deleteKV(String key) throws Exception {
+        ByteBuffer record = LogRecord.encode(key, null);
+        synchronized(writeLock) {
+            if(!inStorage(key)) {
+                throw new FileNotFoundException("Specified key not found");
+            }
+            if(logger.isDebugEnabled()) {
+                logger.debug("Deleting from storage: " + key);
+            }
+            RecordLocation tombstone = append(record);
+            segments.get(tombstone.segmentId).addTombstoneBytes(
+                tombstone.length);
+            release(index.remove(key));
+        }
+    }
+
+    /**
+     * Clear the storage of the server
+     */
+    @Override
+    public void clear() throws Exception {
+        logger.info("Clearing storage");
+        synchronized(writeLock) {
+            index.clear();
+            for(LogSegment segment : segments.values()) {
+                segment.delete();
+            }
+            segments.clear();
+            activeSegment = null;
+            startSegment(1);
+        }
+    }
+
+    /**
+     * Force every change made so far out to the disk. Sealed segments are
+     * included, as compaction may have copied records out of segments that
+     * it has since removed.
+     */
+    @Override
+    public void sync() throws Exception {
+        synchronized(writeLock) {
+            for(LogSegment segment : segments.values()) {
+                segment.force();
+            }
+        }
+    }
+
+    /**
+     * Stops background compaction and closes all segments. The storage must
+     * not be used afterwards.
+     */
+    @Override
+    public void close() throws Exception {
+        if(compactor != null) {
+            compactor.stop();
+        }
+        synchronized(writeLock) {
+            for(LogSegment segment : segments.values()) {
+                segment.close();
+            }
+        }
+    }
+
+    /**
+     * Starts compacting segments in the background
+     * @param garbageRatio fraction of dead bytes at which a sealed segment
+     *           is compacted
+     * @param bytesPerSecond maximum rate at which compaction reads segments
+     * @return the running compactor, whose settings may be adjusted later
+     */
+    public synchronized LogCompactor startCompaction(double garbageRatio,
+            long bytesPerSecond) {
+        if(compactor == null) {
+            compactor = new LogCompactor(this, garbageRatio, bytesPerSecond);
+            compactor.start();
+        }
+        return compactor;
+    }
+
+    /**
+     * Runs a single compaction pass in the calling thread, regardless of
+     * the garbage ratio of each segment. Waits for a pass of the background
+     * compactor to finish first.
+     */
+    public void compact() throws IOException {
+        new LogCompactor(this, 0, 0).runOnce();
+    }
+
+    /**
+     * @return the number of segment files currently making up the storage
+     */
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Get the segments to compact, which are compacted oldest first. The
+     * tombstones of a segment count as dead if every older segment is
+     * compacted before it, since they then hide nothing any more.
+     * @return the sealed (no longer appended to) segments whose garbage
+     *      ratio is at least the given ratio, oldest first
+     */
+    List<LogSegment> getCompactionCandidates(double garbageRatio) {
+        List<LogSegment> candidates = new ArrayList<LogSegment>();
+        int activeId = activeSegment.id;
+        boolean isOldest = true;
+        for(LogSegment segment : segments.values()) {
+            if(segment.id >= activeId || segment.size() == 0) {
+                continue;
+            }
+            if(segment.garbageRatio(isOldest) >= garbageRatio) {
+                candidates.add(segment);
+            } else {
+                isOldest = false;
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Copies a record read from a sealed segment into the active segment if
+     * it is still needed, atomically swapping the index entry over to it
+     * @param record the record read from the segment
+     * @param segment the segment being compacted
+     * @param offset offset of the record in the segment
+     */
+    void relocate(LogRecord record, LogSegment segment, long offset)
+            throws IOException {
+        synchronized(writeLock) {
+            if(record.isTombstone()) {
+                // A tombstone is only needed while an older segment could
+                // still hold a value for the key that it hides
+                if(index.containsKey(record.key) ||
+                        segments.firstKey() >= segment.id) {
+                    return;
+                }
+                RecordLocation moved = append(
+                    LogRecord.encode(record.key, null));
+                segments.get(moved.segmentId).addTombstoneBytes(moved.length);
+                return;
+            }
+
+            RecordLocation location = index.get(record.key);
+            if(location == null || location.segmentId != segment.id ||
+                    location.offset != offset) {
+                return;
+            }
+            RecordLocation moved = append(
+                LogRecord.encode(record.key, record.value));
+            segments.get(moved.segmentId).addLiveBytes(moved.length);
+            index.put(record.key, moved);
+        }
+    }
+
+    /**
+     * Removes a fully compacted segment, once none of its records are
+     * referenced by the index any more. The records relocated out of it are
+     * forced to the disk first, or a crash could lose them along with the
+     * segment, or bring back keys whose tombstones were relocated. They are
+     * forced without holding writeLock, so that puts do not wait on the disk.
+     */
+    void retire(LogSegment segment) throws IOException {
+        List<LogSegment> newerSegments;
+        synchronized(writeLock) {
+            if(segments.get(segment.id) != segment) {
+                // Storage was cleared while compacting
+                return;
+            }
+            newerSegments = new ArrayList<LogSegment>(
+                segments.tailMap(segment.id, false).values());
+        }
+        try {
+            for(LogSegment newer : newerSegments) {
+                newer.force();
+            }
+        } catch(ClosedChannelException e) {
+            if(segments.get(segment.id) == segment) {
+                throw e;
+            }
+            // Storage was cleared while forcing
+            return;
+        }
+        synchronized(writeLock) {
+            if(!segments.remove(segment.id, segment)) {
+                return;
+            }
+        }
+        logger.info("Removing compacted log segment " + segment.id);
+        segment.delete();
+    }
+
+    /**
+     * Marks the record at the given location as dead. Caller must hold
+     * writeLock.
+     */
+    private void release(RecordLocation location) {
+        if(location == null) {
+            return;
+        }
+        LogSegment segment = segments.get(location.segmentId);
+        if(segment != null) {
+            segment.addLiveBytes(-location.length);
+        }
+    }
+
+    /**
+     * Appends an encoded record to the active segment, rolling over to a new
+     * segment first if the active one is full. Caller must hold writeLock.
+     */
+    private RecordLocation append(ByteBuffer record) throws IOException {
+        int length = record.remaining();
+        if(activeSegment.size() > 0 &&
+                activeSegment.size() + length > maxSegmentBytes) {
+            startSegment(activeSegment.id + 1);
+        }
+        long offset = activeSegment.append(record);
+        return new RecordLocation(activeSegment.id, offset, length);
+    }
+
+    private void startSegment(int id) throws IOException {
+        logger.info("Starting log segment " + id);
+        LogSegment segment = new LogSegment(rootDir, id);
+        segments.put(id, segment);
+        activeSegment = segment;
+    }
+
+    /**
+     * Rebuilds the index by replaying every segment in order, oldest first.
+     * A torn record at the tail of a segment is truncated away.
+     */
+    private void recover() throws IOException {
+        List<Integer> ids = new ArrayList<Integer>();
+        File[] files = new File(rootDir).listFiles();
+        if(files != null) {
+            for(File file : files) {
+                int id = LogSegment.parseId(file.getName());
+                if(id >= 0) {
+                    ids.add(id);
+                }
+            }
+        }
+        Collections.sort(ids);
+
+        for(int id : ids) {
+            LogSegment segment = new LogSegment(rootDir, id);
+            segments.put(id, segment);
+
+            long offset = 0;
+            DataInputStream in = segment.openStream();
+            try {
+                LogRecord record;
+                while((record = LogRecord.read(in)) != null) {
+                    if(record.isTombstone()) {
+                        index.remove(record.key);
+                        segment.addTombstoneBytes(record.length);
+                    } else {
+                        index.put(record.key,
+                            new RecordLocation(id, offset, record.length));
+                    }
+                    offset += record.length;
+                }
+            } finally {
+                in.close();
+            }
+
+            if(offset < segment.size()) {
+                logger.warn("Truncating torn record at offset " + offset +
+                    " in log segment " + id);
+                segment.truncate(offset);
+            }
+        }
+
+        for(RecordLocation location : index.values()) {
+            segments.get(location.segmentId).addLiveBytes(location.length);
+        }
+
+        if(segments.isEmpty()) {
+            startSegment(1);
+        } else {
+            activeSegment = segments.lastEntry().getValue();
+        }
+        logger.info("Recovered " + index.size() + " key(s) from " +
+            segments.size() + " log segment(s)");
+    }
+}
@@ -0,0 +1,294 @@
+package storage;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.log4j.Logger;
+
+import app_kvServer.IKVServer.Durability;
+
+/**
+ * Puts a write-ahead log in front of another persistent storage. Every put
+ * and delete is appended to the log before it is applied to the storage,
+ * and how soon the log is synced to disk is set by the durability level:
+ *
+ *   None        the log is never synced explicitly, so only a crash of the
+ *               server process (not of the machine) is survived
+ *   Batched     the log is synced periodically in the background, so at
+ *               most the last interval of writes can be lost
+ *   EveryWrite  a write only completes once the log is synced, with
+ *               concurrent writes sharing one sync (group commit)
+ *
+ * Once the log grows large, the storage is synced and the log is emptied.
+ * Records left in the log by a crash are replayed into the storage when the
+ * log is opened.
+ */
+public class LoggedStorage implements IStorage {
+
+	private static Logger logger = Logger.getRootLogger();
+
+    public static final int DEFAULT_SYNC_INTERVAL_MS = 10;
+    public static final long DEFAULT_CHECKPOINT_BYTES = 64 * 1024 * 1024;
+
+    private IStorage storage;
+    private WriteAheadLog log;
+    private long checkpointBytes;
+    private volatile Durability durability;
+    private volatile int syncIntervalMs;
+    private volatile boolean isOpen;
+    private Thread syncer;
+
+    // Writes hold the read lock, emptying the log holds the write lock
+    private ReentrantReadWriteLock checkpointLock;
+
+    /**
+     * Constructs a new LoggedStorage, first replaying any records left in
+     * the log into the storage.
+     * @param storage the storage to apply writes to
+     * @param logFile the file holding the write-ahead log
+     * @param durability when the log is synced to disk
+     * @param syncIntervalMs time between syncs for Batched durability
+     */
+    public LoggedStorage(IStorage storage, File logFile, Durability durability,
+            int syncIntervalMs) throws IOException {
+        this(storage, logFile, durability, syncIntervalMs,
+            DEFAULT_CHECKPOINT_BYTES);
+    }
+
+    /**
+     * Constructs a new LoggedStorage, first replaying any records left in
+     * the log into the storage.
+     * @param storage the storage to apply writes to
+     * @param logFile the file holding the write-ahead log
+     * @param durability when the log is synced to disk
+     * @param syncIntervalMs time between syncs for Batched durability
+     * @param checkpointBytes log size at which the storage is synced and the
+     *           log emptied
+     */
+    public LoggedStorage(IStorage storage, File logFile, Durability durability,
+            int syncIntervalMs, long checkpointBytes) throws IOException {
+        this.storage = storage;
+        this.log = new WriteAheadLog(logFile);
+        this.checkpointBytes = checkpointBytes;
+        this.checkpointLock = new ReentrantReadWriteLock();
+        this.isOpen = true;
+        recover();
+        setDurability(durability, syncIntervalMs);
+    }
+
+    /**
+     * Change when the log is synced to disk
+     * @param durability the new durability level
+     * @param syncIntervalMs time between syncs for Batched durability
+     */
+    public synchronized void setDurability(Durability durability,
+            int syncIntervalMs) {
+        this.durability = durability;
+        this.syncIntervalMs = Math.max(syncIntervalMs, 1);
+        if(durability == Durability.Batched && syncer == null) {
+            syncer = new Thread(new Runnable() {
+                public void run() {
+                    syncPeriodically();
+                }
+            }, "wal-syncer");
+            syncer.setDaemon(true);
+            syncer.start();
+        }
+    }
+
+    /**
+     * @return the current durability level
+     */
+    public Durability getDurability() {
+        return this.durability;
+    }
+
+    @Override
+    public boolean inStorage(String key) {
+        return storage.inStorage(key);
+    }
+
+    @Override
+    public String getKV(String key) throws Exception {
+        return storage.getKV(key);
+    }
+
+    @Override
+    public Set<String> keys() throws Exception {
+        return storage.keys();
+    }
+
+    @Override
+    public void putKV(String key, String value) throws Exception {
+        write(key, value);
+    }
+
+    /**
+     * Logs every pair with a single append (and, for EveryWrite durability,
+     * a single sync), then applies them as one grouped write
+     */
+    @Override
+    public void putKVs(Map<String, String> entries) throws Exception {
+        ByteBuffer records = LogRecord.encode(entries, null);
+        long logSize;
+        checkpointLock.readLock().lock();
+        try {
+            logSize = log.append(records);
+            if(durability == Durability.EveryWrite) {
+                log.sync(logSize);
+            }
+            storage.putKVs(entries);
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+
+        if(logSize >= checkpointBytes) {
+            checkpoint();
+        }
+    }
+
+    @Override
+    public void deleteKV(String key) throws Exception {
+        if(!storage.inStorage(key)) {
+            throw new FileNotFoundException("Specified key not found");
+        }
+        write(key, null);
+    }
+
+    @Override
+    public void clear() throws Exception {
+        checkpointLock.writeLock().lock();
+        try {
+            storage.clear();
+            log.reset();
+        } finally {
+            checkpointLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void sync() throws Exception {
+        log.sync();
+    }
+
+    /**
+     * Syncs the log one last time and releases it along with the storage
+     */
+    @Override
+    public void close() throws Exception {
+        isOpen = false;
+        if(syncer != null) {
+            // Not interrupted, as that would close the log's channel
+            syncer.join();
+        }
+        checkpointLock.writeLock().lock();
+        try {
+            if(durability != Durability.None) {
+                log.sync();
+            }
+            log.close();
+            storage.close();
+        } finally {
+            checkpointLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Logs a put (or a delete, if the value is null), then applies it
+     */
+    private void write(String key, String value) throws Exception {
+        long logSize;
+        checkpointLock.readLock().lock();
+        try {
+            logSize = log.append(LogRecord.encode(key, value));
+            if(durability == Durability.EveryWrite) {
+                log.sync(logSize);
+            }
+            if(value == null) {
+                storage.deleteKV(key);
+            } else {
+                storage.putKV(key, value);
+            }
+        } finally {
+            checkpointLock.readLock().unlock();
+        }
+
+        if(logSize >= checkpointBytes) {
+            checkpoint();
+        }
+    }
+
+    /**
+     * Makes the storage itself durable, after which the log is no longer
+     * needed and is emptied
+     */
+    private void checkpoint() throws Exception {
+        checkpointLock.writeLock().lock();
+        try {
+            if(log.size() < checkpointBytes) {
+                // Another writer got here first
+                return;
+            }
+            logger.info("Checkpointing write-ahead log");
+            storage.sync();
+            log.reset();
+        } finally {
+            checkpointLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Replays every record left in the log into the storage, then
+     * checkpoints
+     */
+    private void recover() throws IOException {
+        List<LogRecord> records = log.readRecords();
+        if(records.isEmpty()) {
+            log.reset();
+            return;
+        }
+
+        logger.info("Replaying " + records.size() +
+            " records from write-ahead log");
+        try {
+            for(LogRecord record : records) {
+                if(!record.isTombstone()) {
+                    storage.putKV(record.key, record.value);
+                } else if(storage.inStorage(record.key)) {
+                    storage.deleteKV(record.key);
+                }
+            }
+            storage.sync();
+        } catch(Exception e) {
+            throw new IOException("Unable to replay write-ahead log", e);
+        }
+        log.reset();
+    }
+
+    private void syncPeriodically() {
+        while(isOpen) {
+            try {
+                Thread.sleep(syncIntervalMs);
+            } catch(InterruptedException e) {
+                return;
+            }
+            if(durability != Durability.Batched) {
+                continue;
+            }
+            checkpointLock.readLock().lock();
+            try {
+                log.sync();
+            } catch(IOException e) {
+                logger.error("Unable to sync write-ahead log", e);
+            } finally {
+                checkpointLock.readLock().unlock();
+            }
+        }
+    }
+}
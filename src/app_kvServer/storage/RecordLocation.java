@@ -0,0 +1,23 @@
+package storage;
+
+/**
+ * Position of a single record within the segments of a LogStorage.
+ */
+class RecordLocation {
+
+    final int segmentId;
+    final long offset;
+    final int length;
+
+    /**
+     * Constructs a new RecordLocation.
+     * @param segmentId id of the segment holding the record
+     * @param offset byte offset of the start of the record in the segment
+     * @param length total length of the record in bytes (header included)
+     */
+    RecordLocation(int segmentId, long offset, int length) {
+        this.segmentId = segmentId;
+        this.offset = offset;
+        this.length = length;
+    }
+}
@@ -1,29 +1,44 @@
 package storage;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
-import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.channels.FileChannel;
 import java.nio.file.Path;
 import java.nio.file.Files;
 import java.nio.file.FileSystemException;
+import java.nio.file.StandardOpenOption;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.math.BigInteger;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.log4j.Logger;
 
 import app_kvServer.IKVServer;
 
+/**
+ * Persistent storage keeping each key-value pair in its own file, named by
+ * the MD5 hash of the key. A file holds the key on its first line, followed
+ * by the value. Files written before keys were stored hold only the value;
+ * they are still read, but keys cannot be listed while any of them remain.
+ */
 public class Storage implements IStorage {
 
 	private static Logger logger = Logger.getRootLogger();
 
     private String rootDir;
 
+    // Files written since the last sync
+    private Set<String> unsyncedFiles;
+
     /**
 	 * Constructs a new Storage object to manage persistent storage.
 	 * @param rootDir the root directory to store all data in
@@ -31,6 +46,7 @@ public class Storage implements IStorage {
     public Storage(String rootDir) {
         logger.info("Initializing persistent storage");
         this.rootDir = rootDir;
+        this.unsyncedFiles = ConcurrentHashMap.newKeySet();
         new File(rootDir).mkdirs();
     }
 
@@ -55,14 +71,50 @@ public class Storage implements IStorage {
      */
     @Override
     public String getKV(String key) throws Exception {
-        logger.info("Getting from storage: " + key);
+        if(logger.isDebugEnabled()) {
+            logger.debug("Getting from storage: " + key);
+        }
         File file = new File(rootDir, getMd5Hash(key));
-        FileReader fr = new FileReader(file.getPath());
-        BufferedReader br = new BufferedReader(fr);
-        String value = br.readLine();
-        br.close();
-        fr.close();
-        return value;
+        if(!file.isFile()) {
+            throw new FileNotFoundException("Specified key not found");
+        }
+        // Values may span several lines
+        String contents = new String(Files.readAllBytes(file.toPath()));
+        String header = key + "\n";
+        return contents.startsWith(header) ?
+            contents.substring(header.length()) : contents;
+    }
+
+    /**
+     * Get every key in storage, read from the first line of each file
+     * @return  the keys, in no particular order
+     * @throws IOException
+     *      when a file was written without its key
+     */
+    @Override
+    public Set<String> keys() throws Exception {
+        Set<String> keys = new HashSet<String>();
+        int nUnnamed = 0;
+        for(File file : new File(rootDir).listFiles()) {
+            String key;
+            BufferedReader in = new BufferedReader(new FileReader(file));
+            try {
+                key = in.readLine();
+            } finally {
+                in.close();
+            }
+            // A file from before keys were stored starts with the value
+            if(key != null && file.getName().equals(getMd5Hash(key))) {
+                keys.add(key);
+            } else {
+                nUnnamed++;
+            }
+        }
+        if(nUnnamed > 0) {
+            throw new IOException(nUnnamed + " key(s) in storage were " +
+                "written without their key and cannot be listed");
+        }
+        return keys;
     }
 
     /**
@@ -75,18 +127,36 @@ public class Storage implements IStorage {
         // Create file if it does not exist
         File file = new File(rootDir, getMd5Hash(key));
         if(!file.isFile()) {
-            logger.info("Inserting into storage: " + key);
+            if(logger.isDebugEnabled()) {
+                logger.debug("Inserting into storage: " + key);
+            }
             if(!file.createNewFile()) {
                 throw new FileSystemException("Unable to create key");
             }
         } else {
-           logger.info("Updating in storage: " + key);
+           if(logger.isDebugEnabled()) {
+               logger.debug("Updating in storage: " + key);
+           }
         }
 
-        // Write data to file (overwriting any previous data)
+        // Write key and data to file (overwriting any previous data)
         PrintWriter out = new PrintWriter(file);
+        out.print(key);
+        out.print('\n');
         out.print(value);
         out.close();
+        unsyncedFiles.add(file.getName());
+    }
+
+    /**
+     * Put several key-value pairs into storage. Each pair is its own file,
+     * so this saves nothing over separate puts beyond the calls.
+     */
+    @Override
+    public void putKVs(Map<String, String> entries) throws Exception {
+        for(Map.Entry<String, String> entry : entries.entrySet()) {
+            putKV(entry.getKey(), entry.getValue());
+        }
     }
 
     /**
@@ -99,7 +169,9 @@ public class Storage implements IStorage {
         if(!inStorage(key)) {
             throw new FileNotFoundException("Specified key not found");
         }
-        logger.info("Deleting from storage: " + key);
+        if(logger.isDebugEnabled()) {
+            logger.debug("Deleting from storage: " + key);
+        }
         File file = new File(rootDir, getMd5Hash(key));
         if(!file.delete()) {
             throw new FileSystemException("Unable to delete key");
@@ -122,6 +194,51 @@ public class Storage implements IStorage {
         }
     }
 
+    /**
+     * Force every change made so far out to the disk, so that it survives a
+     * crash of the machine
+     */
+    @Override
+    public void sync() throws Exception {
+        for(String fileName : unsyncedFiles) {
+            unsyncedFiles.remove(fileName);
+            File file = new File(rootDir, fileName);
+            if(!file.isFile()) {
+                // Deleted since
+                continue;
+            }
+            FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.WRITE);
+            try {
+                channel.force(true);
+            } finally {
+                channel.close();
+            }
+        }
+
+        // Make created and deleted files durable, where the platform allows
+        try {
+            FileChannel directory = FileChannel.open(
+                new File(rootDir).toPath(), StandardOpenOption.READ);
+            try {
+                directory.force(true);
+            } finally {
+                directory.close();
+            }
+        } catch(IOException e) {
+            logger.debug("Unable to sync storage directory", e);
+        }
+    }
+
+    /**
+     * Release any resources held by the storage, which must not be used
+     * afterwards
+     */
+    @Override
+    public void close() throws Exception {
+        // Nothing is held open between requests
+    }
+
     /**
      * Get the MD5 hash for a given string
      */
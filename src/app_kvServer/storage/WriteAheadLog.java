@@ -0,0 +1,129 @@
+package storage;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A single append-only file of LogRecords, synced to disk with group
+ * commit: a writer that needs its record to be durable waits for a sync
+ * covering it, and a single fsync covers every record appended before it
+ * started. While one sync runs, the writers arriving in the meantime queue
+ * up and are all covered by the next one.
+ */
+class WriteAheadLog {
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private File file;
+    private FileChannel channel;
+
+    // Guarded by this
+    private long appendedBytes;
+
+    private volatile long syncedBytes;
+    private final Object syncLock = new Object();
+
+    /**
+     * Opens (creating if necessary) the log in the given file
+     */
+    WriteAheadLog(File file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(),
+            StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+        this.appendedBytes = channel.size();
+        this.syncedBytes = appendedBytes;
+    }
+
+    /**
+     * Reads back every intact record in the log, oldest first. Reading stops
+     * at a torn or corrupt record, e.g. left behind by a crash mid-append.
+     */
+    List<LogRecord> readRecords() throws IOException {
+        List<LogRecord> records = new ArrayList<LogRecord>();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+            new FileInputStream(file), READ_BUFFER_SIZE));
+        try {
+            LogRecord record;
+            while((record = LogRecord.read(in)) != null) {
+                records.add(record);
+            }
+        } finally {
+            in.close();
+        }
+        return records;
+    }
+
+    /**
+     * Appends an encoded record to the end of the log, without syncing it
+     * @return the size of the log up to and including the record, to be
+     *      passed to sync()
+     */
+    synchronized long append(ByteBuffer record) throws IOException {
+        long position = appendedBytes;
+        while(record.hasRemaining()) {
+            position += channel.write(record, position);
+        }
+        appendedBytes = position;
+        return position;
+    }
+
+    /**
+     * @return the number of bytes appended to the log
+     */
+    synchronized long size() {
+        return appendedBytes;
+    }
+
+    /**
+     * Waits until the log is durable up to the given size, syncing it unless
+     * a sync by another thread already covers it
+     */
+    void sync(long size) throws IOException {
+        if(syncedBytes >= size) {
+            return;
+        }
+        synchronized(syncLock) {
+            if(syncedBytes >= size) {
+                return;
+            }
+            long target = size();
+            channel.force(false);
+            syncedBytes = target;
+        }
+    }
+
+    /**
+     * Syncs everything appended to the log so far
+     */
+    void sync() throws IOException {
+        sync(size());
+    }
+
+    /**
+     * Discards every record. The caller must ensure that no appends or
+     * syncs happen concurrently.
+     */
+    void reset() throws IOException {
+        synchronized(syncLock) {
+            synchronized(this) {
+                channel.truncate(0);
+                channel.force(true);
+                appendedBytes = 0;
+                syncedBytes = 0;
+            }
+        }
+    }
+
+    void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,163 @@
+package app_kvServerPerfTest;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import app_kvServer.KVServer;
+import app_kvServer.IKVServer.CacheStrategy;
+import app_kvServer.IKVServer.ConnectionMode;
+
+/**
+ * Measures how a server copes with a growing number of concurrently open
+ * client connections. The server runs in this process, so that the threads
+ * and heap it uses per connection can be observed directly.
+ */
+public class ConnectionScalingTest {
+
+	private static final int PORT = 4010;
+	private static final double NS_TO_MS = 1000000;
+	private static final double BYTES_TO_MB = 1024 * 1024;
+
+    /**
+     * Main entry point for the connection scaling benchmark.
+     * @param args contains the connection mode (one of: ThreadPerConnection,
+	 * VirtualThread, Reactor) at args[0] and the maximum number of open
+	 * connections at args[1]. Connections are opened in doubling steps up to
+	 * that count. After each step, every open connection makes one request,
+	 * and the live thread count, heap usage and average round trip time are
+	 * reported.
+     */
+    public static void main(String[] args) {
+		// Check argument count
+		if(args.length != 2) {
+			System.out.println("Error: Invalid number of arguments");
+			printUsage();
+			return;
+		}
+
+		// Parse arguments
+		ConnectionMode connectionMode;
+		int maxConnections;
+		try {
+			connectionMode = ConnectionMode.valueOf(args[0]);
+			maxConnections = Integer.parseInt(args[1]);
+		} catch(IllegalArgumentException e) {
+			// Includes NumberFormatException
+			System.out.println("Error: Invalid argument: " + e.getMessage());
+			printUsage();
+			return;
+		}
+
+		// Start server
+		final KVServer server = new KVServer(PORT, 1000, CacheStrategy.LRU);
+		server.setConnectionMode(connectionMode, 0);
+		Thread serverThread = new Thread() {
+			public void run() {
+				server.run();
+			}
+		};
+		serverThread.setDaemon(true);
+		serverThread.start();
+
+		List<Connection> connections = new ArrayList<Connection>();
+		try {
+			waitForServer();
+			ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+			Runtime runtime = Runtime.getRuntime();
+			System.out.println("connections\tthreads\theap (MB)\t" +
+				"round trip (ms)");
+			for(int n = 1; n <= maxConnections; n *= 2) {
+				while(connections.size() < n) {
+					connections.add(new Connection());
+				}
+
+				long startTime = System.nanoTime();
+				for(int i = 0; i < connections.size(); i++) {
+					connections.get(i).request("key" + i);
+				}
+				long elapsed = System.nanoTime() - startTime;
+
+				System.gc();
+				long usedHeap = runtime.totalMemory() - runtime.freeMemory();
+				System.out.println(n + "\t" + threads.getThreadCount() +
+					"\t" + Math.round(usedHeap / BYTES_TO_MB) + "\t" +
+					(elapsed / NS_TO_MS / n));
+			}
+		} catch(IOException e) {
+			System.out.println("Failed with " + connections.size() +
+				" open connections: " + e.getMessage());
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			for(Connection connection : connections) {
+				connection.close();
+			}
+			server.clearStorage();
+			server.close();
+		}
+    }
+
+	private static void waitForServer() throws InterruptedException {
+		for(int i = 0; i < 100; i++) {
+			try {
+				new Socket("localhost", PORT).close();
+				return;
+			} catch(IOException e) {
+				Thread.sleep(20);
+			}
+		}
+	}
+
+	private static void printUsage() {
+		System.out.println("Usage: ConnectionScalingTest " +
+			"<ThreadPerConnection|VirtualThread|Reactor> <max connections>");
+	}
+
+	/**
+	 * An open client connection making one request at a time
+	 */
+	private static class Connection {
+
+		private Socket socket;
+		private OutputStream output;
+		private BufferedReader input;
+
+		Connection() throws IOException {
+			socket = new Socket("localhost", PORT);
+			socket.setTcpNoDelay(true);
+			output = socket.getOutputStream();
+			input = new BufferedReader(
+				new InputStreamReader(socket.getInputStream()));
+		}
+
+		/**
+		 * Puts a key and waits for the complete response
+		 */
+		void request(String key) throws IOException {
+			output.write(("PUT\n" + key + "\nvalue\n\n").getBytes());
+			output.flush();
+			String line;
+			do {
+				line = input.readLine();
+				if(line == null) {
+					throw new IOException("Connection closed by server");
+				}
+			} while(!line.isEmpty());
+		}
+
+		void close() {
+			try {
+				socket.close();
+			} catch(IOException e) {
+				// Ignore
+			}
+		}
+	}
+}
@@ -14,20 +14,23 @@ import cached_storage.CachedStorage;
 public class KVServerPerfTest {
 
 	private static final double NS_TO_MS = 1000000;
+	private static final double NS_TO_S = 1000000000;
 
     /**
-     * Main entry point for the KV server application. 
-     * @param args contains the port number at args[0], cache size (# entries)
-	 * at args[1], and cache strategy (one of: None, LRU, LFU, FIFO) at args[2]
+     * Main entry point for the KV server application.
+     * @param args contains the cache size (# entries) at args[0], cache
+	 * strategy (one of: LRU, LFU, FIFO, CLOCK) at args[1], percent gets at
+	 * args[2], number of requests at args[3], number of unique keys at args[4],
+	 * and optionally the maximum number of client threads at args[5]. When a
+	 * thread count is given, the requests are repeated with 1, 2, 4, ... up to
+	 * that many threads, and the throughput of each run is reported.
      */
     public static void main(String[] args) {
     	try {
 			// Check argument count
-			if(args.length != 5) {
+			if(args.length != 5 && args.length != 6) {
 				System.out.println("Error: Invalid number of arguments");
-				System.out.println("Usage: ServerPerfTest <cache size> " +
-					"<cache strategy> <percent puts (100 = all puts)> " +
-					"<n requests to test> <n unique keys to use>");
+				printUsage();
 				return;
 			}
 
@@ -45,9 +48,12 @@ public class KVServerPerfTest {
 				case "FIFO":
 					cacheStrategy = CacheStrategy.FIFO;
 					break;
+				case "CLOCK":
+					cacheStrategy = CacheStrategy.CLOCK;
+					break;
 				default:
 					System.out.println("Error: Invalid cache strategy " +
-						"(should be one of LRU, LFU, or FIFO)");
+						"(should be one of LRU, LFU, FIFO, or CLOCK)");
 					return;
 			}
 
@@ -61,38 +67,17 @@ public class KVServerPerfTest {
 			// Create server
 			KVServer server = new KVServer(4000, cacheSize, cacheStrategy);
 
-			// Repeat for number of tests specified and record results
-			Random rand = new Random();
-			long[] elapsedPerRequest = new long[nRequestsToTest];
-			for(int i = 0; i < nRequestsToTest; i++) {
-				// Select a type of request to make
-				boolean doGet = rand.nextDouble() < getRequestsRatio;
-
-				// Select a random key to use
-				String key = "key" + rand.nextInt(nUniqueKeys);
-
-				// Make the request, timing it
-				long startTime = System.nanoTime();
-				if(doGet) {
-					try {
-						server.getKV(key);
-					} catch(Exception e) {
-						// Ignore
-					}
-				} else {
-					try {
-						server.putKV(key, "value");
-					} catch(Exception e) {
-						// Ignore
-					}
-				}
-				long endTime = System.nanoTime();
-
-				// Compute and save elapsed time
-				long elapsed = endTime - startTime;
-				elapsedPerRequest[i] = elapsed;
+			if(args.length == 6) {
+				int maxThreads = Integer.parseInt(args[5]);
+				runScaling(server, getRequestsRatio, nRequestsToTest,
+					nUniqueKeys, maxThreads);
+				return;
 			}
 
+			// Repeat for number of tests specified and record results
+			long[] elapsedPerRequest = runRequests(server, getRequestsRatio,
+				nRequestsToTest, nUniqueKeys);
+
 			// Compute statistics over all requests
 			long totalElapsed = 0;
 			long minElapsed = elapsedPerRequest[0];
@@ -109,10 +94,99 @@ public class KVServerPerfTest {
 
 		} catch (NumberFormatException e) {
 			System.out.println("Error: Invalid number in arguments");
-				System.out.println("Usage: ServerPerfTest <cache size> " +
-					"<cache strategy> <percent puts (100 = all puts)> " +
-					"<n requests to test> <n unique keys to use>");
+			printUsage();
 			System.exit(1);
 		}
     }
+
+	/**
+	 * Makes the given number of random requests against the server from the
+	 * calling thread
+	 * @return the time taken by each request in ns
+	 */
+	private static long[] runRequests(KVServer server, double getRequestsRatio,
+			int nRequests, int nUniqueKeys) {
+		Random rand = new Random();
+		long[] elapsedPerRequest = new long[nRequests];
+		for(int i = 0; i < nRequests; i++) {
+			// Select a type of request to make
+			boolean doGet = rand.nextDouble() < getRequestsRatio;
+
+			// Select a random key to use
+			String key = "key" + rand.nextInt(nUniqueKeys);
+
+			// Make the request, timing it
+			long startTime = System.nanoTime();
+			if(doGet) {
+				try {
+					server.getKV(key);
+				} catch(Exception e) {
+					// Ignore
+				}
+			} else {
+				try {
+					server.putKV(key, "value");
+				} catch(Exception e) {
+					// Ignore
+				}
+			}
+			long endTime = System.nanoTime();
+
+			// Compute and save elapsed time
+			long elapsed = endTime - startTime;
+			elapsedPerRequest[i] = elapsed;
+		}
+		return elapsedPerRequest;
+	}
+
+	/**
+	 * Splits the requests over an increasing number of threads, reporting
+	 * the overall throughput for each thread count
+	 */
+	private static void runScaling(final KVServer server,
+			final double getRequestsRatio, int nRequests,
+			final int nUniqueKeys, int maxThreads) {
+		// Warm up cache and storage so that every run starts alike
+		runRequests(server, getRequestsRatio, nRequests, nUniqueKeys);
+
+		System.out.println("Available cores: " +
+			Runtime.getRuntime().availableProcessors());
+		for(int nThreads = 1; nThreads <= maxThreads; nThreads *= 2) {
+			final int nRequestsPerThread = nRequests / nThreads;
+			Thread[] threads = new Thread[nThreads];
+			for(int i = 0; i < nThreads; i++) {
+				threads[i] = new Thread() {
+					public void run() {
+						runRequests(server, getRequestsRatio,
+							nRequestsPerThread, nUniqueKeys);
+					}
+				};
+			}
+
+			long startTime = System.nanoTime();
+			for(Thread thread : threads) {
+				thread.start();
+			}
+			for(Thread thread : threads) {
+				try {
+					thread.join();
+				} catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+			long elapsed = System.nanoTime() - startTime;
+
+			double throughput = nRequestsPerThread * nThreads /
+				(elapsed / NS_TO_S);
+			System.out.println(nThreads + " thread(s): " +
+				Math.round(throughput) + " requests/s");
+		}
+	}
+
+	private static void printUsage() {
+		System.out.println("Usage: ServerPerfTest <cache size> " +
+			"<cache strategy> <percent gets (100 = all gets)> " +
+			"<n requests to test> <n unique keys to use> [<max threads>]");
+	}
 }
@@ -0,0 +1,143 @@
+package app_kvServerPerfTest;
+
+import java.util.Random;
+
+/**
+ * Picks the keys requests are made for, following one of several access
+ * distributions over a fixed number of keys. Generators are immutable, so
+ * one may be shared by many threads, each passing its own Random.
+ */
+public abstract class KeyGenerator {
+
+	protected final int nKeys;
+
+	protected KeyGenerator(int nKeys) {
+		this.nKeys = nKeys;
+	}
+
+	/**
+	 * @return the index of the next key, between 0 and nKeys - 1
+	 */
+	public abstract int nextIndex(Random rand);
+
+	/**
+	 * @return the next key
+	 */
+	public String nextKey(Random rand) {
+		return "key" + nextIndex(rand);
+	}
+
+	/**
+	 * Creates a generator given its name and the number of keys
+	 * @param name one of uniform, zipfian or hotspot
+	 * @throws IllegalArgumentException if the name is unknown
+	 */
+	public static KeyGenerator create(String name, int nKeys) {
+		switch(name) {
+			case "uniform":
+				return new Uniform(nKeys);
+			case "zipfian":
+				return new Zipfian(nKeys, Zipfian.DEFAULT_THETA);
+			case "hotspot":
+				return new Hotspot(nKeys, Hotspot.DEFAULT_HOT_KEYS,
+					Hotspot.DEFAULT_HOT_REQUESTS);
+			default:
+				throw new IllegalArgumentException(
+					"Unknown key distribution: " + name);
+		}
+	}
+
+	/**
+	 * Every key is equally likely
+	 */
+	public static class Uniform extends KeyGenerator {
+
+		public Uniform(int nKeys) {
+			super(nKeys);
+		}
+
+		@Override
+		public int nextIndex(Random rand) {
+			return rand.nextInt(nKeys);
+		}
+	}
+
+	/**
+	 * The i-th most popular key is requested with a probability proportional
+	 * to 1 / i^theta, with key 0 the most popular. Uses the rejection-free
+	 * method of Gray et al., "Quickly Generating Billion-Record Synthetic
+	 * Databases", as YCSB does.
+	 */
+	public static class Zipfian extends KeyGenerator {
+
+		public static final double DEFAULT_THETA = 0.99;
+
+		private final double theta;
+		private final double alpha;
+		private final double zetaN;
+		private final double eta;
+
+		public Zipfian(int nKeys, double theta) {
+			super(nKeys);
+			this.theta = theta;
+			this.alpha = 1.0 / (1.0 - theta);
+			this.zetaN = zeta(nKeys, theta);
+			double zeta2 = zeta(2, theta);
+			this.eta = (1 - Math.pow(2.0 / nKeys, 1 - theta)) /
+				(1 - zeta2 / zetaN);
+		}
+
+		@Override
+		public int nextIndex(Random rand) {
+			double u = rand.nextDouble();
+			double uz = u * zetaN;
+			if(uz < 1.0) {
+				return 0;
+			}
+			if(uz < 1.0 + Math.pow(0.5, theta)) {
+				return Math.min(1, nKeys - 1);
+			}
+			int index = (int) (nKeys * Math.pow(eta * u - eta + 1, alpha));
+			return Math.min(index, nKeys - 1);
+		}
+
+		private static double zeta(int n, double theta) {
+			double sum = 0;
+			for(int i = 1; i <= n; i++) {
+				sum += 1 / Math.pow(i, theta);
+			}
+			return sum;
+		}
+	}
+
+	/**
+	 * A small fraction of the keys receives most of the requests, with keys
+	 * chosen uniformly within the hot and the cold set
+	 */
+	public static class Hotspot extends KeyGenerator {
+
+		public static final double DEFAULT_HOT_KEYS = 0.2;
+		public static final double DEFAULT_HOT_REQUESTS = 0.8;
+
+		private final int nHotKeys;
+		private final double hotRequests;
+
+		/**
+		 * @param hotKeys fraction of the keys that are hot
+		 * @param hotRequests fraction of the requests going to hot keys
+		 */
+		public Hotspot(int nKeys, double hotKeys, double hotRequests) {
+			super(nKeys);
+			this.nHotKeys = Math.max(1, (int) (nKeys * hotKeys));
+			this.hotRequests = hotRequests;
+		}
+
+		@Override
+		public int nextIndex(Random rand) {
+			if(nHotKeys >= nKeys || rand.nextDouble() < hotRequests) {
+				return rand.nextInt(nHotKeys);
+			}
+			return nHotKeys + rand.nextInt(nKeys - nHotKeys);
+		}
+	}
+}
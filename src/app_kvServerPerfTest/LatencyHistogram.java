@@ -0,0 +1,110 @@
+package app_kvServerPerfTest;
+
+/**
+ * Records latencies in the style of an HDR histogram: values are counted in
+ * buckets whose width grows with the value, so that every value is kept to
+ * within 1/64 (about 1.5%) of its size, from nanoseconds up to hours, in a
+ * fixed amount of memory. Not thread-safe; give each thread its own
+ * histogram and add() them together at the end.
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 6;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int LINEAR_LIMIT = 2 * SUB_BUCKETS;
+	private static final int N_BUCKETS =
+		LINEAR_LIMIT + (63 - SUB_BUCKET_BITS - 1) * SUB_BUCKETS;
+
+	private final long[] counts = new long[N_BUCKETS];
+	private long totalCount;
+	private long totalValue;
+	private long maxValue;
+
+	/**
+	 * Records one value
+	 * @param value the value to record (e.g. a latency in ns), at least 0
+	 */
+	public void record(long value) {
+		value = Math.max(value, 0);
+		counts[indexOf(value)]++;
+		totalCount++;
+		totalValue += value;
+		maxValue = Math.max(maxValue, value);
+	}
+
+	/**
+	 * Adds every value recorded by another histogram to this one
+	 */
+	public void add(LatencyHistogram other) {
+		for(int i = 0; i < N_BUCKETS; i++) {
+			counts[i] += other.counts[i];
+		}
+		totalCount += other.totalCount;
+		totalValue += other.totalValue;
+		maxValue = Math.max(maxValue, other.maxValue);
+	}
+
+	/**
+	 * @return the number of values recorded
+	 */
+	public long getCount() {
+		return totalCount;
+	}
+
+	/**
+	 * @return the largest value recorded
+	 */
+	public long getMax() {
+		return maxValue;
+	}
+
+	/**
+	 * @return the mean of the values recorded
+	 */
+	public double getMean() {
+		return totalCount == 0 ? 0 : (double) totalValue / totalCount;
+	}
+
+	/**
+	 * @param percentile between 0 and 100
+	 * @return the value that the given percentage of the recorded values
+	 *         does not exceed (up to the precision of the histogram)
+	 */
+	public long getPercentile(double percentile) {
+		if(totalCount == 0) {
+			return 0;
+		}
+		long rank = Math.max(1,
+			(long) Math.ceil(percentile / 100.0 * totalCount));
+		long seen = 0;
+		for(int i = 0; i < N_BUCKETS; i++) {
+			seen += counts[i];
+			if(seen >= rank) {
+				return Math.min(highestValueIn(i), maxValue);
+			}
+		}
+		return maxValue;
+	}
+
+	private static int indexOf(long value) {
+		if(value < LINEAR_LIMIT) {
+			return (int) value;
+		}
+		// Keep the top SUB_BUCKET_BITS + 1 bits of the value
+		int magnitude = 63 - Long.numberOfLeadingZeros(value);
+		int shift = magnitude - SUB_BUCKET_BITS;
+		int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+		return LINEAR_LIMIT + (magnitude - SUB_BUCKET_BITS - 1) * SUB_BUCKETS +
+			subBucket;
+	}
+
+	private static long highestValueIn(int index) {
+		if(index < LINEAR_LIMIT) {
+			return index;
+		}
+		int offset = index - LINEAR_LIMIT;
+		int shift = offset / SUB_BUCKETS + 1;
+		long subBucket = offset % SUB_BUCKETS + SUB_BUCKETS;
+		return ((subBucket + 1) << shift) - 1;
+	}
+}
@@ -0,0 +1,323 @@
+package app_kvServerPerfTest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import client.KVStore;
+import common.messages.KVMessage;
+import common.messages.KVMessageImpl;
+import common.messages.KVMessage.StatusType;
+
+/**
+ * Drives a running server over the network with a mix of gets and puts, and
+ * reports throughput and latency percentiles. Client threads share a number
+ * of connections, over which their requests are pipelined.
+ *
+ * Without a target rate, every thread sends its next request as soon as the
+ * previous one completes (closed loop). With a target rate, every thread
+ * sends requests on a fixed schedule regardless of how long responses take
+ * (open loop), and latency is measured from when a request was scheduled to
+ * be sent rather than when it actually was. Otherwise a server stall would
+ * also delay the requests queued behind it, and hide them from the
+ * measurement (coordinated omission). The service time, measured from the
+ * actual send, is reported alongside for comparison.
+ */
+public class LoadGenerator {
+
+	private static final double[] PERCENTILES = { 50, 90, 99, 99.9, 99.99 };
+
+	private String host;
+	private int port;
+	private int nThreads = 8;
+	private int nConnections = 8;
+	private int durationS = 30;
+	private int targetRate = 0;
+	private int percentGets = 90;
+	private int nKeys = 10000;
+	private String distribution = "uniform";
+	private int valueSize = 100;
+	private boolean binary = false;
+	private boolean load = true;
+
+    /**
+     * Main entry point for the load generator.
+     * @param args contains the server host at args[0] and port at args[1],
+	 * followed by any number of settings of the form name=value:
+	 *   threads       number of client threads (default 8)
+	 *   connections   number of connections shared by the threads (default 8)
+	 *   duration      length of the run in seconds (default 30)
+	 *   rate          target requests per second over all threads, or 0 to
+	 *                 send as fast as responses arrive (default 0)
+	 *   gets          percentage of requests that are gets (default 90)
+	 *   keys          number of distinct keys (default 10000)
+	 *   distribution  uniform, zipfian or hotspot (default uniform)
+	 *   value-size    size of the values put, in bytes (default 100)
+	 *   binary        whether to use the binary protocol (default false)
+	 *   load          whether to put every key before the run (default true)
+     */
+    public static void main(String[] args) {
+		if(args.length < 2) {
+			System.out.println("Error: Invalid number of arguments");
+			printUsage();
+			return;
+		}
+
+		LoadGenerator generator = new LoadGenerator();
+		try {
+			generator.host = args[0];
+			generator.port = Integer.parseInt(args[1]);
+			for(int i = 2; i < args.length; i++) {
+				generator.parseSetting(args[i]);
+			}
+			KeyGenerator.create(generator.distribution, generator.nKeys);
+		} catch(IllegalArgumentException e) {
+			// Includes NumberFormatException
+			System.out.println("Error: Invalid argument: " + e.getMessage());
+			printUsage();
+			return;
+		}
+
+		// The client library's logging is not wanted here
+		Logger.getRootLogger().setLevel(Level.OFF);
+		try {
+			generator.run();
+		} catch(Exception e) {
+			System.out.println("Error: " + e.getMessage());
+			e.printStackTrace();
+		}
+    }
+
+	private void parseSetting(String setting) {
+		String[] nameValue = PerfTools.splitSetting(setting);
+		String value = nameValue[1];
+		switch(nameValue[0]) {
+			case "threads":
+				nThreads = PerfTools.parsePositive(value);
+				break;
+			case "connections":
+				nConnections = PerfTools.parsePositive(value);
+				break;
+			case "duration":
+				durationS = PerfTools.parsePositive(value);
+				break;
+			case "rate":
+				targetRate = Integer.parseInt(value);
+				break;
+			case "gets":
+				percentGets = Integer.parseInt(value);
+				break;
+			case "keys":
+				nKeys = PerfTools.parsePositive(value);
+				break;
+			case "distribution":
+				distribution = value;
+				break;
+			case "value-size":
+				valueSize = PerfTools.parsePositive(value);
+				break;
+			case "binary":
+				binary = Boolean.parseBoolean(value);
+				break;
+			case "load":
+				load = Boolean.parseBoolean(value);
+				break;
+			default:
+				throw new IllegalArgumentException(setting);
+		}
+	}
+
+	private void run() throws Exception {
+		final KeyGenerator keys = KeyGenerator.create(distribution, nKeys);
+		final String value = PerfTools.makeValue(new Random(), valueSize);
+
+		final List<KVStore> stores = new ArrayList<KVStore>();
+		try {
+			for(int i = 0; i < nConnections; i++) {
+				KVStore store = new KVStore(host, port);
+				store.setBinaryProtocol(binary);
+				store.connect();
+				stores.add(store);
+			}
+
+			if(load) {
+				System.out.println("Loading " + nKeys + " keys");
+				loadKeys(stores, value);
+			}
+
+			System.out.println("Running for " + durationS + " s with " +
+				nThreads + " threads over " + nConnections + " connections, " +
+				(targetRate > 0 ? "target rate " + targetRate + "/s" :
+				"closed loop"));
+
+			final long startTime = System.nanoTime();
+			final long endTime =
+				startTime + durationS * (long) PerfTools.NS_TO_S;
+			final long intervalNs = targetRate > 0 ?
+				(long) (PerfTools.NS_TO_S * nThreads / targetRate) : 0;
+
+			List<Worker> workers = new ArrayList<Worker>();
+			for(int i = 0; i < nThreads; i++) {
+				Worker worker = new Worker(stores.get(i % nConnections), keys,
+					value, startTime + i * intervalNs / nThreads, endTime,
+					intervalNs);
+				worker.start();
+				workers.add(worker);
+			}
+
+			Stats total = new Stats();
+			for(Worker worker : workers) {
+				worker.join();
+				total.add(worker.stats);
+			}
+			double elapsed =
+				(System.nanoTime() - startTime) / PerfTools.NS_TO_S;
+			total.print(elapsed, targetRate > 0);
+		} finally {
+			for(KVStore store : stores) {
+				store.disconnect();
+			}
+		}
+	}
+
+	private void loadKeys(List<KVStore> stores, String value)
+			throws Exception {
+		final int batchSize = 64;
+		List<KVMessage> batch = new ArrayList<KVMessage>(batchSize);
+		for(int i = 0; i < nKeys; i++) {
+			batch.add(new KVMessageImpl("key" + i, value, StatusType.PUT));
+			if(batch.size() == batchSize || i == nKeys - 1) {
+				stores.get(i % stores.size()).pipeline(batch);
+				batch.clear();
+			}
+		}
+	}
+
+	private static void printUsage() {
+		System.out.println("Usage: LoadGenerator <host> <port> " +
+			"[threads=<n>] [connections=<n>] [duration=<s>] [rate=<n/s>] " +
+			"[gets=<percent>] [keys=<n>] " +
+			"[distribution=<uniform|zipfian|hotspot>] [value-size=<bytes>] " +
+			"[binary=<true|false>] [load=<true|false>]");
+	}
+
+	/**
+	 * Sends requests on one connection until the end of the run
+	 */
+	private class Worker extends Thread {
+
+		private final KVStore store;
+		private final KeyGenerator keys;
+		private final String value;
+		private final long firstSendTime;
+		private final long endTime;
+		private final long intervalNs;
+		private final Random rand = new Random();
+		final Stats stats = new Stats();
+
+		Worker(KVStore store, KeyGenerator keys, String value,
+				long firstSendTime, long endTime, long intervalNs) {
+			this.store = store;
+			this.keys = keys;
+			this.value = value;
+			this.firstSendTime = firstSendTime;
+			this.endTime = endTime;
+			this.intervalNs = intervalNs;
+		}
+
+		@Override
+		public void run() {
+			long intendedTime = firstSendTime;
+			while(true) {
+				long now = System.nanoTime();
+				if(intervalNs > 0) {
+					if(intendedTime >= endTime) {
+						break;
+					}
+					while(now < intendedTime) {
+						LockSupport.parkNanos(intendedTime - now);
+						now = System.nanoTime();
+					}
+				} else {
+					if(now >= endTime) {
+						break;
+					}
+					intendedTime = now;
+				}
+
+				boolean isGet = rand.nextInt(100) < percentGets;
+				String key = keys.nextKey(rand);
+
+				boolean failed;
+				try {
+					KVMessage response = isGet ? store.get(key) :
+						store.put(key, value);
+					failed = response.getStatus() == StatusType.PUT_ERROR;
+				} catch(Exception e) {
+					System.out.println("Request failed: " + e.getMessage());
+					failed = true;
+				}
+				long doneTime = System.nanoTime();
+
+				if(failed) {
+					stats.errors++;
+				} else if(isGet) {
+					stats.getLatency.record(doneTime - intendedTime);
+					stats.getServiceTime.record(doneTime - now);
+				} else {
+					stats.putLatency.record(doneTime - intendedTime);
+					stats.putServiceTime.record(doneTime - now);
+				}
+				if(failed && !store.isRunning()) {
+					break;
+				}
+				intendedTime += intervalNs;
+			}
+		}
+	}
+
+	/**
+	 * Latencies and errors seen by one or more threads
+	 */
+	private static class Stats {
+
+		final LatencyHistogram getLatency = new LatencyHistogram();
+		final LatencyHistogram putLatency = new LatencyHistogram();
+		final LatencyHistogram getServiceTime = new LatencyHistogram();
+		final LatencyHistogram putServiceTime = new LatencyHistogram();
+		long errors;
+
+		void add(Stats other) {
+			getLatency.add(other.getLatency);
+			putLatency.add(other.putLatency);
+			getServiceTime.add(other.getServiceTime);
+			putServiceTime.add(other.putServiceTime);
+			errors += other.errors;
+		}
+
+		void print(double elapsedS, boolean isOpenLoop) {
+			long requests = getLatency.getCount() + putLatency.getCount();
+			System.out.println("Requests: " + requests + ", errors: " +
+				errors + ", throughput: " + Math.round(requests / elapsedS) +
+				" requests/s");
+
+			System.out.println("\t\tcount\tmean" +
+				PerfTools.percentileHeadings(PERCENTILES) + "\tmax\t(ms)");
+			if(isOpenLoop) {
+				printRow("GET latency", getLatency);
+				printRow("PUT latency", putLatency);
+			}
+			printRow("GET service", getServiceTime);
+			printRow("PUT service", putServiceTime);
+		}
+
+		private static void printRow(String name, LatencyHistogram histogram) {
+			System.out.println(name + '\t' + histogram.getCount() +
+				PerfTools.latencyColumns(histogram, PERCENTILES));
+		}
+	}
+}
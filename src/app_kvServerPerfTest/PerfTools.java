@@ -0,0 +1,90 @@
+package app_kvServerPerfTest;
+
+import java.util.Random;
+
+/**
+ * Helpers shared by the load generating tools: parsing their name=value
+ * settings, making values to put, and printing latency tables.
+ */
+final class PerfTools {
+
+	static final double NS_TO_MS = 1000000;
+	static final double NS_TO_S = 1000000000;
+
+	private PerfTools() {
+	}
+
+	/**
+	 * Splits a setting of the form name=value
+	 * @return the name and the value
+	 * @throws IllegalArgumentException if the setting has no '='
+	 */
+	static String[] splitSetting(String setting) {
+		int split = setting.indexOf('=');
+		if(split < 0) {
+			throw new IllegalArgumentException(setting);
+		}
+		return new String[] {
+			setting.substring(0, split), setting.substring(split + 1)
+		};
+	}
+
+	/**
+	 * @throws IllegalArgumentException if value is not a positive integer
+	 */
+	static int parsePositive(String value) {
+		int n = Integer.parseInt(value);
+		if(n <= 0) {
+			throw new IllegalArgumentException(value);
+		}
+		return n;
+	}
+
+	/**
+	 * @return a string of size random lowercase letters
+	 */
+	static String makeValue(Random rand, int size) {
+		StringBuilder value = new StringBuilder(size);
+		for(int i = 0; i < size; i++) {
+			value.append((char) ('a' + rand.nextInt(26)));
+		}
+		return value.toString();
+	}
+
+	/**
+	 * @return a column heading per percentile, such as "\tp50\tp999" for the
+	 *         50th and 99.9th percentiles
+	 */
+	static String percentileHeadings(double[] percentiles) {
+		StringBuilder headings = new StringBuilder();
+		for(double percentile : percentiles) {
+			headings.append("\tp").append(percentile == (int) percentile ?
+				String.valueOf((int) percentile) :
+				String.valueOf(percentile).replace(".", ""));
+		}
+		return headings.toString();
+	}
+
+	/**
+	 * @return the mean, each percentile and the maximum of a histogram of
+	 *         nanoseconds, in milliseconds, each preceded by a tab
+	 */
+	static String latencyColumns(LatencyHistogram histogram,
+			double[] percentiles) {
+		StringBuilder columns = new StringBuilder();
+		columns.append('\t').append(formatMs(histogram.getMean()));
+		for(double percentile : percentiles) {
+			columns.append('\t').append(
+				formatMs(histogram.getPercentile(percentile)));
+		}
+		columns.append('\t').append(formatMs(histogram.getMax()));
+		return columns.toString();
+	}
+
+	/**
+	 * @return a time in nanoseconds as milliseconds to three decimals
+	 */
+	static String formatMs(double ns) {
+		return String.format("%.3f", ns / NS_TO_MS);
+	}
+}
@@ -0,0 +1,425 @@
+package app_kvServerPerfTest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+import client.KVStore;
+import common.messages.KVMessage;
+import common.messages.KVMessageImpl;
+import common.messages.KVMessage.StatusType;
+
+/**
+ * Runs the YCSB core workloads against a running server through KVStore,
+ * and reports throughput and latency percentiles per operation type:
+ *
+ *   A  update heavy       50% reads, 50% updates, Zipfian keys
+ *   B  read mostly        95% reads, 5% updates, Zipfian keys
+ *   C  read only          100% reads, Zipfian keys
+ *   D  read latest        95% reads, 5% inserts, recently inserted keys
+ *                         most popular
+ *   F  read-modify-write  50% reads, 50% read-modify-writes, Zipfian keys
+ *
+ * As in YCSB, records are first loaded and then the operations are run by
+ * threads that each send their next operation when the previous one has
+ * completed. Each thread has its own connection.
+ */
+public class YCSBRunner {
+
+	private static final double[] PERCENTILES = { 50, 95, 99, 99.9 };
+	private static final int LOAD_BATCH_SIZE = 64;
+
+	enum Workload {
+		A(0.5, 0.5, 0, 0, false),
+		B(0.95, 0.05, 0, 0, false),
+		C(1, 0, 0, 0, false),
+		D(0.95, 0, 0.05, 0, true),
+		F(0.5, 0, 0, 0.5, false);
+
+		final double readProportion;
+		final double updateProportion;
+		final double insertProportion;
+		final double readModifyWriteProportion;
+		final boolean readLatest;
+
+		Workload(double readProportion, double updateProportion,
+				double insertProportion, double readModifyWriteProportion,
+				boolean readLatest) {
+			this.readProportion = readProportion;
+			this.updateProportion = updateProportion;
+			this.insertProportion = insertProportion;
+			this.readModifyWriteProportion = readModifyWriteProportion;
+			this.readLatest = readLatest;
+		}
+
+		Operation nextOperation(Random rand) {
+			double p = rand.nextDouble();
+			if((p -= readProportion) < 0) {
+				return Operation.READ;
+			}
+			if((p -= updateProportion) < 0) {
+				return Operation.UPDATE;
+			}
+			if((p -= insertProportion) < 0) {
+				return Operation.INSERT;
+			}
+			return readModifyWriteProportion > 0 ?
+				Operation.READ_MODIFY_WRITE : Operation.READ;
+		}
+	}
+
+	enum Operation {
+		READ, UPDATE, INSERT, READ_MODIFY_WRITE
+	}
+
+	private String host;
+	private int port;
+	private Workload workload;
+	private int nRecords = 100000;
+	private int nOperations = 1000000;
+	private int nThreads = 8;
+	private int valueSize = 1000;
+	private boolean binary = false;
+	private boolean load = true;
+
+	private KeyGenerator.Zipfian keys;
+
+	// Index of the next key to insert, and the highest inserted index + 1
+	private AtomicInteger nextInsert;
+	private AtomicInteger nInserted;
+
+    /**
+     * Main entry point for the YCSB workload runner.
+     * @param args contains the server host at args[0], port at args[1] and
+	 * workload (one of: A, B, C, D, F) at args[2], followed by any number of
+	 * settings of the form name=value:
+	 *   records     number of records loaded (default 100000)
+	 *   operations  number of operations run over all threads (default
+	 *               1000000)
+	 *   threads     number of client threads (default 8)
+	 *   value-size  size of the values, in bytes (default 1000)
+	 *   binary      whether to use the binary protocol (default false)
+	 *   load        whether to load the records first (default true); can
+	 *               be turned off to run another workload on the same records
+     */
+    public static void main(String[] args) {
+		if(args.length < 3) {
+			System.out.println("Error: Invalid number of arguments");
+			printUsage();
+			return;
+		}
+
+		YCSBRunner runner = new YCSBRunner();
+		try {
+			runner.host = args[0];
+			runner.port = Integer.parseInt(args[1]);
+			runner.workload = Workload.valueOf(args[2]);
+			for(int i = 3; i < args.length; i++) {
+				runner.parseSetting(args[i]);
+			}
+		} catch(IllegalArgumentException e) {
+			// Includes NumberFormatException
+			System.out.println("Error: Invalid argument: " + e.getMessage());
+			printUsage();
+			return;
+		}
+
+		// The client library's logging is not wanted here
+		Logger.getRootLogger().setLevel(Level.OFF);
+		try {
+			runner.run();
+		} catch(Exception e) {
+			System.out.println("Error: " + e.getMessage());
+			e.printStackTrace();
+		}
+    }
+
+	private void parseSetting(String setting) {
+		String[] nameValue = PerfTools.splitSetting(setting);
+		String value = nameValue[1];
+		switch(nameValue[0]) {
+			case "records":
+				nRecords = PerfTools.parsePositive(value);
+				break;
+			case "operations":
+				nOperations = PerfTools.parsePositive(value);
+				break;
+			case "threads":
+				nThreads = PerfTools.parsePositive(value);
+				break;
+			case "value-size":
+				valueSize = PerfTools.parsePositive(value);
+				break;
+			case "binary":
+				binary = Boolean.parseBoolean(value);
+				break;
+			case "load":
+				load = Boolean.parseBoolean(value);
+				break;
+			default:
+				throw new IllegalArgumentException(setting);
+		}
+	}
+
+	private void run() throws Exception {
+		keys = new KeyGenerator.Zipfian(nRecords,
+			KeyGenerator.Zipfian.DEFAULT_THETA);
+		nextInsert = new AtomicInteger(nRecords);
+		nInserted = new AtomicInteger(nRecords);
+
+		List<KVStore> stores = new ArrayList<KVStore>();
+		try {
+			for(int i = 0; i < nThreads; i++) {
+				KVStore store = new KVStore(host, port);
+				store.setBinaryProtocol(binary);
+				store.connect();
+				stores.add(store);
+			}
+
+			if(load) {
+				System.out.println("Loading " + nRecords + " records");
+				long startTime = System.nanoTime();
+				loadRecords(stores);
+				double elapsed =
+					(System.nanoTime() - startTime) / PerfTools.NS_TO_S;
+				System.out.println("Loaded in " +
+					String.format("%.1f", elapsed) + " s");
+			}
+
+			System.out.println("Running workload " + workload + ": " +
+				nOperations + " operations with " + nThreads + " threads");
+			long startTime = System.nanoTime();
+			List<Worker> workers = new ArrayList<Worker>();
+			for(int i = 0; i < nThreads; i++) {
+				int share = nOperations / nThreads +
+					(i < nOperations % nThreads ? 1 : 0);
+				Worker worker = new Worker(stores.get(i), share);
+				worker.start();
+				workers.add(worker);
+			}
+
+			Stats total = new Stats();
+			for(Worker worker : workers) {
+				worker.join();
+				total.add(worker.stats);
+			}
+			double elapsed =
+				(System.nanoTime() - startTime) / PerfTools.NS_TO_S;
+			total.print(elapsed);
+		} finally {
+			for(KVStore store : stores) {
+				store.disconnect();
+			}
+		}
+	}
+
+	/**
+	 * Puts every record, each thread loading an equal share in pipelined
+	 * batches
+	 */
+	private void loadRecords(final List<KVStore> stores) throws Exception {
+		final String value = PerfTools.makeValue(new Random(), valueSize);
+		final Exception[] failure = new Exception[1];
+		List<Thread> loaders = new ArrayList<Thread>();
+		for(int i = 0; i < stores.size(); i++) {
+			final KVStore store = stores.get(i);
+			final int first = i;
+			Thread loader = new Thread() {
+				public void run() {
+					List<KVMessage> batch =
+						new ArrayList<KVMessage>(LOAD_BATCH_SIZE);
+					try {
+						for(int k = first; k < nRecords; k += stores.size()) {
+							batch.add(new KVMessageImpl(key(k), value,
+								StatusType.PUT));
+							if(batch.size() == LOAD_BATCH_SIZE) {
+								store.pipeline(batch);
+								batch.clear();
+							}
+						}
+						if(!batch.isEmpty()) {
+							store.pipeline(batch);
+						}
+					} catch(Exception e) {
+						synchronized(failure) {
+							failure[0] = e;
+						}
+					}
+				}
+			};
+			loader.start();
+			loaders.add(loader);
+		}
+		for(Thread loader : loaders) {
+			loader.join();
+		}
+		synchronized(failure) {
+			if(failure[0] != null) {
+				throw failure[0];
+			}
+		}
+	}
+
+	private static String key(int index) {
+		return "key" + index;
+	}
+
+	private static boolean isError(KVMessage response) {
+		switch(response.getStatus()) {
+			case GET_ERROR:
+			case PUT_ERROR:
+			case DELETE_ERROR:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	private static void printUsage() {
+		System.out.println("Usage: YCSBRunner <host> <port> <A|B|C|D|F> " +
+			"[records=<n>] [operations=<n>] [threads=<n>] " +
+			"[value-size=<bytes>] [binary=<true|false>] [load=<true|false>]");
+	}
+
+	/**
+	 * Runs a number of operations on one connection
+	 */
+	private class Worker extends Thread {
+
+		private final KVStore store;
+		private final int nOperations;
+		private final Random rand = new Random();
+		private final String value;
+		final Stats stats = new Stats();
+
+		Worker(KVStore store, int nOperations) {
+			this.store = store;
+			this.nOperations = nOperations;
+			this.value = PerfTools.makeValue(rand, valueSize);
+		}
+
+		@Override
+		public void run() {
+			for(int i = 0; i < nOperations; i++) {
+				Operation operation = workload.nextOperation(rand);
+				long startTime = System.nanoTime();
+				boolean failed;
+				try {
+					failed = perform(operation);
+				} catch(Exception e) {
+					System.out.println("Operation failed: " + e.getMessage());
+					failed = true;
+				}
+				long elapsed = System.nanoTime() - startTime;
+
+				if(failed) {
+					stats.errors[operation.ordinal()]++;
+					if(!store.isRunning()) {
+						return;
+					}
+				} else {
+					stats.latencies[operation.ordinal()].record(elapsed);
+				}
+			}
+		}
+
+		/**
+		 * @return whether the server reported an error
+		 */
+		private boolean perform(Operation operation) throws Exception {
+			switch(operation) {
+				case READ:
+					return isError(store.get(nextKey()));
+				case UPDATE:
+					return isError(store.put(nextKey(), value));
+				case INSERT:
+					int index = nextInsert.getAndIncrement();
+					boolean failed = isError(store.put(key(index), value));
+					if(!failed) {
+						nInserted.accumulateAndGet(index + 1, Math::max);
+					}
+					return failed;
+				case READ_MODIFY_WRITE:
+					String key = nextKey();
+					KVMessage response = store.get(key);
+					if(isError(response)) {
+						return true;
+					}
+					return isError(store.put(key, modify(response.getValue())));
+				default:
+					return true;
+			}
+		}
+
+		private String nextKey() {
+			int index = keys.nextIndex(rand);
+			if(workload.readLatest) {
+				index = Math.max(nInserted.get() - 1 - index, 0);
+			}
+			return key(index);
+		}
+
+		/**
+		 * Changes one character of the value, keeping its size
+		 */
+		private String modify(String value) {
+			if(value == null || value.isEmpty()) {
+				return this.value;
+			}
+			char[] chars = value.toCharArray();
+			chars[rand.nextInt(chars.length)] = (char) ('a' + rand.nextInt(26));
+			return new String(chars);
+		}
+	}
+
+	/**
+	 * Latencies and errors per operation type seen by one or more threads
+	 */
+	private static class Stats {
+
+		final LatencyHistogram[] latencies =
+			new LatencyHistogram[Operation.values().length];
+		final long[] errors = new long[Operation.values().length];
+
+		Stats() {
+			for(int i = 0; i < latencies.length; i++) {
+				latencies[i] = new LatencyHistogram();
+			}
+		}
+
+		void add(Stats other) {
+			for(int i = 0; i < latencies.length; i++) {
+				latencies[i].add(other.latencies[i]);
+				errors[i] += other.errors[i];
+			}
+		}
+
+		void print(double elapsedS) {
+			long operations = 0;
+			for(int i = 0; i < latencies.length; i++) {
+				operations += latencies[i].getCount() + errors[i];
+			}
+			System.out.println("Operations: " + operations + ", throughput: " +
+				Math.round(operations / elapsedS) + " operations/s");
+
+			System.out.println(String.format("%-18s", "operation") +
+				"count\terrors\tmean" +
+				PerfTools.percentileHeadings(PERCENTILES) + "\tmax\t(ms)");
+
+			for(Operation operation : Operation.values()) {
+				LatencyHistogram histogram = latencies[operation.ordinal()];
+				long nErrors = errors[operation.ordinal()];
+				if(histogram.getCount() == 0 && nErrors == 0) {
+					continue;
+				}
+				System.out.println(String.format("%-18s", operation) +
+					histogram.getCount() + '\t' + nErrors +
+					PerfTools.latencyColumns(histogram, PERCENTILES));
+			}
+		}
+	}
+}
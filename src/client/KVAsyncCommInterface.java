@@ -0,0 +1,41 @@
+package client;
+
+import java.util.concurrent.CompletableFuture;
+
+import common.messages.KVMessage;
+
+public interface KVAsyncCommInterface extends KVCommInterface {
+
+	/**
+	 * Sends a request to insert, update or delete a key-value pair without
+	 * waiting for the response. Blocks while too many requests are already
+	 * awaiting a response.
+	 *
+	 * @param key
+	 *            the key that identifies the given value.
+	 * @param value
+	 *            the value that is indexed by the given key, or null to
+	 *            delete the key.
+	 * @return a future completed with the server's response, or completed
+	 *         exceptionally if the request could not be sent or the
+	 *         connection is lost first. Dependent actions run on the thread
+	 *         receiving responses, and must not wait for other responses on
+	 *         the same connection.
+	 */
+	public CompletableFuture<KVMessage> putAsync(String key, String value);
+
+	/**
+	 * Sends a request to retrieve the value for a given key without waiting
+	 * for the response. Blocks while too many requests are already awaiting
+	 * a response.
+	 *
+	 * @param key
+	 *            the key that identifies the value.
+	 * @return a future completed with the server's response, or completed
+	 *         exceptionally if the request could not be sent or the
+	 *         connection is lost first. Dependent actions run on the thread
+	 *         receiving responses, and must not wait for other responses on
+	 *         the same connection.
+	 */
+	public CompletableFuture<KVMessage> getAsync(String key);
+}
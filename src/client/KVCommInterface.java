@@ -1,5 +1,9 @@
 package client;
 
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
 import common.messages.KVMessage;
 
 public interface KVCommInterface {
@@ -27,7 +31,7 @@ public interface KVCommInterface {
 	 * @return a message that confirms the insertion of the tuple or an error.
 	 * @throws Exception
 	 *             if put command cannot be executed (e.g. not connected to any
-	 *             KV server).
+	 *             KV server), or no response arrives in time.
 	 */
 	public KVMessage put(String key, String value) throws Exception;
 
@@ -38,8 +42,82 @@ public interface KVCommInterface {
 	 *            the key that identifies the value.
 	 * @return the value, which is indexed by the given key.
 	 * @throws Exception
-	 *             if put command cannot be executed (e.g. not connected to any
-	 *             KV server).
+	 *             if get command cannot be executed (e.g. not connected to any
+	 *             KV server), or no response arrives in time.
 	 */
 	public KVMessage get(String key) throws Exception;
+
+	/**
+	 * Retrieves the values for several keys from the KVServer at once.
+	 *
+	 * @param keys
+	 *            the keys that identify the values.
+	 * @return a GET_SUCCESS or GET_ERROR response for each key, in the order
+	 *         of the keys.
+	 * @throws Exception
+	 *             if the command cannot be executed (e.g. not connected to
+	 *             any KV server), or no response arrives in time.
+	 */
+	public List<KVMessage> multiGet(List<String> keys) throws Exception;
+
+	/**
+	 * Inserts several key-value pairs into the KVServer at once. The pairs
+	 * either all succeed or all fail, and cannot delete keys.
+	 *
+	 * @param entries
+	 *            the keys with the values to index by them, none null.
+	 * @return a PUT_SUCCESS, PUT_UPDATE or PUT_ERROR response for each pair,
+	 *         in the iteration order of the entries.
+	 * @throws Exception
+	 *             if the command cannot be executed (e.g. not connected to
+	 *             any KV server), or no response arrives in time.
+	 */
+	public List<KVMessage> multiPut(Map<String, String> entries)
+			throws Exception;
+
+	/**
+	 * Retrieves one page of the keys in a range from the KVServer, in
+	 * ascending order.
+	 *
+	 * @param startKey
+	 *            the first key of the range, included. Cannot be empty.
+	 * @param endKey
+	 *            the key the range stops at, excluded, or null for no end.
+	 *            Cannot be empty.
+	 * @param limit
+	 *            the maximum number of keys to return, at most
+	 *            KVBatchMessage.MAX_SIZE. Fewer keys are only returned when
+	 *            the range holds no more.
+	 * @return a GET_SUCCESS response for each key found.
+	 * @throws Exception
+	 *             if the command cannot be executed (e.g. not connected to
+	 *             any KV server), or no response arrives in time.
+	 */
+	public List<KVMessage> scan(String startKey, String endKey, int limit)
+			throws Exception;
+
+	/**
+	 * Iterates over every key in a range, in ascending order, fetching them
+	 * from the KVServer a page at a time.
+	 *
+	 * @param startKey
+	 *            the first key of the range, included, or an empty key to
+	 *            start at the first key stored.
+	 * @param endKey
+	 *            the key the range stops at, excluded, or null for no end.
+	 * @return a GET_SUCCESS response for each key. Failures to fetch a page
+	 *         are thrown as IllegalStateException.
+	 */
+	public Iterator<KVMessage> scan(String startKey, String endKey);
+
+	/**
+	 * Iterates over every key starting with a prefix, in ascending order,
+	 * fetching them from the KVServer a page at a time.
+	 *
+	 * @param prefix
+	 *            the prefix of the keys, or an empty prefix for every key.
+	 * @return a GET_SUCCESS response for each key. Failures to fetch a page
+	 *         are thrown as IllegalStateException.
+	 */
+	public Iterator<KVMessage> prefix(String prefix);
 }
@@ -0,0 +1,101 @@
+package client;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import common.messages.KVBatchMessage;
+import common.messages.KVMessage;
+
+/**
+ * Iterates over the keys in a range, in ascending order, fetching them from
+ * the server one page at a time so that the range never has to be held in
+ * memory at once. Each page starts just after the last key of the previous
+ * one, so keys put or deleted while iterating may or may not be seen.
+ * A page that cannot be fetched is reported as an IllegalStateException,
+ * since an Iterator cannot throw checked exceptions.
+ */
+class KVScanIterator implements Iterator<KVMessage> {
+
+	public static final int DEFAULT_PAGE_SIZE = 100;
+
+	// The smallest key a range can start at, since keys are never empty
+	private static final String FIRST_KEY = "\0";
+
+	private final KVCommInterface store;
+	private final String endKey;
+	private final int pageSize;
+	private String nextStartKey;
+	private Iterator<KVMessage> page;
+	private boolean isLastPage;
+
+	/**
+	 * @param store the connection to fetch pages over
+	 * @param startKey the first key of the range, included, or an empty key
+	 *           to start at the first key stored
+	 * @param endKey the key the range stops at, excluded, or null for no end
+	 * @param pageSize the number of keys to fetch at once, at most
+	 *           KVBatchMessage.MAX_SIZE
+	 */
+	KVScanIterator(KVCommInterface store, String startKey, String endKey,
+			int pageSize) {
+		if(pageSize < 1 || pageSize > KVBatchMessage.MAX_SIZE) {
+			throw new IllegalArgumentException("Invalid page size: " +
+				pageSize);
+		}
+		this.store = store;
+		this.nextStartKey = startKey.isEmpty() ? FIRST_KEY : startKey;
+		this.endKey = endKey;
+		this.pageSize = pageSize;
+	}
+
+	@Override
+	public boolean hasNext() {
+		while((page == null || !page.hasNext()) && !isLastPage) {
+			fetchPage();
+		}
+		return page.hasNext();
+	}
+
+	@Override
+	public KVMessage next() {
+		if(!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		return page.next();
+	}
+
+	private void fetchPage() {
+		List<KVMessage> entries;
+		try {
+			entries = store.scan(nextStartKey, endKey, pageSize);
+		} catch(Exception e) {
+			throw new IllegalStateException("Unable to fetch keys from " +
+				nextStartKey + ": " + e.getMessage(), e);
+		}
+		// The server only returns a short page at the end of the range
+		isLastPage = entries.size() < pageSize;
+		if(!entries.isEmpty()) {
+			// The smallest key greater than the last one
+			nextStartKey = entries.get(entries.size() - 1).getKey() + '\0';
+		}
+		page = entries.iterator();
+	}
+
+	/**
+	 * Get the end of the range holding exactly the keys with a prefix
+	 * @return the smallest key greater than every key with the prefix, or
+	 *         null if there is none
+	 */
+	static String prefixEnd(String prefix) {
+		int end = prefix.length();
+		while(end > 0 && prefix.charAt(end - 1) == Character.MAX_VALUE) {
+			end--;
+		}
+		if(end == 0) {
+			return null;
+		}
+		return prefix.substring(0, end - 1) +
+			(char) (prefix.charAt(end - 1) + 1);
+	}
+}
@@ -1,66 +1,106 @@
 package client;
 
 import java.io.IOException;
-import java.net.UnknownHostException;
-import java.io.FileNotFoundException;
 
 import java.net.Socket;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
 import java.io.OutputStream;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.BufferedReader;
-
-import java.util.HashSet;
-import java.util.Set;
+import java.nio.charset.StandardCharsets;
+
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.apache.log4j.Logger;
 
+import common.messages.KVBatchMessage;
 import common.messages.KVMessage;
 import common.messages.KVMessageImpl;
+import common.messages.KVScanMessage;
 import common.messages.KVMessage.StatusType;
+import serialization.BinaryFrameReader;
+import serialization.BinarySerialization;
 import serialization.Serialization;
 
-import common.messages.KVMessage;
-import common.messages.KVMessageImpl;
-import serialization.Serialization;
-import org.apache.log4j.Logger;
-import app_kvClient.KVClient;
 
+/**
+ * Client side of a connection to a KVServer. Requests may be pipelined:
+ * several can be sent back to back without waiting for their responses.
+ * The server answers the requests of a connection in the order they were
+ * sent, so responses are matched to requests by their position in a queue
+ * of outstanding requests, which a reader thread works through. put() and
+ * get() wait for their own response, up to a timeout, while putAsync() and
+ * getAsync() return as soon as the request is sent, so that many requests
+ * can be outstanding on one connection. At most maxPipelined requests are
+ * outstanding at a time; further requests wait for a response first.
+ */
+public class KVStore implements KVAsyncCommInterface, Runnable {
 
-public class KVStore extends Thread implements KVCommInterface {
 	/**
-	 * Initialize KVStore with address and port of KVServer
-	 * @param address the address of the KVServer
-	 * @param port the port of the KVServer
+	 * Default maximum number of requests awaiting a response
 	 */
+	public static final int DEFAULT_MAX_PIPELINED = 64;
 
-	private static final String PROMPT = "KVClient>>> ";
+	/**
+	 * Default time to wait for a response, in milliseconds
+	 */
+	public static final long DEFAULT_TIMEOUT_MS = 10000;
 
-	private Logger logger = Logger.getRootLogger();	
-	KVClient listener = null;
+	private Logger logger = Logger.getRootLogger();
 	private OutputStream output;
  	private InputStream input;
  	private Socket socket;
+ 	private Thread reader;
 
  	private String serverAddress;
  	private int serverPort;
-	private boolean running;
-	
-	private static final int BUFFER_SIZE = 1024;
-	private static final int DROP_SIZE = 1024 * BUFFER_SIZE;
-	private static final int MAX_REQUEST_LINES = 1024;
+	private volatile boolean running;
+	private boolean useBinaryProtocol;
+	private volatile long timeoutMs = DEFAULT_TIMEOUT_MS;
 
+	// Outstanding requests in the order they were sent
+	private final Queue<CompletableFuture<KVMessage>> pending;
+	private final Semaphore window;
+	private final Object sendLock = new Object();
 
+	private static final int MAX_REQUEST_LINES =
+		Serialization.MAX_MESSAGE_LINES;
+
+
+	/**
+	 * Initialize KVStore with address and port of KVServer
+	 * @param address the address of the KVServer
+	 * @param port the port of the KVServer
+	 */
 	public KVStore(String address, int port) {
-		// TODO Auto-generated method stub
- 		try {
+		this(address, port, DEFAULT_MAX_PIPELINED);
+	}
+
+	/**
+	 * Initialize KVStore with address and port of KVServer
+	 * @param address the address of the KVServer
+	 * @param port the port of the KVServer
+	 * @param maxPipelined maximum number of requests sent without having
+	 *           received their response yet
+	 */
+	public KVStore(String address, int port, int maxPipelined) {
 		this.serverAddress = address;
 		this.serverPort = port;
-		setRunning(true);
- 		} catch (Exception e) {
-			logger.info("Unable to create KVStore for address: " + address + " port: " + port );
- 		}
-
+		this.pending = new ConcurrentLinkedQueue<CompletableFuture<KVMessage>>();
+		this.window = new Semaphore(maxPipelined);
 	}
 
 	public boolean isRunning(){
@@ -71,116 +111,261 @@ public class KVStore extends Thread implements KVCommInterface {
 		this.running = run;
 	}
 
-	public void addListener(KVClient listener){
-		this.listener = listener;
+	/**
+	 * Set how long put(), get() and pipeline() wait for responses
+	 * @param timeoutMs time in milliseconds, or 0 to wait indefinitely
+	 */
+	public void setTimeout(long timeoutMs) {
+		this.timeoutMs = timeoutMs;
 	}
 
+	/**
+	 * Select the wire protocol to use, before calling connect(). The binary
+	 * protocol is cheaper to parse and allows newlines in values; the text
+	 * protocol is used by default.
+	 * @param useBinaryProtocol whether to use the binary protocol
+	 */
+	public void setBinaryProtocol(boolean useBinaryProtocol) {
+		this.useBinaryProtocol = useBinaryProtocol;
+	}
+
+	/**
+	 * Reads responses until the connection is closed. Started by connect().
+	 */
 	public void run(){
-		while(isRunning()){
-			try {
-				handleRequests();
-			} catch(IOException e) {
-				logger.info("Connection to client lost");
-				setRunning(false);
+		try {
+			if(useBinaryProtocol) {
+				handleBinaryResponses();
+			} else {
+				handleResponses();
+			}
+		} catch(IOException e) {
+			if(isRunning()) {
+				logger.info("Connection to server lost");
 			}
-
 		}
+		setRunning(false);
+		failPending(new IOException("Connection to server closed"));
 	}
 
-	private void handleRequests() throws IOException {
+	private void handleResponses() throws IOException {
 		BufferedReader inStream =
-			new BufferedReader(new InputStreamReader(input));
-		
-		String lines[] = new String[MAX_REQUEST_LINES];
-		int i = 0;
+			new BufferedReader(new InputStreamReader(input,
+				StandardCharsets.UTF_8));
+
+		List<String> lines = new ArrayList<String>();
 		String line = null;
 		while((line = inStream.readLine()) != null) {
 			if(line.isEmpty()) {
-				String actualLines[] = new String[i];
-				for(int j = 0; j < i; j++) {
-					actualLines[j] = lines[j];
-				}
-				handleRequest(actualLines);
-				i = 0;
+				handleResponse(lines.toArray(new String[lines.size()]));
+				lines.clear();
+			} else if(lines.size() < MAX_REQUEST_LINES) {
+				lines.add(line);
 			} else {
-				lines[i] = line;
-				i++;
+				throw new IOException("Too many lines in response");
 			}
 		}
 	}
 
+	private void handleBinaryResponses() throws IOException {
+		BinaryFrameReader frames = new BinaryFrameReader(input);
+		KVMessage response;
+		while((response = frames.read()) != null) {
+			handleResponse(response);
+		}
+	}
+
 	/**
-	 * Handles a single request, provided as a list of lines
-	 * @param lines the lines in the request (excluding trailing empty line)
+	 * Handles a single response, provided as a list of lines
+	 * @param lines the lines in the response (excluding trailing empty line)
 	 */
-	private void handleRequest(String[] lines) {
-		// Attempt to unserialize request from string into KVMessage
-		KVMessage request;
+	private void handleResponse(String[] lines) throws IOException {
+		// Attempt to unserialize response from string into KVMessage
+		KVMessage response;
 		try {
-			request = Serialization.unserialize(lines);
+			response = Serialization.unserialize(lines);
 		} catch(IllegalArgumentException e) {
-			logger.info("Unable to unserialize request: " + e.getMessage());
-			KVMessage response = new KVMessageImpl(null,
-				"Invalid request", StatusType.GET_ERROR);
-			// sendResponse(response);
+			logger.info("Unable to unserialize response: " + e.getMessage());
+			nextPending().completeExceptionally(e);
 			return;
 		}
+		handleResponse(response);
+	}
+
+	/**
+	 * Handles a single response by completing the oldest outstanding request
+	 * with it
+	 */
+	private void handleResponse(KVMessage response) throws IOException {
+		nextPending().complete(response);
+	}
+
+	private CompletableFuture<KVMessage> nextPending() throws IOException {
+		CompletableFuture<KVMessage> request = pending.poll();
+		if(request == null) {
+			throw new IOException("Received response without a request");
+		}
+		window.release();
+		return request;
+	}
+
+	private void failPending(Exception cause) {
+		CompletableFuture<KVMessage> request;
+		while((request = pending.poll()) != null) {
+			window.release();
+			request.completeExceptionally(cause);
+		}
+	}
+
+	/**
+	 * Sends a request without waiting for its response. Blocks while the
+	 * maximum number of requests is already outstanding.
+	 * @param request the request to send
+	 * @param flush whether to push the request onto the network right away,
+	 *           rather than letting it be sent along with later requests
+	 * @return future completed with the response
+	 */
+	private CompletableFuture<KVMessage> send(KVMessage request, boolean flush)
+			throws IOException, InterruptedException {
+		byte[] bytes = useBinaryProtocol ?
+			BinarySerialization.serialize(request) :
+			Serialization.serialize(request).getBytes(StandardCharsets.UTF_8);
+		if(!window.tryAcquire()) {
+			// Buffered requests may be what the server's responses wait for
+			flush();
+			window.acquire();
+		}
+
+		CompletableFuture<KVMessage> response =
+			new CompletableFuture<KVMessage>();
+		synchronized(sendLock) {
+			pending.add(response);
+			if(!isRunning()) {
+				// The reader may have given up on pending requests already
+				failPending(new IOException("Not connected to server"));
+				throw new IOException("Not connected to server");
+			}
+			try {
+				output.write(bytes);
+				if(flush) {
+					output.flush();
+				}
+			} catch(IOException e) {
+				// The reader fails the request once the socket is closed
+				disconnect();
+				throw e;
+			}
+		}
+		return response;
+	}
+
+	private void flush() throws IOException {
+		synchronized(sendLock) {
+			if(isRunning()) {
+				output.flush();
+			}
+		}
+	}
+
+	/**
+	 * Sends the given requests back to back over the connection, without
+	 * waiting for a response between them, and collects their responses.
+	 * @param requests GET, PUT, MGET and MPUT requests to send
+	 * @return the responses, in the order of the requests
+	 * @throws Exception if the requests could not be sent or the connection
+	 *           was lost before all responses were received
+	 */
+	public List<KVMessage> pipeline(List<KVMessage> requests) throws Exception {
+		List<CompletableFuture<KVMessage>> futures =
+			new ArrayList<CompletableFuture<KVMessage>>(requests.size());
+		for(KVMessage request : requests) {
+			futures.add(send(request, false));
+		}
+		flush();
+
+		List<KVMessage> responses = new ArrayList<KVMessage>(requests.size());
+		long deadline = System.nanoTime() +
+			TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+		for(CompletableFuture<KVMessage> future : futures) {
+			responses.add(await(future, deadline));
+		}
+		return responses;
+	}
+
+	/**
+	 * Waits for the response to a request
+	 * @param deadline System.nanoTime() after which to stop waiting, unless
+	 *           timeoutMs is 0
+	 * @throws TimeoutException if the response has not arrived by then. The
+	 *           response is discarded when it does arrive, and later
+	 *           requests are unaffected.
+	 */
+	private KVMessage await(CompletableFuture<KVMessage> future, long deadline)
+			throws Exception {
+		try {
+			if(timeoutMs <= 0) {
+				return future.get();
+			}
+			return future.get(Math.max(deadline - System.nanoTime(), 0),
+				TimeUnit.NANOSECONDS);
+		} catch(ExecutionException e) {
+			throw (Exception) e.getCause();
+		} catch(TimeoutException e) {
+			throw new TimeoutException("No response from server within " +
+				timeoutMs + " ms");
+		}
+	}
 
-		switch(request.getStatus()){
-			case GET_ERROR:
-				System.out.printf(PROMPT + "GET_ERROR: %s\n", request.getValue());
-				break;
-			case GET_SUCCESS:
-				System.out.printf(PROMPT + "GET_SUCCESS: key: %s, value: %s\n", request.getKey(), request.getValue());
-				break;
-			case PUT_SUCCESS:
-				System.out.printf(PROMPT + "PUT_SUCCESS: key: %s, value: %s\n", request.getKey(), request.getValue());
-				break;
-			case PUT_UPDATE:
-				System.out.printf(PROMPT + "PUT_UPDATE: key: %s, value: %s\n", request.getKey(), request.getValue());
-				break;
-			case PUT_ERROR:
-				System.out.printf(PROMPT + "PUT_ERROR: %s\n", request.getValue());
-				break;
-			case DELETE_SUCCESS:
-				System.out.printf(PROMPT + "DELETE_SUCCESS: key: %s, value: %s\n", request.getKey(), request.getValue());
-				break;
-			case DELETE_ERROR:
-				System.out.printf(PROMPT + "DELETE_ERROR: %s\n", request.getValue());			
-				break;
-			default:
-				// Should have been caught in unserialize function
-				System.out.println("Server has returned invalid input");
-				break;
-		}
-
-		this.listener.waitForServer = false;
-
-	}
-
-	public void sendMessage(String msg) throws IOException {
-			output.write(msg.getBytes());
-			output.flush();
-    }
+	/**
+	 * Sends a single request and waits for its response
+	 */
+	private KVMessage request(KVMessage request) throws Exception {
+		long deadline = System.nanoTime() +
+			TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+		return await(send(request, true), deadline);
+	}
 
 
 	@Override
 	public void connect() throws Exception {
-		// TODO Auto-generated method stub
 		this.socket = new Socket(this.serverAddress, this.serverPort);
-		output = socket.getOutputStream();
+		this.socket.setTcpNoDelay(true);
+		output = new BufferedOutputStream(socket.getOutputStream());
 		input = socket.getInputStream();
+		if(useBinaryProtocol) {
+			negotiateBinaryProtocol();
+		}
+		setRunning(true);
+
+		reader = new Thread(this, "KVStore reader");
+		reader.setDaemon(true);
+		reader.start();
+	}
+
+	private void negotiateBinaryProtocol() throws IOException {
+		byte[] handshake = BinarySerialization.getHandshake();
+		output.write(handshake);
+		output.flush();
+
+		byte[] reply = new byte[handshake.length];
+		try {
+			new DataInputStream(input).readFully(reply);
+		} catch(IOException e) {
+			socket.close();
+			throw new IOException("Server does not support binary protocol");
+		}
+		if(!Arrays.equals(reply, handshake)) {
+			socket.close();
+			throw new IOException("Server does not support binary protocol");
+		}
 	}
 
 	@Override
 	public void disconnect() {
-		// TODO Auto-generated method stub
 		setRunning(false);
 		logger.info("tearing down the connection ...");
 		if (socket != null) {
 		try{
-			input.close();
-			output.close();
 			socket.close();
 		} catch (IOException e){
 
@@ -191,24 +376,145 @@ public class KVStore extends Thread implements KVCommInterface {
 
 	}
 
+	/**
+	 * {@inheritDoc}
+	 * A value of null or "null" deletes the key.
+	 */
 	@Override
 	public KVMessage put(String key, String value) throws Exception {
-		// TODO Auto-generated method stub
-		KVMessage temp = new KVMessageImpl(key, value, StatusType.PUT);
-		String serialized = Serialization.serialize(temp);
-		this.sendMessage(serialized);
-
-		return null;
+		return request(newPutRequest(key, value));
 	}
 
 	@Override
 	public KVMessage get(String key) throws Exception {
-		// TODO Auto-generated method stub
-		KVMessage temp = new KVMessageImpl(key, null, StatusType.GET);
-		String serialized = Serialization.serialize(temp);
-		this.sendMessage(serialized);
+		return request(new KVMessageImpl(key, null, StatusType.GET));
+	}
 
-		return null;
+	/**
+	 * {@inheritDoc}
+	 * More than KVBatchMessage.MAX_SIZE keys are split into several batches,
+	 * which are pipelined.
+	 */
+	@Override
+	public List<KVMessage> multiGet(List<String> keys) throws Exception {
+		List<KVMessage> gets = new ArrayList<KVMessage>(keys.size());
+		for(String key : keys) {
+			gets.add(new KVMessageImpl(key, null, StatusType.GET));
+		}
+		return requestBatches(StatusType.MGET, gets);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * More than KVBatchMessage.MAX_SIZE pairs are split into several batches,
+	 * which are pipelined.
+	 */
+	@Override
+	public List<KVMessage> multiPut(Map<String, String> entries)
+			throws Exception {
+		List<KVMessage> puts = new ArrayList<KVMessage>(entries.size());
+		for(Map.Entry<String, String> entry : entries.entrySet()) {
+			if(entry.getValue() == null) {
+				throw new IllegalArgumentException(
+					"multiPut cannot delete keys: " + entry.getKey());
+			}
+			puts.add(new KVMessageImpl(entry.getKey(), entry.getValue(),
+				StatusType.PUT));
+		}
+		return requestBatches(StatusType.MPUT, puts);
+	}
+
+	@Override
+	public List<KVMessage> scan(String startKey, String endKey, int limit)
+			throws Exception {
+		KVMessage response = request(new KVScanMessage(startKey, endKey,
+			limit));
+		if(response.getStatus() != StatusType.SCAN_RESPONSE) {
+			throw new IOException("Unexpected response to SCAN: " +
+				response.getStatus() + " " + response.getValue());
+		}
+		return ((KVBatchMessage) response).getMessages();
+	}
+
+	@Override
+	public Iterator<KVMessage> scan(String startKey, String endKey) {
+		return new KVScanIterator(this, startKey, endKey,
+			KVScanIterator.DEFAULT_PAGE_SIZE);
+	}
+
+	@Override
+	public Iterator<KVMessage> prefix(String prefix) {
+		return scan(prefix, KVScanIterator.prefixEnd(prefix));
+	}
+
+	/**
+	 * Sends requests as batches of at most KVBatchMessage.MAX_SIZE and
+	 * waits for all of them
+	 * @return the response to each request, in order
+	 */
+	private List<KVMessage> requestBatches(StatusType status,
+			List<KVMessage> requests) throws Exception {
+		List<KVMessage> batches = new ArrayList<KVMessage>();
+		for(int i = 0; i < requests.size(); i += KVBatchMessage.MAX_SIZE) {
+			batches.add(new KVBatchMessage(status, requests.subList(i,
+				Math.min(i + KVBatchMessage.MAX_SIZE, requests.size()))));
+		}
+
+		List<KVMessage> responses = new ArrayList<KVMessage>(requests.size());
+		StatusType responseStatus = status == StatusType.MGET ?
+			StatusType.MGET_RESPONSE : StatusType.MPUT_RESPONSE;
+		int i = 0;
+		for(KVMessage response : pipeline(batches)) {
+			int batchSize = ((KVBatchMessage) batches.get(i++)).getMessages()
+				.size();
+			if(response.getStatus() != responseStatus ||
+					((KVBatchMessage) response).getMessages().size() !=
+					batchSize) {
+				throw new IOException("Unexpected response to " + status +
+					": " + response.getStatus() + " " + response.getValue());
+			}
+			responses.addAll(((KVBatchMessage) response).getMessages());
+		}
+		return responses;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * A value of null or "null" deletes the key.
+	 */
+	@Override
+	public CompletableFuture<KVMessage> putAsync(String key, String value) {
+		return sendAsync(newPutRequest(key, value));
+	}
+
+	@Override
+	public CompletableFuture<KVMessage> getAsync(String key) {
+		return sendAsync(new KVMessageImpl(key, null, StatusType.GET));
+	}
+
+	private static KVMessage newPutRequest(String key, String value) {
+		if("null".equals(value)) {
+			value = null;
+		}
+		return new KVMessageImpl(key, value, StatusType.PUT);
+	}
+
+	/**
+	 * Sends a request, reporting any failure to send it through the
+	 * returned future
+	 */
+	private CompletableFuture<KVMessage> sendAsync(KVMessage request) {
+		try {
+			return send(request, true);
+		} catch(Exception e) {
+			if(e instanceof InterruptedException) {
+				Thread.currentThread().interrupt();
+			}
+			CompletableFuture<KVMessage> failed =
+				new CompletableFuture<KVMessage>();
+			failed.completeExceptionally(e);
+			return failed;
+		}
 	}
 
 }
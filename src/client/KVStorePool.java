@@ -0,0 +1,436 @@
+package client;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+
+import common.messages.KVMessage;
+
+
+/**
+ * A pool of connections to a KVServer, for use by many threads at once.
+ * Each request takes an idle connection for itself, so that a slow request
+ * does not hold up the requests of other threads, and a new connection is
+ * opened if none is idle, up to a maximum. In the background, connections
+ * idle for longer than the idle timeout are closed down to a minimum, and
+ * the remaining idle connections are checked with a request now and then.
+ * A request that fails because its connection was lost is retried once on
+ * a new connection.
+ */
+public class KVStorePool implements KVCommInterface {
+
+	public static final int DEFAULT_MIN_CONNECTIONS = 1;
+	public static final int DEFAULT_MAX_CONNECTIONS = 16;
+	public static final long DEFAULT_IDLE_TIMEOUT_MS = 60000;
+	public static final long DEFAULT_HEALTH_CHECK_INTERVAL_MS = 10000;
+
+	// Key requested to check that a connection still works. Any response,
+	// including an error, will do.
+	private static final String HEALTH_CHECK_KEY = "health-check";
+
+	private static Logger logger = Logger.getRootLogger();
+
+	private String serverAddress;
+	private int serverPort;
+	private int minConnections;
+	private long idleTimeoutMs;
+	private long healthCheckIntervalMs = DEFAULT_HEALTH_CHECK_INTERVAL_MS;
+	private long timeoutMs = KVStore.DEFAULT_TIMEOUT_MS;
+	private boolean useBinaryProtocol;
+
+	// Most recently used first
+	private final BlockingDeque<PooledStore> idle;
+	// One permit per connection that may be in use
+	private final Semaphore permits;
+	private final AtomicInteger nOpen = new AtomicInteger();
+	private volatile boolean isOpen;
+	private ScheduledExecutorService maintenance;
+
+	/**
+	 * Initialize a pool of connections to a KVServer with default limits
+	 * @param address the address of the KVServer
+	 * @param port the port of the KVServer
+	 */
+	public KVStorePool(String address, int port) {
+		this(address, port, DEFAULT_MIN_CONNECTIONS, DEFAULT_MAX_CONNECTIONS,
+			DEFAULT_IDLE_TIMEOUT_MS);
+	}
+
+	/**
+	 * Initialize a pool of connections to a KVServer
+	 * @param address the address of the KVServer
+	 * @param port the port of the KVServer
+	 * @param minConnections number of connections kept open even when idle
+	 * @param maxConnections maximum number of connections open at once, and
+	 *           so of requests in progress at once
+	 * @param idleTimeoutMs time after which an idle connection is closed,
+	 *           as long as more than minConnections are open
+	 */
+	public KVStorePool(String address, int port, int minConnections,
+			int maxConnections, long idleTimeoutMs) {
+		if(minConnections < 0 || maxConnections < 1 ||
+				minConnections > maxConnections) {
+			throw new IllegalArgumentException(
+				"Invalid connection limits: " + minConnections + " to " +
+				maxConnections);
+		}
+		this.serverAddress = address;
+		this.serverPort = port;
+		this.minConnections = minConnections;
+		this.idleTimeoutMs = idleTimeoutMs;
+		this.idle = new LinkedBlockingDeque<PooledStore>();
+		this.permits = new Semaphore(maxConnections, true);
+	}
+
+	/**
+	 * Set how long requests wait for a connection and then for a response,
+	 * before calling connect()
+	 * @param timeoutMs time in milliseconds, or 0 to wait indefinitely
+	 */
+	public void setTimeout(long timeoutMs) {
+		this.timeoutMs = timeoutMs;
+	}
+
+	/**
+	 * Set how often idle connections are checked, before calling connect()
+	 * @param healthCheckIntervalMs time in milliseconds
+	 */
+	public void setHealthCheckInterval(long healthCheckIntervalMs) {
+		this.healthCheckIntervalMs = healthCheckIntervalMs;
+	}
+
+	/**
+	 * Select the wire protocol to use, before calling connect()
+	 * @param useBinaryProtocol whether to use the binary protocol
+	 */
+	public void setBinaryProtocol(boolean useBinaryProtocol) {
+		this.useBinaryProtocol = useBinaryProtocol;
+	}
+
+	/**
+	 * @return the number of connections currently open
+	 */
+	public int getOpenConnections() {
+		return nOpen.get();
+	}
+
+	/**
+	 * Opens the minimum number of connections and starts maintaining the
+	 * pool
+	 */
+	@Override
+	public void connect() throws Exception {
+		isOpen = true;
+		try {
+			for(int i = 0; i < minConnections; i++) {
+				idle.addLast(open());
+			}
+		} catch(Exception e) {
+			disconnect();
+			throw e;
+		}
+
+		maintenance = Executors.newSingleThreadScheduledExecutor(
+			new ThreadFactory() {
+				public Thread newThread(Runnable task) {
+					Thread thread = new Thread(task, "KVStorePool maintenance");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		long period = Math.max(1,
+			Math.min(healthCheckIntervalMs, idleTimeoutMs) / 2);
+		maintenance.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				maintain();
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Closes every idle connection, and every connection in use as soon as
+	 * its request completes
+	 */
+	@Override
+	public void disconnect() {
+		isOpen = false;
+		if(maintenance != null) {
+			maintenance.shutdownNow();
+		}
+		PooledStore store;
+		while((store = idle.pollFirst()) != null) {
+			close(store);
+		}
+	}
+
+	@Override
+	public KVMessage put(String key, String value) throws Exception {
+		PooledStore store = acquire();
+		try {
+			try {
+				return store.put(key, value);
+			} catch(IOException e) {
+				store = reconnect(store, e);
+				return store.put(key, value);
+			}
+		} finally {
+			release(store);
+		}
+	}
+
+	@Override
+	public KVMessage get(String key) throws Exception {
+		PooledStore store = acquire();
+		try {
+			try {
+				return store.get(key);
+			} catch(IOException e) {
+				store = reconnect(store, e);
+				return store.get(key);
+			}
+		} finally {
+			release(store);
+		}
+	}
+
+	@Override
+	public List<KVMessage> multiGet(List<String> keys) throws Exception {
+		PooledStore store = acquire();
+		try {
+			try {
+				return store.multiGet(keys);
+			} catch(IOException e) {
+				store = reconnect(store, e);
+				return store.multiGet(keys);
+			}
+		} finally {
+			release(store);
+		}
+	}
+
+	@Override
+	public List<KVMessage> multiPut(Map<String, String> entries)
+			throws Exception {
+		PooledStore store = acquire();
+		try {
+			try {
+				return store.multiPut(entries);
+			} catch(IOException e) {
+				store = reconnect(store, e);
+				return store.multiPut(entries);
+			}
+		} finally {
+			release(store);
+		}
+	}
+
+	@Override
+	public List<KVMessage> scan(String startKey, String endKey, int limit)
+			throws Exception {
+		PooledStore store = acquire();
+		try {
+			try {
+				return store.scan(startKey, endKey, limit);
+			} catch(IOException e) {
+				store = reconnect(store, e);
+				return store.scan(startKey, endKey, limit);
+			}
+		} finally {
+			release(store);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * Each page is fetched over whichever connection is idle at the time.
+	 */
+	@Override
+	public Iterator<KVMessage> scan(String startKey, String endKey) {
+		return new KVScanIterator(this, startKey, endKey,
+			KVScanIterator.DEFAULT_PAGE_SIZE);
+	}
+
+	@Override
+	public Iterator<KVMessage> prefix(String prefix) {
+		return scan(prefix, KVScanIterator.prefixEnd(prefix));
+	}
+
+	/**
+	 * Takes an idle connection, or opens a new one if there is none
+	 * @throws TimeoutException if maxConnections are in use throughout the
+	 *           timeout
+	 */
+	private PooledStore acquire() throws Exception {
+		if(!isOpen) {
+			throw new IOException("Not connected to server");
+		}
+		if(timeoutMs <= 0) {
+			permits.acquire();
+		} else if(!permits.tryAcquire(timeoutMs, TimeUnit.MILLISECONDS)) {
+			throw new TimeoutException("No connection available within " +
+				timeoutMs + " ms");
+		}
+		try {
+			PooledStore store;
+			while((store = idle.pollFirst()) != null) {
+				if(store.isRunning()) {
+					return store;
+				}
+				close(store);
+			}
+			return open();
+		} catch(Exception e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Puts a connection back into the pool after a request, unless it has
+	 * failed or the pool has been closed
+	 */
+	private void release(PooledStore store) {
+		if(isOpen && store.isRunning()) {
+			store.lastUsed = System.nanoTime();
+			idle.addFirst(store);
+		} else {
+			close(store);
+		}
+		permits.release();
+	}
+
+	/**
+	 * Closes a connection on which a request failed and opens another one,
+	 * if the connection was lost. Other failures are rethrown.
+	 * @return the new connection
+	 */
+	private PooledStore reconnect(PooledStore store, IOException cause)
+			throws Exception {
+		if(store.isRunning()) {
+			throw cause;
+		}
+		logger.info("Connection to server lost, reconnecting");
+		close(store);
+		return open();
+	}
+
+	private PooledStore open() throws Exception {
+		PooledStore store = new PooledStore(serverAddress, serverPort);
+		store.setBinaryProtocol(useBinaryProtocol);
+		store.setTimeout(timeoutMs);
+		store.connect();
+		nOpen.incrementAndGet();
+		return store;
+	}
+
+	private void close(PooledStore store) {
+		if(store.isClosed.compareAndSet(false, true)) {
+			store.disconnect();
+			nOpen.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Closes connections that have been idle too long or fail a health
+	 * check, then opens connections up to the minimum
+	 */
+	private void maintain() {
+		long now = System.nanoTime();
+		long idleTimeoutNs = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMs);
+		long healthCheckNs =
+			TimeUnit.MILLISECONDS.toNanos(healthCheckIntervalMs);
+
+		for(PooledStore store : idle.toArray(new PooledStore[0])) {
+			boolean isExpired = now - store.lastUsed >= idleTimeoutNs &&
+				nOpen.get() > minConnections;
+			boolean isCheckDue = now - store.lastUsed >= healthCheckNs &&
+				now - store.lastChecked >= healthCheckNs;
+			if(store.isRunning() && !isExpired && !isCheckDue) {
+				continue;
+			}
+			// A checked connection counts as in use, so a request cannot
+			// open another one meanwhile. If all are in use, the check waits
+			// for the next round.
+			boolean isChecked = store.isRunning() && !isExpired;
+			if(isChecked && !permits.tryAcquire()) {
+				continue;
+			}
+			try {
+				if(!idle.remove(store)) {
+					// Taken by a request in the meantime
+					continue;
+				}
+				if(!isChecked) {
+					close(store);
+				} else if(!isHealthy(store)) {
+					logger.info("Closing connection that failed health check");
+					close(store);
+				} else {
+					store.lastChecked = System.nanoTime();
+					idle.addLast(store);
+				}
+			} finally {
+				if(isChecked) {
+					permits.release();
+				}
+			}
+		}
+
+		while(isOpen && nOpen.get() < minConnections) {
+			if(!permits.tryAcquire()) {
+				// All in use, opening another would exceed maxConnections
+				break;
+			}
+			try {
+				PooledStore store = open();
+				idle.addLast(store);
+				if(!isOpen) {
+					// Closed in the meantime
+					idle.remove(store);
+					close(store);
+				}
+			} catch(Exception e) {
+				logger.warn("Unable to open connection to server", e);
+				break;
+			} finally {
+				permits.release();
+			}
+		}
+	}
+
+	private boolean isHealthy(PooledStore store) {
+		try {
+			store.get(HEALTH_CHECK_KEY);
+			return true;
+		} catch(Exception e) {
+			return false;
+		}
+	}
+
+	/**
+	 * A connection in the pool, with the times it was last used and checked
+	 */
+	private static class PooledStore extends KVStore {
+
+		final AtomicBoolean isClosed = new AtomicBoolean();
+		volatile long lastUsed = System.nanoTime();
+		volatile long lastChecked = lastUsed;
+
+		PooledStore(String address, int port) {
+			super(address, port);
+		}
+	}
+}
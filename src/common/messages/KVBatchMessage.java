@@ -0,0 +1,71 @@
+package common.messages;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A message made up of several single-key messages, so that many keys can
+ * be read or written in one round trip:
+ *
+ *   MGET           a GET request per key
+ *   MPUT           a PUT request per key-value pair
+ *   MGET_RESPONSE  the response to each GET of an MGET, in the same order
+ *   MPUT_RESPONSE  the response to each PUT of an MPUT, in the same order
+ *   SCAN_RESPONSE  a GET_SUCCESS response per key found by a SCAN, in key
+ *                  order
+ *
+ * A batch has no key or value of its own.
+ */
+public class KVBatchMessage implements KVMessage {
+
+	/**
+	 * Maximum number of messages in a batch
+	 */
+	public static final int MAX_SIZE = 1000;
+
+	private StatusType status;
+	private List<KVMessage> messages;
+
+	public KVBatchMessage(StatusType status, List<KVMessage> messages) {
+		this.status = status;
+		this.messages = Collections.unmodifiableList(messages);
+	}
+
+	/**
+	 * @return the messages in the batch, in order
+	 */
+	public List<KVMessage> getMessages() {
+		return messages;
+	}
+
+	/**
+	 * @return whether messages of the given type are batches
+	 */
+	public static boolean isBatch(StatusType status) {
+		switch(status) {
+			case MGET:
+			case MPUT:
+			case MGET_RESPONSE:
+			case MPUT_RESPONSE:
+			case SCAN_RESPONSE:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	@Override
+	public String getKey() {
+		return null;
+	}
+
+	@Override
+	public String getValue() {
+		return null;
+	}
+
+	@Override
+	public StatusType getStatus() {
+		return status;
+	}
+}
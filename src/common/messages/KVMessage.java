@@ -11,7 +11,13 @@ public interface KVMessage {
 		PUT_UPDATE, 	/* Put - request successful, i.e. value updated */
 		PUT_ERROR, 		/* Put - request not successful */
 		DELETE_SUCCESS, /* Delete - request successful */
-		DELETE_ERROR 	/* Delete - request unsuccessful */
+		DELETE_ERROR, 	/* Delete - request unsuccessful */
+		MGET, 			/* Get of several keys - request */
+		MPUT, 			/* Put of several key-value pairs - request */
+		MGET_RESPONSE, 	/* One GET response per key requested */
+		MPUT_RESPONSE, 	/* One PUT response per pair put */
+		SCAN, 			/* Get of the keys in a range, in order - request */
+		SCAN_RESPONSE 	/* One GET response per key in the range */
 	}
 
 	/**
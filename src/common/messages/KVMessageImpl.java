@@ -47,6 +47,24 @@ public class KVMessageImpl implements KVMessage {
 			case "DELETE_ERROR":
 				this.status = StatusType.DELETE_ERROR;
 				break;
+			case "MGET":
+				this.status = StatusType.MGET;
+				break;
+			case "MPUT":
+				this.status = StatusType.MPUT;
+				break;
+			case "MGET_RESPONSE":
+				this.status = StatusType.MGET_RESPONSE;
+				break;
+			case "MPUT_RESPONSE":
+				this.status = StatusType.MPUT_RESPONSE;
+				break;
+			case "SCAN":
+				this.status = StatusType.SCAN;
+				break;
+			case "SCAN_RESPONSE":
+				this.status = StatusType.SCAN_RESPONSE;
+				break;
 			default:
 				logger.warn("Invalid status type: " + status);
 		}
@@ -0,0 +1,52 @@
+package common.messages;
+
+/**
+ * A request for the keys in a range, in ascending order, with their values.
+ * A range holding more keys than the limit is read in pages: each page
+ * starts just after the last key of the previous one.
+ */
+public class KVScanMessage implements KVMessage {
+
+	private String startKey;
+	private String endKey;
+	private int limit;
+
+	/**
+	 * @param startKey the first key of the range, included
+	 * @param endKey the key the range stops at, excluded, or null for no end
+	 * @param limit the maximum number of keys to return
+	 */
+	public KVScanMessage(String startKey, String endKey, int limit) {
+		this.startKey = startKey;
+		this.endKey = endKey;
+		this.limit = limit;
+	}
+
+	/**
+	 * @return the first key of the range, included
+	 */
+	@Override
+	public String getKey() {
+		return startKey;
+	}
+
+	/**
+	 * @return the key the range stops at, excluded, or null for no end
+	 */
+	@Override
+	public String getValue() {
+		return endKey;
+	}
+
+	/**
+	 * @return the maximum number of keys to return
+	 */
+	public int getLimit() {
+		return limit;
+	}
+
+	@Override
+	public StatusType getStatus() {
+		return StatusType.SCAN;
+	}
+}
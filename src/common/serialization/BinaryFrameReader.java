@@ -0,0 +1,79 @@
+package serialization;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import common.messages.KVMessage;
+
+
+/**
+ * Reads messages of the binary protocol from a blocking stream. Bytes are
+ * read into one buffer that is reused for every frame, and only grown for a
+ * frame that does not fit into it.
+ */
+public class BinaryFrameReader {
+
+	private static final int DEFAULT_BUFFER_SIZE = 16 * 1024;
+
+	private InputStream input;
+
+	// Received bytes not consumed yet are between position and limit
+	private ByteBuffer buffer;
+
+	/**
+	 * Constructs a new BinaryFrameReader.
+	 * @param input the stream to read frames from
+	 */
+	public BinaryFrameReader(InputStream input) {
+		this.input = input;
+		this.buffer = ByteBuffer.allocate(DEFAULT_BUFFER_SIZE);
+		this.buffer.flip();
+	}
+
+	/**
+	 * Reads the next message, waiting until its frame has been received
+	 * @return the message, or null if the stream has ended
+	 * @throws IOException if the stream fails or the bytes received are not
+	 *           a valid frame
+	 */
+	public KVMessage read() throws IOException {
+		while(true) {
+			int frameLength;
+			try {
+				KVMessage message = BinarySerialization.unserialize(buffer);
+				if(message != null) {
+					return message;
+				}
+				frameLength = BinarySerialization.getFrameLength(buffer);
+			} catch(IllegalArgumentException e) {
+				throw new IOException("Invalid frame: " + e.getMessage());
+			}
+
+			buffer.compact();
+			if(frameLength > buffer.capacity()) {
+				ByteBuffer larger = ByteBuffer.allocate(frameLength);
+				buffer.flip();
+				larger.put(buffer);
+				buffer = larger;
+			}
+			int n = input.read(buffer.array(), buffer.position(),
+				buffer.remaining());
+			if(n > 0) {
+				buffer.position(buffer.position() + n);
+			}
+			buffer.flip();
+			if(n < 0) {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * @return whether more bytes have been received, so that read() can
+	 *         likely return without waiting
+	 */
+	public boolean isReady() throws IOException {
+		return buffer.hasRemaining() || input.available() > 0;
+	}
+}
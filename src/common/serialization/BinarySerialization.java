@@ -0,0 +1,303 @@
+package serialization;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import common.messages.KVBatchMessage;
+import common.messages.KVMessage;
+import common.messages.KVMessageImpl;
+import common.messages.KVScanMessage;
+import common.messages.KVMessage.StatusType;
+
+
+/**
+ * Handles serialization and unserialization of requests and responses in the
+ * binary protocol. Every message is one frame:
+ *
+ *   opcode (1 byte) | key length (2 bytes) | value length (4 bytes) |
+ *   key (UTF-8) | value (UTF-8)
+ *
+ * Lengths are unsigned and big-endian, except that a value length of -1
+ * stands for a missing value. Keys and values may contain any character,
+ * including newlines. A batch (MGET, MPUT, MGET_RESPONSE, MPUT_RESPONSE)
+ * has no key, and its value is the frames of the messages in the batch,
+ * one after the other. A SCAN has the start key as key, and as value a
+ * 4-byte limit followed by the end key, if the range has an end.
+ *
+ * A client selects the binary protocol by sending HANDSHAKE as the very
+ * first bytes on a connection, which the server echoes back. Without it the
+ * connection uses the text protocol of Serialization.
+ */
+public class BinarySerialization {
+
+	public static final byte MAGIC = (byte) 0xB1;
+	public static final byte VERSION = 1;
+
+	public static final int HEADER_BYTES = 7;
+	public static final int MAX_KEY_BYTES = 0xFFFF;
+	public static final int MAX_VALUE_BYTES = 128 * 122880;
+	public static final int MAX_FRAME_BYTES =
+		HEADER_BYTES + MAX_KEY_BYTES + MAX_VALUE_BYTES;
+
+	private static final int NULL_LENGTH = -1;
+
+	// Indexed by opcode, so opcodes must never be reordered
+	private static final StatusType[] OPCODES = {
+		StatusType.GET,
+		StatusType.PUT,
+		StatusType.GET_SUCCESS,
+		StatusType.GET_ERROR,
+		StatusType.PUT_SUCCESS,
+		StatusType.PUT_UPDATE,
+		StatusType.PUT_ERROR,
+		StatusType.DELETE_SUCCESS,
+		StatusType.DELETE_ERROR,
+		StatusType.MGET,
+		StatusType.MPUT,
+		StatusType.MGET_RESPONSE,
+		StatusType.MPUT_RESPONSE,
+		StatusType.SCAN,
+		StatusType.SCAN_RESPONSE
+	};
+
+	private static final byte[] OPCODE_BY_STATUS =
+		new byte[StatusType.values().length];
+	static {
+		for(byte i = 0; i < OPCODES.length; i++) {
+			OPCODE_BY_STATUS[OPCODES[i].ordinal()] = i;
+		}
+	}
+
+	/**
+	 * @return the bytes a client sends to select the binary protocol, and
+	 *         the server sends back to confirm it
+	 */
+	public static byte[] getHandshake() {
+		return new byte[] { MAGIC, VERSION };
+	}
+
+	/**
+	 * Serializes the given KVMessage into a frame
+	 * @param message the KVMessage to serialize
+	 * @return the frame
+	 */
+	public static byte[] serialize(KVMessage message) {
+		if(KVBatchMessage.isBatch(message.getStatus())) {
+			return serializeBatch(message);
+		}
+		byte[] key = encode(message.getKey());
+		byte[] value = encode(message.getValue());
+		if(message.getStatus() == StatusType.SCAN) {
+			value = encodeScanValue(message, value);
+		}
+		if(key != null && key.length > MAX_KEY_BYTES) {
+			throw new IllegalArgumentException("Key too long: " +
+				key.length + " bytes");
+		}
+		if(value != null && value.length > MAX_VALUE_BYTES) {
+			throw new IllegalArgumentException("Value too long: " +
+				value.length + " bytes");
+		}
+
+		int keyLength = key == null ? 0 : key.length;
+		int valueLength = value == null ? 0 : value.length;
+		ByteBuffer frame =
+			ByteBuffer.allocate(HEADER_BYTES + keyLength + valueLength);
+		frame.put(OPCODE_BY_STATUS[message.getStatus().ordinal()]);
+		frame.putShort((short) keyLength);
+		frame.putInt(value == null ? NULL_LENGTH : valueLength);
+		if(key != null) {
+			frame.put(key);
+		}
+		if(value != null) {
+			frame.put(value);
+		}
+		return frame.array();
+	}
+
+	/**
+	 * Unserializes the frame at the buffer's position, if it has been
+	 * received completely. The position is then advanced past the frame,
+	 * otherwise it is left unchanged.
+	 * @param buffer bytes received, between position and limit
+	 * @return the unserialized KVMessage, or null if the frame is incomplete
+	 * @throws IllegalArgumentException if the bytes are not a valid frame
+	 */
+	public static KVMessage unserialize(ByteBuffer buffer)
+			throws IllegalArgumentException {
+		int frameLength = getFrameLength(buffer);
+		if(frameLength < 0 || buffer.remaining() < frameLength) {
+			return null;
+		}
+
+		int start = buffer.position();
+		StatusType status = OPCODES[buffer.get(start)];
+		int keyLength = buffer.getShort(start + 1) & 0xFFFF;
+		int valueLength = buffer.getInt(start + 3);
+		if(KVBatchMessage.isBatch(status)) {
+			KVMessage batch = unserializeBatch(status, buffer,
+				start + HEADER_BYTES + keyLength, valueLength);
+			buffer.position(start + frameLength);
+			return batch;
+		}
+
+		int keyStart = start + HEADER_BYTES;
+		String key = decode(buffer, keyStart, keyLength);
+		String value = valueLength == NULL_LENGTH ? null :
+			decode(buffer, keyStart + keyLength, valueLength);
+		buffer.position(start + frameLength);
+		if(status == StatusType.SCAN) {
+			return unserializeScan(key, buffer, keyStart + keyLength,
+				valueLength);
+		}
+
+		// Error responses carry no key, only a reason
+		if(keyLength == 0 && status != StatusType.GET &&
+				status != StatusType.PUT) {
+			key = null;
+		}
+		return new KVMessageImpl(key, value, status);
+	}
+
+	/**
+	 * Get the length of the frame at the buffer's position from its header
+	 * @return the length of the whole frame, or -1 if the header has not been
+	 *         received completely
+	 * @throws IllegalArgumentException if the header is invalid
+	 */
+	public static int getFrameLength(ByteBuffer buffer)
+			throws IllegalArgumentException {
+		if(buffer.remaining() < HEADER_BYTES) {
+			return -1;
+		}
+
+		int start = buffer.position();
+		int opcode = buffer.get(start) & 0xFF;
+		if(opcode >= OPCODES.length) {
+			throw new IllegalArgumentException("Invalid opcode: " + opcode);
+		}
+		int keyLength = buffer.getShort(start + 1) & 0xFFFF;
+		int valueLength = buffer.getInt(start + 3);
+		if(valueLength == NULL_LENGTH) {
+			valueLength = 0;
+		} else if(valueLength < 0 || valueLength > MAX_VALUE_BYTES) {
+			throw new IllegalArgumentException("Invalid value length: " +
+				valueLength);
+		}
+		return HEADER_BYTES + keyLength + valueLength;
+	}
+
+	private static byte[] encodeScanValue(KVMessage message, byte[] endKey) {
+		if(!(message instanceof KVScanMessage)) {
+			throw new IllegalArgumentException("Not a scan");
+		}
+		// Would be read back as no end at all
+		if(endKey != null && endKey.length == 0) {
+			throw new IllegalArgumentException(
+				"SCAN end key cannot be empty");
+		}
+		ByteBuffer value = ByteBuffer.allocate(
+			4 + (endKey == null ? 0 : endKey.length));
+		value.putInt(((KVScanMessage) message).getLimit());
+		if(endKey != null) {
+			value.put(endKey);
+		}
+		return value.array();
+	}
+
+	private static KVMessage unserializeScan(String startKey,
+			ByteBuffer buffer, int valueStart, int valueLength)
+			throws IllegalArgumentException {
+		if(valueLength < 4) {
+			throw new IllegalArgumentException("SCAN without limit");
+		}
+		int limit = buffer.getInt(valueStart);
+		String endKey = valueLength == 4 ? null :
+			decode(buffer, valueStart + 4, valueLength - 4);
+		return new KVScanMessage(startKey, endKey, limit);
+	}
+
+	private static byte[] serializeBatch(KVMessage message) {
+		if(!(message instanceof KVBatchMessage)) {
+			throw new IllegalArgumentException("Not a batch: " +
+				message.getStatus());
+		}
+		StatusType status = message.getStatus();
+		List<byte[]> frames = new ArrayList<byte[]>();
+		int payloadLength = 0;
+		for(KVMessage entry : ((KVBatchMessage) message).getMessages()) {
+			if(KVBatchMessage.isBatch(entry.getStatus())) {
+				throw new IllegalArgumentException("Nested batch");
+			}
+			if(status == StatusType.MPUT && entry.getValue() == null) {
+				throw new IllegalArgumentException("MPUT cannot delete keys");
+			}
+			byte[] frame = serialize(entry);
+			frames.add(frame);
+			payloadLength += frame.length;
+			if(payloadLength > MAX_VALUE_BYTES) {
+				throw new IllegalArgumentException("Batch too long");
+			}
+		}
+
+		ByteBuffer frame = ByteBuffer.allocate(HEADER_BYTES + payloadLength);
+		frame.put(OPCODE_BY_STATUS[status.ordinal()]);
+		frame.putShort((short) 0);
+		frame.putInt(payloadLength);
+		for(byte[] entry : frames) {
+			frame.put(entry);
+		}
+		return frame.array();
+	}
+
+	private static KVMessage unserializeBatch(StatusType status,
+			ByteBuffer buffer, int offset, int length)
+			throws IllegalArgumentException {
+		ByteBuffer payload = buffer.duplicate();
+		payload.limit(offset + length);
+		payload.position(offset);
+
+		List<KVMessage> messages = new ArrayList<KVMessage>();
+		while(payload.hasRemaining()) {
+			// Checked before parsing, so that deeply nested batches cannot
+			// exhaust the stack
+			int opcode = payload.get(payload.position()) & 0xFF;
+			if(opcode < OPCODES.length &&
+					KVBatchMessage.isBatch(OPCODES[opcode])) {
+				throw new IllegalArgumentException("Nested batch");
+			}
+			KVMessage message = unserialize(payload);
+			if(message == null) {
+				throw new IllegalArgumentException("Truncated batch");
+			}
+			if(messages.size() == KVBatchMessage.MAX_SIZE) {
+				throw new IllegalArgumentException("Invalid batch");
+			}
+			messages.add(message);
+		}
+		// A scan may find no keys in its range
+		if(messages.isEmpty() && status != StatusType.SCAN_RESPONSE) {
+			throw new IllegalArgumentException("Empty batch");
+		}
+		return new KVBatchMessage(status, messages);
+	}
+
+	private static byte[] encode(String string) {
+		return string == null ? null :
+			string.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static String decode(ByteBuffer buffer, int offset, int length) {
+		if(buffer.hasArray()) {
+			return new String(buffer.array(), buffer.arrayOffset() + offset,
+				length, StandardCharsets.UTF_8);
+		}
+		byte[] bytes = new byte[length];
+		for(int i = 0; i < length; i++) {
+			bytes[i] = buffer.get(offset + i);
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
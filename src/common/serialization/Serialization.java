@@ -1,22 +1,55 @@
 package serialization;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import org.apache.log4j.*;
 
+import common.messages.KVBatchMessage;
 import common.messages.KVMessage;
 import common.messages.KVMessageImpl;
+import common.messages.KVScanMessage;
 import common.messages.KVMessage.StatusType;
 
 
 /**
  * Handles serialization and unserialization of requests and responses.
+ * Batches are sent as their status line followed by the lines of each
+ * message in the batch: a key per GET of an MGET, a key and a value per PUT
+ * of an MPUT, and the complete lines of each response of an MGET_RESPONSE,
+ * MPUT_RESPONSE or SCAN_RESPONSE. A SCAN is sent as its limit, its start
+ * key and, if the range has an end, its end key. Neither key can be empty,
+ * since an empty line would end the message.
  */
 public class Serialization {
 
 	private static Logger logger = Logger.getRootLogger();
 
+	/**
+	 * Maximum number of lines in a message, which the largest batch
+	 * response needs
+	 */
+	public static final int MAX_MESSAGE_LINES = 3 * KVBatchMessage.MAX_SIZE + 1;
+
 	private static final int BUFFER_SIZE = 122880;
 	private static final int DROP_SIZE = 128 * BUFFER_SIZE;
 
+	// Status line of each message type, including its line break
+	private static final byte[][] STATUS_LINES =
+		new byte[StatusType.values().length][];
+	static {
+		for(StatusType status : StatusType.values()) {
+			STATUS_LINES[status.ordinal()] =
+				(status + "\n").getBytes(StandardCharsets.UTF_8);
+		}
+	}
+
 	/**
 	 * Serializes the given KVMessage into a string
 	 * @param message the KVMessage to serialize
@@ -41,6 +74,20 @@ public class Serialization {
 			case PUT_ERROR:
 			case DELETE_ERROR:
 				return requestType + "\n" + message.getValue() + "\n\n";
+			case MGET:
+			case MPUT:
+			case MGET_RESPONSE:
+			case MPUT_RESPONSE:
+			case SCAN:
+			case SCAN_RESPONSE:
+				ByteArrayOutputStream output = new ByteArrayOutputStream();
+				try {
+					serialize(message, output);
+				} catch(IOException e) {
+					// Not thrown by a ByteArrayOutputStream
+					throw new UncheckedIOException(e);
+				}
+				return new String(output.toByteArray(), StandardCharsets.UTF_8);
 			default:
 				logger.error("Invalid request type for serialization: " +
 					requestType);
@@ -48,6 +95,126 @@ public class Serialization {
 		}
 	}
 
+	/**
+	 * Serializes the given KVMessage straight into a stream, producing the
+	 * same bytes as serialize(KVMessage) without building the string first
+	 * @param message the KVMessage to serialize
+	 * @param output the stream to write the serialized message to
+	 */
+	public static void serialize(KVMessage message, OutputStream output)
+			throws IOException {
+		if(writeLines(message, output)) {
+			output.write('\n');
+		}
+	}
+
+	/**
+	 * Writes the lines of a message, without the empty line that ends it
+	 * @return false if the message could not be serialized
+	 */
+	private static boolean writeLines(KVMessage message, OutputStream output)
+			throws IOException {
+		StatusType requestType = message.getStatus();
+		switch(requestType) {
+			case GET:
+				output.write(STATUS_LINES[requestType.ordinal()]);
+				writeLine(String.valueOf(message.getKey()), output);
+				break;
+			case PUT:
+				output.write(STATUS_LINES[requestType.ordinal()]);
+				writeLine(String.valueOf(message.getKey()), output);
+				if(message.getValue() != null) {
+					writeLine(message.getValue(), output);
+				}
+				break;
+			case GET_SUCCESS:
+			case PUT_SUCCESS:
+			case PUT_UPDATE:
+			case DELETE_SUCCESS:
+				output.write(STATUS_LINES[requestType.ordinal()]);
+				writeLine(String.valueOf(message.getKey()), output);
+				writeLine(String.valueOf(message.getValue()), output);
+				break;
+			case GET_ERROR:
+			case PUT_ERROR:
+			case DELETE_ERROR:
+				output.write(STATUS_LINES[requestType.ordinal()]);
+				writeLine(String.valueOf(message.getValue()), output);
+				break;
+			case MGET:
+				output.write(STATUS_LINES[requestType.ordinal()]);
+				for(KVMessage get : getBatch(message)) {
+					writeLine(String.valueOf(get.getKey()), output);
+				}
+				break;
+			case MPUT:
+				output.write(STATUS_LINES[requestType.ordinal()]);
+				for(KVMessage put : getBatch(message)) {
+					if(put.getValue() == null) {
+						throw new IllegalArgumentException(
+							"MPUT cannot delete keys");
+					}
+					writeLine(String.valueOf(put.getKey()), output);
+					writeLine(put.getValue(), output);
+				}
+				break;
+			case SCAN:
+				if(!(message instanceof KVScanMessage)) {
+					throw new IllegalArgumentException("Not a scan");
+				}
+				// An empty line would end the message
+				if(message.getKey().isEmpty()) {
+					throw new IllegalArgumentException(
+						"SCAN needs a start key");
+				}
+				if(message.getValue() != null &&
+						message.getValue().isEmpty()) {
+					throw new IllegalArgumentException(
+						"SCAN end key cannot be empty");
+				}
+				output.write(STATUS_LINES[requestType.ordinal()]);
+				writeLine(String.valueOf(
+					((KVScanMessage) message).getLimit()), output);
+				writeLine(String.valueOf(message.getKey()), output);
+				if(message.getValue() != null) {
+					writeLine(message.getValue(), output);
+				}
+				break;
+			case MGET_RESPONSE:
+			case MPUT_RESPONSE:
+			case SCAN_RESPONSE:
+				output.write(STATUS_LINES[requestType.ordinal()]);
+				for(KVMessage response : getBatch(message)) {
+					if(KVBatchMessage.isBatch(response.getStatus()) ||
+							!writeLines(response, output)) {
+						throw new IllegalArgumentException(
+							"Invalid response in batch: " +
+							response.getStatus());
+					}
+				}
+				break;
+			default:
+				logger.error("Invalid request type for serialization: " +
+					requestType);
+				return false;
+		}
+		return true;
+	}
+
+	private static List<KVMessage> getBatch(KVMessage message) {
+		if(!(message instanceof KVBatchMessage)) {
+			throw new IllegalArgumentException("Not a batch: " +
+				message.getStatus());
+		}
+		return ((KVBatchMessage) message).getMessages();
+	}
+
+	private static void writeLine(String line, OutputStream output)
+			throws IOException {
+		output.write(line.getBytes(StandardCharsets.UTF_8));
+		output.write('\n');
+	}
+
 	/**
 	 * Unserializes the given string into a KVMessage
 	 * @param lines the list of lines in the message to parse
@@ -76,6 +243,18 @@ public class Serialization {
 			case "PUT_ERROR":
 			case "DELETE_ERROR":
 				return parseErrorResponse(lines);
+
+			// Batches
+			case "MGET":
+				return parseMultiGetRequest(lines);
+			case "MPUT":
+				return parseMultiPutRequest(lines);
+			case "MGET_RESPONSE":
+			case "MPUT_RESPONSE":
+			case "SCAN_RESPONSE":
+				return parseBatchResponse(lines);
+			case "SCAN":
+				return parseScanRequest(lines);
 			
 			// Unrecognized
 			default:
@@ -124,4 +303,82 @@ public class Serialization {
 
 		return new KVMessageImpl(null, lines[1], lines[0]);
 	}
+
+	public static KVMessage parseMultiGetRequest(String[] lines)
+			throws IllegalArgumentException {
+		int nKeys = lines.length - 1;
+		if(nKeys < 1 || nKeys > KVBatchMessage.MAX_SIZE) {
+			throw new IllegalArgumentException("Invalid number of keys " +
+				"for MGET request: " + nKeys);
+		}
+
+		List<KVMessage> gets = new ArrayList<KVMessage>(nKeys);
+		for(int i = 1; i < lines.length; i++) {
+			gets.add(new KVMessageImpl(lines[i], null, StatusType.GET));
+		}
+		return new KVBatchMessage(StatusType.MGET, gets);
+	}
+
+	public static KVMessage parseMultiPutRequest(String[] lines)
+			throws IllegalArgumentException {
+		int nPairs = (lines.length - 1) / 2;
+		if(lines.length % 2 == 0 || nPairs < 1 ||
+				nPairs > KVBatchMessage.MAX_SIZE) {
+			throw new IllegalArgumentException("Invalid number of arguments " +
+				"for MPUT request: " + lines.length);
+		}
+
+		List<KVMessage> puts = new ArrayList<KVMessage>(nPairs);
+		for(int i = 1; i < lines.length; i += 2) {
+			puts.add(new KVMessageImpl(lines[i], lines[i + 1], StatusType.PUT));
+		}
+		return new KVBatchMessage(StatusType.MPUT, puts);
+	}
+
+	public static KVMessage parseBatchResponse(String[] lines)
+			throws IllegalArgumentException {
+		List<KVMessage> responses = new ArrayList<KVMessage>();
+		int i = 1;
+		while(i < lines.length) {
+			int nLines;
+			switch(lines[i]) {
+				case "GET_SUCCESS":
+				case "PUT_SUCCESS":
+				case "PUT_UPDATE":
+				case "DELETE_SUCCESS":
+					nLines = 3;
+					break;
+				case "GET_ERROR":
+				case "PUT_ERROR":
+				case "DELETE_ERROR":
+					nLines = 2;
+					break;
+				default:
+					throw new IllegalArgumentException("Invalid response in " +
+						"batch: '" + lines[i] + "'");
+			}
+			if(i + nLines > lines.length ||
+					responses.size() == KVBatchMessage.MAX_SIZE) {
+				throw new IllegalArgumentException("Invalid batch response");
+			}
+			responses.add(unserialize(Arrays.copyOfRange(lines, i, i + nLines)));
+			i += nLines;
+		}
+
+		return new KVBatchMessage(new KVMessageImpl(null, null,
+			lines[0]).getStatus(), responses);
+	}
+
+	public static KVMessage parseScanRequest(String[] lines)
+			throws IllegalArgumentException {
+		if(lines.length != 3 && lines.length != 4) {
+			throw new IllegalArgumentException("Invalid number of arguments " +
+				"for SCAN request: " + lines.length);
+		}
+
+		// Includes NumberFormatException
+		int limit = Integer.parseInt(lines[1]);
+		return new KVScanMessage(lines[2],
+			lines.length == 4 ? lines[3] : null, limit);
+	}
 }
@@ -0,0 +1,190 @@
+package serialization;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import common.messages.KVMessage;
+import common.messages.KVMessage.StatusType;
+
+
+/**
+ * Reads messages of the text protocol from a blocking stream. Lines are
+ * found by scanning one reusable byte buffer, and GET and PUT requests are
+ * returned in one reusable message object, so that the only allocations per
+ * request are the key and value strings. Other messages take the general
+ * path of Serialization.unserialize.
+ */
+public class TextMessageReader {
+
+	private static final int DEFAULT_BUFFER_SIZE = 8 * 1024;
+	private static final int MAX_BUFFER_SIZE = 128 * 122880;
+	private static final int MAX_LINES = Serialization.MAX_MESSAGE_LINES;
+
+	private static final byte[] GET = "GET".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] PUT = "PUT".getBytes(StandardCharsets.UTF_8);
+
+	private InputStream input;
+
+	// Received bytes are between 0 and limit, of which those before position
+	// have been scanned
+	private byte[] buffer;
+	private int position;
+	private int limit;
+
+	// Lines of the message being read
+	private int[] lineStarts;
+	private int[] lineEnds;
+	private int nLines;
+
+	private ReusableMessage message;
+
+	/**
+	 * Constructs a new TextMessageReader.
+	 * @param input the stream to read messages from
+	 */
+	public TextMessageReader(InputStream input) {
+		this.input = input;
+		this.buffer = new byte[DEFAULT_BUFFER_SIZE];
+		this.lineStarts = new int[MAX_LINES];
+		this.lineEnds = new int[MAX_LINES];
+		this.message = new ReusableMessage();
+	}
+
+	/**
+	 * Reads the next message, waiting until its terminating empty line has
+	 * been received. The message returned for a GET or PUT request is only
+	 * valid until the next call.
+	 * @return the message, or null if the stream has ended
+	 * @throws IllegalArgumentException if the message is invalid, in which
+	 *           case it has been consumed and reading may continue
+	 * @throws IOException if the stream fails or the message is too large
+	 */
+	public KVMessage read() throws IOException, IllegalArgumentException {
+		nLines = 0;
+		int messageStart = position;
+		int lineStart = position;
+		while(true) {
+			while(position < limit) {
+				byte b = buffer[position++];
+				if(b != '\n') {
+					continue;
+				}
+				int lineEnd = position - 1;
+				if(lineEnd > lineStart && buffer[lineEnd - 1] == '\r') {
+					lineEnd--;
+				}
+				if(lineEnd == lineStart) {
+					return toMessage();
+				}
+				if(nLines == MAX_LINES) {
+					throw new IOException("Too many lines in message");
+				}
+				lineStarts[nLines] = lineStart;
+				lineEnds[nLines] = lineEnd;
+				nLines++;
+				lineStart = position;
+			}
+
+			// Keep the partial message at the start of the buffer
+			if(messageStart > 0) {
+				System.arraycopy(buffer, messageStart, buffer, 0,
+					limit - messageStart);
+				for(int i = 0; i < nLines; i++) {
+					lineStarts[i] -= messageStart;
+					lineEnds[i] -= messageStart;
+				}
+				lineStart -= messageStart;
+				position -= messageStart;
+				limit -= messageStart;
+				messageStart = 0;
+			}
+			if(limit == buffer.length) {
+				if(buffer.length >= MAX_BUFFER_SIZE) {
+					throw new IOException("Message too long");
+				}
+				byte[] larger = new byte[Math.min(2 * buffer.length,
+					MAX_BUFFER_SIZE)];
+				System.arraycopy(buffer, 0, larger, 0, limit);
+				buffer = larger;
+			}
+
+			int n = input.read(buffer, limit, buffer.length - limit);
+			if(n < 0) {
+				return null;
+			}
+			limit += n;
+		}
+	}
+
+	/**
+	 * @return whether more bytes have been received, so that read() can
+	 *         likely return without waiting
+	 */
+	public boolean isReady() throws IOException {
+		return position < limit || input.available() > 0;
+	}
+
+	private KVMessage toMessage() throws IllegalArgumentException {
+		if(nLines == 2 && lineEquals(0, GET)) {
+			message.set(StatusType.GET, line(1), null);
+			return message;
+		}
+		if((nLines == 2 || nLines == 3) && lineEquals(0, PUT)) {
+			message.set(StatusType.PUT, line(1), nLines == 3 ? line(2) : null);
+			return message;
+		}
+
+		String[] lines = new String[nLines];
+		for(int i = 0; i < nLines; i++) {
+			lines[i] = line(i);
+		}
+		return Serialization.unserialize(lines);
+	}
+
+	private boolean lineEquals(int i, byte[] expected) {
+		int length = lineEnds[i] - lineStarts[i];
+		if(length != expected.length) {
+			return false;
+		}
+		for(int j = 0; j < length; j++) {
+			if(buffer[lineStarts[i] + j] != expected[j]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private String line(int i) {
+		return new String(buffer, lineStarts[i], lineEnds[i] - lineStarts[i],
+			StandardCharsets.UTF_8);
+	}
+
+	private static class ReusableMessage implements KVMessage {
+
+		private String key;
+		private String value;
+		private StatusType status;
+
+		void set(StatusType status, String key, String value) {
+			this.status = status;
+			this.key = key;
+			this.value = value;
+		}
+
+		@Override
+		public String getKey() {
+			return key;
+		}
+
+		@Override
+		public String getValue() {
+			return value;
+		}
+
+		@Override
+		public StatusType getStatus() {
+			return status;
+		}
+	}
+}
@@ -2,6 +2,7 @@ package logger;
 
 import java.io.IOException;
 
+import org.apache.log4j.AsyncAppender;
 import org.apache.log4j.ConsoleAppender;
 import org.apache.log4j.FileAppender;
 import org.apache.log4j.Level;
@@ -14,6 +15,13 @@ import org.apache.log4j.PatternLayout;
 public class LogSetup {
 
 	public static final String UNKNOWN_LEVEL = "UnknownLevel";
+
+	/**
+	 * Number of events queued for the background writer in asynchronous
+	 * mode, beyond which further events are discarded
+	 */
+	public static final int ASYNC_BUFFER_SIZE = 8192;
+
 	private static Logger logger = Logger.getRootLogger();
 	private String logdir;
 	
@@ -27,17 +35,45 @@ public class LogSetup {
 	 * @throws IOException if the log destination could not be found.
 	 */
 	public LogSetup(String logdir, Level level) throws IOException {
+		this(logdir, level, false);
+	}
+
+	/**
+	 * Initializes the logging for the echo server, optionally in asynchronous
+	 * mode. In asynchronous mode, logging only queues the event, and a
+	 * background thread writes it out to the console and the log file. When
+	 * the bounded queue is full, events are discarded rather than blocking
+	 * the logging thread, and a summary of the discarded events is logged
+	 * instead.
+	 * 
+	 * @param logdir the destination (i.e. directory + filename) for the 
+	 * 		persistent logging information.
+	 * @param level the lowest level of events to log
+	 * @param isAsync whether to write events out on a background thread
+	 * @throws IOException if the log destination could not be found.
+	 */
+	public LogSetup(String logdir, Level level, boolean isAsync)
+			throws IOException {
 		this.logdir = logdir;
-		initialize(level);
+		initialize(level, isAsync);
 	}
 
-	private void initialize(Level level) throws IOException {
+	private void initialize(Level level, boolean isAsync) throws IOException {
 		PatternLayout layout = new PatternLayout( "%d{ISO8601} %-5p [%t] %c: %m%n" );
 		FileAppender fileAppender = new FileAppender( layout, logdir, true );		
 	    
 	    ConsoleAppender consoleAppender = new ConsoleAppender(layout);
-		logger.addAppender(consoleAppender);
-		logger.addAppender(fileAppender);
+		if(isAsync) {
+			AsyncAppender asyncAppender = new AsyncAppender();
+			asyncAppender.setBufferSize(ASYNC_BUFFER_SIZE);
+			asyncAppender.setBlocking(false);
+			asyncAppender.addAppender(consoleAppender);
+			asyncAppender.addAppender(fileAppender);
+			logger.addAppender(asyncAppender);
+		} else {
+			logger.addAppender(consoleAppender);
+			logger.addAppender(fileAppender);
+		}
 		logger.setLevel(level);
 	}
 	
@@ -18,6 +18,7 @@ public class AllTests {
 			new LogSetup("logs/testing/test.log", Level.ERROR);
 			KVServer kvServer = new KVServer(50000, 10, CacheStrategy.FIFO);
 			kvServer.clearStorage();
+			TestServer.start(kvServer, 50000);
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -25,11 +26,21 @@ public class AllTests {
 	
 	public static Test suite() {
 		TestSuite clientSuite = new TestSuite("Basic Storage ServerTest-Suite");
-		//clientSuite.addTestSuite(ConnectionTest.class);
-		//clientSuite.addTestSuite(InteractionTest.class);
-		//clientSuite.addTestSuite(AdditionalTest.class);
+		clientSuite.addTestSuite(ConnectionTest.class);
+		clientSuite.addTestSuite(InteractionTest.class);
+		clientSuite.addTestSuite(AdditionalTest.class);
 		clientSuite.addTestSuite(ServerTest.class);
 		clientSuite.addTestSuite(ServerCacheTest.class);
+		clientSuite.addTestSuite(CacheTest.class);
+		clientSuite.addTestSuite(BloomFilterTest.class);
+		clientSuite.addTestSuite(LogStorageTest.class);
+		clientSuite.addTestSuite(LoggedStorageTest.class);
+		clientSuite.addTestSuite(ReactorTest.class);
+		clientSuite.addTestSuite(PipelineTest.class);
+		clientSuite.addTestSuite(BinaryProtocolTest.class);
+		clientSuite.addTestSuite(KVStorePoolTest.class);
+		clientSuite.addTestSuite(ScanTest.class);
+		clientSuite.addTestSuite(SerializationTest.class);
 		return clientSuite;
 	}
 }
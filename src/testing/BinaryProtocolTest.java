@@ -0,0 +1,116 @@
+package testing;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import app_kvServer.KVServer;
+import app_kvServer.IKVServer.CacheStrategy;
+import app_kvServer.IKVServer.ConnectionMode;
+import client.KVStore;
+import common.messages.KVMessage;
+import common.messages.KVMessageImpl;
+import common.messages.KVMessage.StatusType;
+import junit.framework.TestCase;
+import serialization.BinarySerialization;
+
+public class BinaryProtocolTest extends TestCase {
+
+	private static final int PORT = 50012;
+
+	@Test
+	public void testPartialFrame() {
+		KVMessage incomplete = null;
+		KVMessage complete = null;
+		Exception ex = null;
+
+		try {
+			byte[] frame = BinarySerialization.serialize(
+				new KVMessageImpl("foo", "bar\nbaz", StatusType.PUT));
+			ByteBuffer buffer = ByteBuffer.wrap(frame, 0, frame.length - 1);
+			incomplete = BinarySerialization.unserialize(buffer);
+			buffer.limit(frame.length);
+			complete = BinarySerialization.unserialize(buffer);
+		} catch (Exception e) {
+			ex = e;
+		}
+
+		assertTrue(ex == null && incomplete == null &&
+			complete.getStatus() == StatusType.PUT &&
+			complete.getKey().equals("foo") &&
+			complete.getValue().equals("bar\nbaz"));
+	}
+
+	@Test
+	public void testThreadPerConnection() {
+		assertTrue(roundTrip(ConnectionMode.ThreadPerConnection));
+	}
+
+	@Test
+	public void testReactor() {
+		assertTrue(roundTrip(ConnectionMode.Reactor));
+	}
+
+	/**
+	 * Puts, reads back and deletes keys, one at a time and in batches, over
+	 * the binary protocol against a server in the given mode
+	 * @return whether every response was as expected
+	 */
+	private boolean roundTrip(ConnectionMode connectionMode) {
+		KVServer kvServer = new KVServer(PORT, 10, CacheStrategy.LRU);
+		kvServer.setConnectionMode(connectionMode, 2);
+		kvServer.clearStorage();
+		TestServer server = TestServer.start(kvServer, PORT);
+
+		boolean isMatching = false;
+		try {
+			KVStore kvClient = new KVStore("localhost", PORT);
+			kvClient.setBinaryProtocol(true);
+			kvClient.connect();
+
+			List<KVMessage> requests = new ArrayList<KVMessage>();
+			requests.add(new KVMessageImpl("foo", "multi\nline",
+				StatusType.PUT));
+			requests.add(new KVMessageImpl("foo", null, StatusType.GET));
+			requests.add(new KVMessageImpl("foo", null, StatusType.PUT));
+			requests.add(new KVMessageImpl("foo", null, StatusType.GET));
+			List<KVMessage> responses = kvClient.pipeline(requests);
+
+			Map<String, String> entries = new LinkedHashMap<String, String>();
+			entries.put("a", "first\nvalue");
+			entries.put("b", "second");
+			List<KVMessage> puts = kvClient.multiPut(entries);
+			List<KVMessage> gets = kvClient.multiGet(
+				Arrays.asList("a", "foo", "b"));
+			kvClient.disconnect();
+
+			isMatching =
+				responses.get(0).getStatus() == StatusType.PUT_SUCCESS &&
+				responses.get(1).getStatus() == StatusType.GET_SUCCESS &&
+				responses.get(1).getValue().equals("multi\nline") &&
+				responses.get(2).getStatus() == StatusType.DELETE_SUCCESS &&
+				responses.get(3).getStatus() == StatusType.GET_ERROR &&
+				responses.get(3).getKey() == null &&
+				puts.get(0).getStatus() == StatusType.PUT_SUCCESS &&
+				puts.get(1).getStatus() == StatusType.PUT_SUCCESS &&
+				gets.get(0).getValue().equals("first\nvalue") &&
+				gets.get(1).getStatus() == StatusType.GET_ERROR &&
+				gets.get(2).getValue().equals("second");
+		} catch (Exception e) {
+			isMatching = false;
+		} finally {
+			kvServer.clearStorage();
+			try {
+				server.stop();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return isMatching;
+	}
+}
@@ -0,0 +1,68 @@
+package testing;
+
+import org.junit.Test;
+
+import cached_storage.CountingBloomFilter;
+import junit.framework.TestCase;
+
+public class BloomFilterTest extends TestCase {
+
+	@Test
+	public void testNoFalseNegatives() {
+		int nKeys = 10000;
+		CountingBloomFilter filter = new CountingBloomFilter(nKeys, 0.01);
+		boolean containsAll = true;
+		int nFalsePositives = 0;
+
+		for(int i = 0; i < nKeys; i++) {
+			filter.add("key" + i);
+		}
+		for(int i = 0; i < nKeys; i++) {
+			containsAll &= filter.mightContain("key" + i);
+			if(filter.mightContain("missing" + i)) {
+				nFalsePositives++;
+			}
+		}
+
+		// Allow for chance around the 1% the filter was sized for
+		assertTrue(containsAll && nFalsePositives < nKeys * 0.02 &&
+			filter.size() == nKeys);
+	}
+
+	@Test
+	public void testRemove() {
+		CountingBloomFilter filter = new CountingBloomFilter(1000, 0.01);
+		boolean keptOther = true;
+		int nStillContained = 0;
+
+		for(int i = 0; i < 1000; i++) {
+			filter.add("key" + i);
+		}
+		for(int i = 0; i < 1000; i += 2) {
+			filter.remove("key" + i);
+		}
+		for(int i = 0; i < 1000; i++) {
+			if(i % 2 == 1) {
+				keptOther &= filter.mightContain("key" + i);
+			} else if(filter.mightContain("key" + i)) {
+				nStillContained++;
+			}
+		}
+
+		assertTrue(keptOther && nStillContained < 50 && filter.size() == 500);
+	}
+
+	@Test
+	public void testSaturatedCountersStay() {
+		// Far more keys than counters, so every counter saturates
+		CountingBloomFilter filter = new CountingBloomFilter(1, 0.5);
+		for(int i = 0; i < 1000; i++) {
+			filter.add("key" + i);
+		}
+		for(int i = 0; i < 999; i++) {
+			filter.remove("key" + i);
+		}
+
+		assertTrue(filter.mightContain("key999"));
+	}
+}
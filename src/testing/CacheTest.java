@@ -0,0 +1,287 @@
+package testing;
+
+import org.junit.Test;
+
+import cache.ClockCache;
+import cache.EntryWeight;
+import cache.FIFOCache;
+import cache.ICache;
+import cache.LFUCache;
+import cache.LRUCache;
+import cache.NegativeCache;
+import junit.framework.TestCase;
+
+public class CacheTest extends TestCase {
+
+	@Test
+	public void testLruEvictsLeastRecentlyUsed() {
+		ICache cache = new LRUCache(3);
+		boolean evictedOldest = false, keptTouched = false;
+		Exception ex = null;
+
+		try {
+			cache.putKV("key1", "value");
+			cache.putKV("key2", "value");
+			cache.putKV("key3", "value");
+			cache.getKV("key1");
+			cache.putKV("key2", "updated");
+			cache.putKV("key4", "value");
+			evictedOldest = !cache.inCache("key3");
+			keptTouched = cache.inCache("key1") && cache.inCache("key2") &&
+				"updated".equals(cache.getKV("key2"));
+		} catch (Exception e) {
+			ex = e;
+		}
+
+		assertTrue(ex == null && evictedOldest && keptTouched);
+	}
+
+	@Test
+	public void testLruDeleteFreesSlot() {
+		ICache cache = new LRUCache(2);
+		boolean inCache = false;
+		Exception ex = null;
+
+		try {
+			cache.putKV("key1", "value");
+			cache.putKV("key2", "value");
+			cache.deleteKV("key1");
+			cache.deleteKV("missing");
+			cache.putKV("key3", "value");
+			inCache = cache.inCache("key2") && cache.inCache("key3");
+		} catch (Exception e) {
+			ex = e;
+		}
+
+		assertTrue(ex == null && inCache && !cache.inCache("key1"));
+	}
+
+	@Test
+	public void testLfuBreaksTiesByRecency() {
+		ICache cache = new LFUCache(3);
+		boolean evictedOldestTie = false, keptFrequent = false;
+		Exception ex = null;
+
+		try {
+			cache.putKV("key1", "value");
+			cache.putKV("key2", "value");
+			cache.putKV("key3", "value");
+			cache.getKV("key1");
+			cache.getKV("key1");
+			cache.getKV("key2");
+			cache.getKV("key3");
+			cache.putKV("key4", "value");
+			evictedOldestTie = !cache.inCache("key2") && cache.inCache("key3");
+			keptFrequent = cache.inCache("key1") && cache.inCache("key4");
+		} catch (Exception e) {
+			ex = e;
+		}
+
+		assertTrue(ex == null && evictedOldestTie && keptFrequent);
+	}
+
+	@Test
+	public void testLfuAgingUnpinsFormerlyHotKey() {
+		ICache unaged = new LFUCache(2);
+		ICache aged = new LFUCache(2, 4);
+		boolean pinned = false, unpinned = false;
+		Exception ex = null;
+
+		try {
+			for(ICache cache : new ICache[] { unaged, aged }) {
+				cache.putKV("old", "value");
+				for(int i = 0; i < 8; i++) {
+					cache.getKV("old");
+				}
+				cache.putKV("new", "value");
+				for(int i = 0; i < 6; i++) {
+					cache.getKV("new");
+				}
+				cache.putKV("newer", "value");
+			}
+			pinned = unaged.inCache("old") && !unaged.inCache("new");
+			unpinned = !aged.inCache("old") && aged.inCache("new");
+		} catch (Exception e) {
+			ex = e;
+		}
+
+		assertTrue(ex == null && pinned && unpinned);
+	}
+
+	@Test
+	public void testFifoEvictsInInsertionOrder() {
+		ICache cache = new FIFOCache(2);
+		boolean evictedFirst = false;
+		Exception ex = null;
+
+		try {
+			cache.putKV("key1", "value");
+			cache.putKV("key2", "value");
+			cache.putKV("key1", "updated");
+			cache.getKV("key1");
+			cache.putKV("key3", "value");
+			evictedFirst = !cache.inCache("key1") && cache.inCache("key2") &&
+				cache.inCache("key3");
+		} catch (Exception e) {
+			ex = e;
+		}
+
+		assertTrue(ex == null && evictedFirst);
+	}
+
+	@Test
+	public void testFifoDeleteMissingKeepsCapacity() {
+		ICache cache = new FIFOCache(2);
+		boolean inCache = false;
+		Exception ex = null;
+
+		try {
+			cache.putKV("key1", "value");
+			cache.deleteKV("missing");
+			cache.deleteKV("missing");
+			cache.putKV("key2", "value");
+			cache.putKV("key3", "value");
+			inCache = !cache.inCache("key1") && cache.inCache("key2") &&
+				cache.inCache("key3");
+		} catch (Exception e) {
+			ex = e;
+		}
+
+		assertTrue(ex == null && inCache);
+	}
+
+	@Test
+	public void testClockSecondChance() {
+		ICache cache = new ClockCache(3);
+		boolean evictedUnreferenced = false, keptReferenced = false;
+		Exception ex = null;
+
+		try {
+			cache.putKV("key1", "value");
+			cache.putKV("key2", "value");
+			cache.putKV("key3", "value");
+			cache.getKV("key1");
+			cache.getKV("key3");
+			cache.putKV("key4", "value");
+			cache.deleteKV("key3");
+			cache.putKV("key5", "value");
+			evictedUnreferenced = !cache.inCache("key2");
+			keptReferenced = cache.inCache("key1") && cache.inCache("key4") &&
+				cache.inCache("key5") && "value".equals(cache.getKV("key5"));
+		} catch (Exception e) {
+			ex = e;
+		}
+
+		assertTrue(ex == null && evictedUnreferenced && keptReferenced);
+	}
+
+	@Test
+	public void testByteBudgetEvictsUntilEntryFits() {
+		ICache cache = new LRUCache(100);
+		String small = "0123456789";
+		String large = new String(new char[200]).replace('\0', 'x');
+		long smallWeight = EntryWeight.of("key1", small);
+		boolean evictedLru = false, skippedOversized = false;
+		boolean withinBudget = false;
+		Exception ex = null;
+
+		try {
+			cache.setMaxBytes(2 * smallWeight + 10);
+			cache.putKV("key1", small);
+			cache.putKV("key2", small);
+			cache.getKV("key1");
+			cache.putKV("key3", small);
+			evictedLru = !cache.inCache("key2") && cache.inCache("key1") &&
+				cache.inCache("key3");
+			cache.putKV("key4", large);
+			skippedOversized = !cache.inCache("key4") &&
+				cache.getSizeBytes() == 2 * smallWeight;
+			cache.deleteKV("key1");
+			withinBudget = cache.getSizeBytes() == smallWeight;
+		} catch (Exception e) {
+			ex = e;
+		}
+
+		assertTrue(ex == null && evictedLru && skippedOversized &&
+			withinBudget);
+	}
+
+	@Test
+	public void testClockByteBudgetGrowsRing() {
+		ICache cache = new ClockCache(1);
+		int nKeys = 200;
+		boolean keptAll = true, evicted = false;
+		Exception ex = null;
+
+		try {
+			cache.setMaxBytes(nKeys * EntryWeight.of("key100", "value"));
+			for(int i = 100; i < 100 + nKeys; i++) {
+				cache.putKV("key" + i, "value");
+			}
+			for(int i = 100; i < 100 + nKeys; i++) {
+				keptAll &= cache.inCache("key" + i);
+			}
+			cache.putKV("key300", "value");
+			evicted = cache.inCache("key300") &&
+				cache.getSizeBytes() <= nKeys * EntryWeight.of("key100",
+				"value");
+		} catch (Exception e) {
+			ex = e;
+		}
+
+		assertTrue(ex == null && keptAll && evicted);
+	}
+
+	@Test
+	public void testNegativeCacheExpires() {
+		NegativeCache cache = new NegativeCache(10, 50);
+		boolean missingBefore = false, missingAfter = true;
+		Exception ex = null;
+
+		try {
+			cache.addMissing("key1");
+			missingBefore = cache.isMissing("key1");
+			Thread.sleep(100);
+			missingAfter = cache.isMissing("key1");
+		} catch (Exception e) {
+			ex = e;
+		}
+
+		assertTrue(ex == null && missingBefore && !missingAfter);
+	}
+
+	@Test
+	public void testNegativeCacheBoundedAndInvalidated() {
+		NegativeCache cache = new NegativeCache(3, 60000);
+
+		cache.addMissing("key1");
+		cache.addMissing("key2");
+		cache.addMissing("key3");
+		cache.addMissing("key4");
+		cache.invalidate("key3");
+
+		assertTrue(!cache.isMissing("key1") && cache.isMissing("key2") &&
+			!cache.isMissing("key3") && cache.isMissing("key4"));
+	}
+
+	@Test
+	public void testNegativeCacheReAddedKeyKept() {
+		NegativeCache cache = new NegativeCache(3, 60000);
+
+		cache.addMissing("key1");
+		cache.invalidate("key1");
+		cache.addMissing("key1");
+		cache.addMissing("key2");
+		// Evicts the stale pair of key1, not its current entry
+		cache.addMissing("key3");
+		boolean keptReAdded = cache.isMissing("key1");
+
+		cache.clear();
+		cache.addMissing("key4");
+		cache.addMissing("key5");
+		cache.addMissing("key6");
+
+		assertTrue(keptReAdded && cache.isMissing("key4") &&
+			cache.isMissing("key5") && cache.isMissing("key6"));
+	}
+}
@@ -0,0 +1,206 @@
+package testing;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import app_kvServer.KVServer;
+import app_kvServer.IKVServer.CacheStrategy;
+import app_kvServer.IKVServer.ConnectionMode;
+import client.KVStorePool;
+import common.messages.KVMessage;
+import common.messages.KVMessage.StatusType;
+import junit.framework.TestCase;
+
+public class KVStorePoolTest extends TestCase {
+
+	private static final int PORT = 50013;
+
+	private KVServer kvServer;
+	private TestServer server;
+
+	public void setUp() throws Exception {
+		startServer();
+		kvServer.clearStorage();
+	}
+
+	public void tearDown() throws Exception {
+		kvServer.clearStorage();
+		stopServer();
+	}
+
+	@Test
+	public void testConcurrentRequests() {
+		final int nThreads = 8;
+		final int nKeys = 50;
+		final KVStorePool pool = new KVStorePool("localhost", PORT, 1, 4,
+			KVStorePool.DEFAULT_IDLE_TIMEOUT_MS);
+		final boolean[] isMatching = new boolean[nThreads];
+		Exception ex = null;
+
+		try {
+			pool.connect();
+			List<Thread> threads = new ArrayList<Thread>();
+			for(int t = 0; t < nThreads; t++) {
+				final int thread = t;
+				threads.add(new Thread() {
+					public void run() {
+						boolean matches = true;
+						try {
+							for(int i = 0; i < nKeys; i++) {
+								String key = "key" + thread + "-" + i;
+								matches &= pool.put(key, "value" + i)
+									.getStatus() == StatusType.PUT_SUCCESS;
+								matches &= pool.get(key).getValue()
+									.equals("value" + i);
+							}
+						} catch (Exception e) {
+							matches = false;
+						}
+						isMatching[thread] = matches;
+					}
+				});
+			}
+			for(Thread thread : threads) {
+				thread.start();
+			}
+			for(Thread thread : threads) {
+				thread.join();
+			}
+		} catch (Exception e) {
+			ex = e;
+		}
+		boolean openWithinLimit = pool.getOpenConnections() <= 4;
+		pool.disconnect();
+
+		boolean allMatching = true;
+		for(boolean matches : isMatching) {
+			allMatching &= matches;
+		}
+		assertTrue(ex == null && allMatching && openWithinLimit);
+	}
+
+	@Test
+	public void testNoTimeoutWaitsForConnection() {
+		final int nThreads = 4;
+		final KVStorePool pool = new KVStorePool("localhost", PORT, 1, 1,
+			KVStorePool.DEFAULT_IDLE_TIMEOUT_MS);
+		final boolean[] succeeded = new boolean[nThreads];
+		Exception ex = null;
+
+		try {
+			pool.setTimeout(0);
+			pool.connect();
+			List<Thread> threads = new ArrayList<Thread>();
+			for(int t = 0; t < nThreads; t++) {
+				final int thread = t;
+				threads.add(new Thread() {
+					public void run() {
+						boolean success = true;
+						try {
+							for(int i = 0; i < 20; i++) {
+								success &= pool.put("key" + thread,
+									"value" + i).getStatus() !=
+									StatusType.PUT_ERROR;
+							}
+						} catch (Exception e) {
+							success = false;
+						}
+						succeeded[thread] = success;
+					}
+				});
+			}
+			for(Thread thread : threads) {
+				thread.start();
+			}
+			for(Thread thread : threads) {
+				thread.join();
+			}
+		} catch (Exception e) {
+			ex = e;
+		}
+		pool.disconnect();
+
+		boolean allSucceeded = true;
+		for(boolean success : succeeded) {
+			allSucceeded &= success;
+		}
+		assertTrue(ex == null && allSucceeded);
+	}
+
+	@Test
+	public void testReconnect() {
+		KVMessage response = null;
+		Exception ex = null;
+
+		KVStorePool pool = new KVStorePool("localhost", PORT);
+		try {
+			pool.connect();
+			pool.put("foo", "bar");
+
+			// Connections in the pool are lost along with the server
+			stopServer();
+			startServer();
+
+			response = pool.get("foo");
+		} catch (Exception e) {
+			ex = e;
+		}
+		pool.disconnect();
+
+		assertTrue(ex == null && response.getValue().equals("bar"));
+	}
+
+	@Test
+	public void testIdleEviction() {
+		final int nThreads = 4;
+		final KVStorePool pool = new KVStorePool("localhost", PORT, 1, 4, 100);
+		int nBusy = 0;
+		Exception ex = null;
+
+		try {
+			pool.connect();
+			// Several requests at once need several connections
+			List<Thread> threads = new ArrayList<Thread>();
+			for(int t = 0; t < nThreads; t++) {
+				threads.add(new Thread() {
+					public void run() {
+						try {
+							for(int i = 0; i < 20; i++) {
+								pool.put("foo", "bar");
+							}
+						} catch (Exception e) {
+							// Checked through the connection count
+						}
+					}
+				});
+			}
+			for(Thread thread : threads) {
+				thread.start();
+			}
+			for(Thread thread : threads) {
+				thread.join();
+			}
+			nBusy = pool.getOpenConnections();
+			Thread.sleep(500);
+		} catch (Exception e) {
+			ex = e;
+		}
+		int nIdle = pool.getOpenConnections();
+		pool.disconnect();
+
+		assertTrue(ex == null && nBusy > 1 && nIdle == 1);
+	}
+
+	private void startServer() throws Exception {
+		kvServer = new KVServer(PORT, 10, CacheStrategy.LRU);
+		// Closes client connections when the server is closed
+		kvServer.setConnectionMode(ConnectionMode.Reactor, 0);
+		server = TestServer.start(kvServer, PORT);
+	}
+
+	private void stopServer() throws Exception {
+		server.stop();
+	}
+}
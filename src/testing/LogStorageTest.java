@@ -0,0 +1,258 @@
+package testing;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import junit.framework.TestCase;
+import storage.LogStorage;
+
+public class LogStorageTest extends TestCase {
+
+	private static final String ROOT_DIR = "testdata/log";
+	private static final long SEGMENT_SIZE = 256;
+
+	private LogStorage storage;
+
+	public void setUp() throws Exception {
+		storage = new LogStorage(ROOT_DIR, SEGMENT_SIZE);
+		storage.clear();
+	}
+
+	public void tearDown() throws Exception {
+		storage.clear();
+	}
+
+	@Test
+	public void testPutGet() {
+		String value = null;
+		Exception ex = null;
+
+		try {
+			storage.putKV("foo", "bar");
+			value = storage.getKV("foo");
+		} catch (Exception e) {
+			ex = e;
+		}
+
+		assertTrue(ex == null && "bar".equals(value) &&
+			storage.inStorage("foo"));
+	}
+
+	@Test
+	public void testUpdateDelete() {
+		String value = null;
+		boolean inStorage = true;
+		Exception ex = null;
+
+		try {
+			storage.putKV("foo", "bar");
+			storage.putKV("foo", "baz");
+			value = storage.getKV("foo");
+			storage.deleteKV("foo");
+			inStorage = storage.inStorage("foo");
+		} catch (Exception e) {
+			ex = e;
+		}
+
+		assertTrue(ex == null && "baz".equals(value) && !inStorage);
+	}
+
+	@Test
+	public void testDeleteMissing() {
+		Exception ex = null;
+
+		try {
+			storage.deleteKV("missing");
+		} catch (Exception e) {
+			ex = e;
+		}
+
+		assertTrue(ex instanceof FileNotFoundException);
+	}
+
+	@Test
+	public void testRecoveryAcrossSegments() {
+		String value1 = null, value2 = null;
+		boolean inStorage = true;
+		Exception ex = null;
+
+		try {
+			for(int i = 0; i < 50; i++) {
+				storage.putKV("key" + i, "value" + i);
+			}
+			storage.putKV("key7", "updated");
+			storage.deleteKV("key8");
+
+			LogStorage reopened = new LogStorage(ROOT_DIR, SEGMENT_SIZE);
+			value1 = reopened.getKV("key7");
+			value2 = reopened.getKV("key49");
+			inStorage = reopened.inStorage("key8");
+		} catch (Exception e) {
+			ex = e;
+		}
+
+		assertTrue(ex == null && "updated".equals(value1) &&
+			"value49".equals(value2) && !inStorage &&
+			new File(ROOT_DIR).list().length > 1);
+	}
+
+	@Test
+	public void testPutBatch() {
+		String value1 = null, value2 = null, reopenedValue = null;
+		Exception ex = null;
+
+		try {
+			storage.putKV("key0", "old");
+			Map<String, String> entries = new LinkedHashMap<String, String>();
+			for(int i = 0; i < 20; i++) {
+				entries.put("key" + i, "value" + i);
+			}
+			storage.putKVs(entries);
+			value1 = storage.getKV("key0");
+			value2 = storage.getKV("key19");
+
+			LogStorage reopened = new LogStorage(ROOT_DIR, SEGMENT_SIZE);
+			reopenedValue = reopened.getKV("key10");
+		} catch (Exception e) {
+			ex = e;
+		}
+
+		assertTrue(ex == null && "value0".equals(value1) &&
+			"value19".equals(value2) && "value10".equals(reopenedValue));
+	}
+
+	@Test
+	public void testRecoveryTruncatesTornRecord() {
+		String value = null;
+		Exception ex = null;
+
+		try {
+			storage.putKV("foo", "bar");
+
+			// Simulate a crash midway through appending a record
+			String[] segments = new File(ROOT_DIR).list();
+			FileOutputStream out = new FileOutputStream(
+				new File(ROOT_DIR, segments[0]), true);
+			out.write(new byte[] { 1, 2, 3, 4, 0, 0 });
+			out.close();
+
+			LogStorage reopened = new LogStorage(ROOT_DIR, SEGMENT_SIZE);
+			reopened.putKV("after", "crash");
+			reopened = new LogStorage(ROOT_DIR, SEGMENT_SIZE);
+			value = reopened.getKV("foo") + reopened.getKV("after");
+		} catch (Exception e) {
+			ex = e;
+		}
+
+		assertTrue(ex == null && "barcrash".equals(value));
+	}
+
+	@Test
+	public void testCompactionReclaimsSpace() {
+		int segmentsBefore = 0, segmentsAfter = 0;
+		String value1 = null, value2 = null;
+		boolean inStorage1 = true, inStorage2 = true;
+		Exception ex = null;
+
+		try {
+			for(int round = 0; round < 20; round++) {
+				for(int i = 0; i < 5; i++) {
+					storage.putKV("key" + i, "value" + round);
+				}
+			}
+			storage.deleteKV("key3");
+			segmentsBefore = storage.getSegmentCount();
+
+			storage.compact();
+			segmentsAfter = storage.getSegmentCount();
+			value1 = storage.getKV("key0");
+			inStorage1 = storage.inStorage("key3");
+
+			LogStorage reopened = new LogStorage(ROOT_DIR, SEGMENT_SIZE);
+			value2 = reopened.getKV("key4");
+			inStorage2 = reopened.inStorage("key3");
+		} catch (Exception e) {
+			ex = e;
+		}
+
+		assertTrue(ex == null && segmentsAfter < segmentsBefore &&
+			"value19".equals(value1) && "value19".equals(value2) &&
+			!inStorage1 && !inStorage2);
+	}
+
+	@Test
+	public void testCompactionReclaimsTombstones() {
+		int segmentsBefore = 0, segmentsAfter = 0;
+		boolean deletedKept = true;
+		Exception ex = null;
+
+		try {
+			for(int i = 0; i < 20; i++) {
+				storage.putKV("key" + i, "value" + i);
+			}
+			// Fills sealed segments with tombstones alone
+			for(int i = 0; i < 20; i++) {
+				storage.deleteKV("key" + i);
+			}
+			storage.putKV("last", "value");
+			segmentsBefore = storage.getSegmentCount();
+
+			storage.startCompaction(0.9, 0);
+			for(int i = 0; i < 100 && storage.getSegmentCount() > 1; i++) {
+				Thread.sleep(20);
+			}
+			segmentsAfter = storage.getSegmentCount();
+			storage.close();
+
+			LogStorage reopened = new LogStorage(ROOT_DIR, SEGMENT_SIZE);
+			for(int i = 0; i < 20; i++) {
+				deletedKept &= !reopened.inStorage("key" + i);
+			}
+			deletedKept &= "value".equals(reopened.getKV("last"));
+			storage = reopened;
+		} catch (Exception e) {
+			ex = e;
+		}
+
+		assertTrue(ex == null && segmentsBefore > 2 && segmentsAfter == 1 &&
+			deletedKept);
+	}
+
+	@Test
+	public void testCompactionKeepsRelocatedRecords() {
+		boolean allKept = true, deletedKept = true;
+		Exception ex = null;
+
+		try {
+			for(int i = 0; i < 30; i++) {
+				storage.putKV("key" + i, "value" + i);
+			}
+			for(int i = 0; i < 30; i += 3) {
+				storage.deleteKV("key" + i);
+			}
+			storage.putKV("key1", "updated");
+			storage.compact();
+			storage.close();
+
+			LogStorage reopened = new LogStorage(ROOT_DIR, SEGMENT_SIZE);
+			for(int i = 0; i < 30; i++) {
+				if(i % 3 == 0) {
+					deletedKept &= !reopened.inStorage("key" + i);
+				} else {
+					allKept &= (i == 1 ? "updated" : "value" + i).equals(
+						reopened.getKV("key" + i));
+				}
+			}
+			storage = reopened;
+		} catch (Exception e) {
+			ex = e;
+		}
+
+		assertTrue(ex == null && allKept && deletedKept);
+	}
+}
@@ -0,0 +1,124 @@
+package testing;
+
+import java.io.File;
+
+import org.junit.Test;
+
+import app_kvServer.IKVServer.Durability;
+import junit.framework.TestCase;
+import storage.LoggedStorage;
+import storage.Storage;
+
+public class LoggedStorageTest extends TestCase {
+
+	private static final String ROOT_DIR = "testdata/wal";
+	private static final File LOG_FILE = new File("testdata/wal.wal");
+
+	private Storage files;
+	private LoggedStorage storage;
+
+	public void setUp() throws Exception {
+		files = new Storage(ROOT_DIR);
+		files.clear();
+		LOG_FILE.delete();
+	}
+
+	public void tearDown() throws Exception {
+		if(storage != null) {
+			storage.close();
+		}
+		files.clear();
+		LOG_FILE.delete();
+	}
+
+	@Test
+	public void testReplayAfterCrash() {
+		String value = null;
+		boolean inStorage = true;
+		Exception ex = null;
+
+		try {
+			LoggedStorage crashed = new LoggedStorage(files, LOG_FILE,
+				Durability.EveryWrite, 0);
+			crashed.putKV("foo", "bar");
+			crashed.putKV("gone", "soon");
+			crashed.deleteKV("gone");
+
+			// Lose everything but the log, then reopen without closing
+			files.clear();
+			storage = new LoggedStorage(new Storage(ROOT_DIR), LOG_FILE,
+				Durability.EveryWrite, 0);
+			value = storage.getKV("foo");
+			inStorage = storage.inStorage("gone");
+		} catch (Exception e) {
+			ex = e;
+		}
+
+		assertTrue(ex == null && "bar".equals(value) && !inStorage &&
+			LOG_FILE.length() == 0);
+	}
+
+	@Test
+	public void testConcurrentGroupCommit() {
+		final int nThreads = 8;
+		final int nPuts = 50;
+		int nFound = 0;
+		Exception ex = null;
+
+		try {
+			storage = new LoggedStorage(files, LOG_FILE,
+				Durability.EveryWrite, 0);
+			Thread[] threads = new Thread[nThreads];
+			for(int i = 0; i < nThreads; i++) {
+				final int thread = i;
+				threads[i] = new Thread() {
+					public void run() {
+						try {
+							for(int j = 0; j < nPuts; j++) {
+								storage.putKV("key" + thread + "-" + j, "v");
+							}
+						} catch (Exception e) {
+							// Detected as missing keys below
+						}
+					}
+				};
+				threads[i].start();
+			}
+			for(Thread thread : threads) {
+				thread.join();
+			}
+			for(int i = 0; i < nThreads; i++) {
+				for(int j = 0; j < nPuts; j++) {
+					if(storage.inStorage("key" + i + "-" + j)) {
+						nFound++;
+					}
+				}
+			}
+		} catch (Exception e) {
+			ex = e;
+		}
+
+		assertTrue(ex == null && nFound == nThreads * nPuts);
+	}
+
+	@Test
+	public void testCheckpointEmptiesLog() {
+		long checkpointBytes = 512;
+		String value = null;
+		Exception ex = null;
+
+		try {
+			storage = new LoggedStorage(files, LOG_FILE, Durability.Batched,
+				1, checkpointBytes);
+			for(int i = 0; i < 100; i++) {
+				storage.putKV("key", "value" + i);
+			}
+			value = storage.getKV("key");
+		} catch (Exception e) {
+			ex = e;
+		}
+
+		assertTrue(ex == null && "value99".equals(value) &&
+			LOG_FILE.length() < checkpointBytes);
+	}
+}
@@ -0,0 +1,233 @@
+package testing;
+
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+
+import app_kvServer.KVServer;
+import app_kvServer.IKVServer.CacheStrategy;
+import client.KVStore;
+import common.messages.KVMessage;
+import common.messages.KVMessageImpl;
+import common.messages.KVMessage.StatusType;
+import junit.framework.TestCase;
+
+public class PipelineTest extends TestCase {
+
+	private static final int PORT = 50011;
+
+	private KVServer kvServer;
+	private TestServer server;
+
+	public void setUp() throws Exception {
+		kvServer = new KVServer(PORT, 10, CacheStrategy.LRU);
+		kvServer.clearStorage();
+		server = TestServer.start(kvServer, PORT);
+	}
+
+	public void tearDown() throws Exception {
+		kvServer.clearStorage();
+		server.stop();
+	}
+
+	@Test
+	public void testNonAsciiRoundTrip() {
+		String key = "k\u00e4se";
+		String value = "sch\u00f6n \u20ac";
+		KVMessage response = null;
+		Exception ex = null;
+
+		try {
+			KVStore kvClient = new KVStore("localhost", PORT);
+			kvClient.connect();
+			kvClient.put(key, value);
+			response = kvClient.get(key);
+			kvClient.disconnect();
+		} catch (Exception e) {
+			ex = e;
+		}
+
+		assertTrue(ex == null && response.getKey().equals(key) &&
+			response.getValue().equals(value));
+	}
+
+	@Test
+	public void testResponsesMatchRequests() {
+		int nKeys = 200;
+		boolean isMatching = true;
+		Exception ex = null;
+
+		try {
+			// Window smaller than the batch, so sending has to wait on it
+			KVStore kvClient = new KVStore("localhost", PORT, 8);
+			kvClient.connect();
+
+			List<KVMessage> requests = new ArrayList<KVMessage>();
+			for(int i = 0; i < nKeys; i++) {
+				requests.add(new KVMessageImpl("key" + i, "value" + i,
+					StatusType.PUT));
+			}
+			for(int i = 0; i < nKeys; i++) {
+				requests.add(new KVMessageImpl("key" + i, null,
+					StatusType.GET));
+			}
+			List<KVMessage> responses = kvClient.pipeline(requests);
+			kvClient.disconnect();
+
+			for(int i = 0; i < nKeys; i++) {
+				KVMessage put = responses.get(i);
+				KVMessage get = responses.get(nKeys + i);
+				isMatching &= put.getStatus() == StatusType.PUT_SUCCESS &&
+					put.getKey().equals("key" + i) &&
+					get.getStatus() == StatusType.GET_SUCCESS &&
+					get.getValue().equals("value" + i);
+			}
+		} catch (Exception e) {
+			ex = e;
+		}
+
+		assertTrue(ex == null && isMatching);
+	}
+
+	@Test
+	public void testMultiGetMultiPut() {
+		// More keys than fit in one batch
+		int nKeys = 2500;
+		boolean isMatching = true;
+		Exception ex = null;
+
+		try {
+			KVStore kvClient = new KVStore("localhost", PORT);
+			kvClient.connect();
+			kvClient.put("key0", "old");
+
+			Map<String, String> entries = new LinkedHashMap<String, String>();
+			List<String> keys = new ArrayList<String>();
+			for(int i = 0; i < nKeys; i++) {
+				entries.put("key" + i, "value" + i);
+				keys.add("key" + i);
+			}
+			keys.add("missing");
+			List<KVMessage> puts = kvClient.multiPut(entries);
+			List<KVMessage> gets = kvClient.multiGet(keys);
+			kvClient.disconnect();
+
+			isMatching = puts.size() == nKeys && gets.size() == nKeys + 1 &&
+				puts.get(0).getStatus() == StatusType.PUT_UPDATE &&
+				gets.get(nKeys).getStatus() == StatusType.GET_ERROR;
+			for(int i = 1; i < nKeys; i++) {
+				isMatching &= puts.get(i).getStatus() == StatusType.PUT_SUCCESS;
+			}
+			for(int i = 0; i < nKeys; i++) {
+				isMatching &= gets.get(i).getStatus() == StatusType.GET_SUCCESS &&
+					gets.get(i).getKey().equals("key" + i) &&
+					gets.get(i).getValue().equals("value" + i);
+			}
+		} catch (Exception e) {
+			ex = e;
+		}
+
+		assertTrue(ex == null && isMatching);
+	}
+
+	@Test
+	public void testPipelineDisconnected() {
+		Exception ex = null;
+
+		try {
+			KVStore kvClient = new KVStore("localhost", PORT);
+			kvClient.connect();
+			kvClient.disconnect();
+
+			List<KVMessage> requests = new ArrayList<KVMessage>();
+			requests.add(new KVMessageImpl("foo", null, StatusType.GET));
+			kvClient.pipeline(requests);
+		} catch (Exception e) {
+			ex = e;
+		}
+
+		assertNotNull(ex);
+	}
+
+	@Test
+	public void testAsyncFanOut() {
+		int nKeys = 100;
+		boolean isMatching = true;
+		Exception ex = null;
+
+		try {
+			KVStore kvClient = new KVStore("localhost", PORT, 16);
+			kvClient.connect();
+
+			List<CompletableFuture<KVMessage>> puts =
+				new ArrayList<CompletableFuture<KVMessage>>();
+			for(int i = 0; i < nKeys; i++) {
+				puts.add(kvClient.putAsync("key" + i, "value" + i));
+			}
+			List<CompletableFuture<KVMessage>> gets =
+				new ArrayList<CompletableFuture<KVMessage>>();
+			for(int i = 0; i < nKeys; i++) {
+				gets.add(kvClient.getAsync("key" + i));
+			}
+			CompletableFuture.allOf(gets.toArray(
+				new CompletableFuture<?>[0])).get();
+			kvClient.disconnect();
+
+			for(int i = 0; i < nKeys; i++) {
+				isMatching &=
+					puts.get(i).get().getStatus() == StatusType.PUT_SUCCESS &&
+					gets.get(i).get().getValue().equals("value" + i);
+			}
+		} catch (Exception e) {
+			ex = e;
+		}
+
+		assertTrue(ex == null && isMatching);
+	}
+
+	@Test
+	public void testAsyncDisconnected() {
+		Exception ex = null;
+
+		try {
+			KVStore kvClient = new KVStore("localhost", PORT);
+			kvClient.connect();
+			kvClient.disconnect();
+			kvClient.getAsync("foo").get();
+		} catch (Exception e) {
+			ex = e;
+		}
+
+		assertTrue(ex instanceof ExecutionException);
+	}
+
+	@Test
+	public void testTimeout() {
+		Exception ex = null;
+
+		// Accepts connections but never responds
+		try(ServerSocket silentServer = new ServerSocket(0)) {
+			KVStore kvClient = new KVStore("localhost",
+				silentServer.getLocalPort());
+			kvClient.setTimeout(100);
+			kvClient.connect();
+			try {
+				kvClient.get("foo");
+			} finally {
+				kvClient.disconnect();
+			}
+		} catch (Exception e) {
+			ex = e;
+		}
+
+		assertTrue(ex instanceof TimeoutException);
+	}
+}
@@ -0,0 +1,172 @@
+package testing;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import app_kvServer.KVServer;
+import app_kvServer.IKVServer.CacheStrategy;
+import app_kvServer.IKVServer.ConnectionMode;
+import junit.framework.TestCase;
+
+public class ReactorTest extends TestCase {
+
+	private static final int PORT = 50010;
+
+	private KVServer kvServer;
+	private TestServer server;
+
+	public void setUp() throws Exception {
+		kvServer = new KVServer(PORT, 10, CacheStrategy.LRU);
+		kvServer.setConnectionMode(ConnectionMode.Reactor, 2);
+		kvServer.clearStorage();
+		server = TestServer.start(kvServer, PORT);
+	}
+
+	public void tearDown() throws Exception {
+		kvServer.clearStorage();
+		server.stop();
+	}
+
+	@Test
+	public void testRequestsAnsweredInOrder() {
+		StringBuilder responses = new StringBuilder();
+		Exception ex = null;
+
+		try {
+			Socket socket = new Socket("localhost", PORT);
+			OutputStream output = socket.getOutputStream();
+			output.write(("PUT\nfoo\nbar\n\n" +
+				"GET\nfoo\n\n" +
+				"GET\nmissing\n\n").getBytes());
+			output.flush();
+			socket.shutdownOutput();
+
+			BufferedReader input = new BufferedReader(
+				new InputStreamReader(socket.getInputStream()));
+			String line;
+			while((line = input.readLine()) != null) {
+				responses.append(line).append('\n');
+			}
+			socket.close();
+		} catch (Exception e) {
+			ex = e;
+		}
+
+		assertTrue(ex == null && responses.toString().equals(
+			"PUT_SUCCESS\nfoo\nbar\n\n" +
+			"GET_SUCCESS\nfoo\nbar\n\n" +
+			"GET_ERROR\nSpecified key not found\n\n"));
+	}
+
+	@Test
+	public void testNonAsciiKeysAndValues() {
+		StringBuilder responses = new StringBuilder();
+		Exception ex = null;
+
+		try {
+			Socket socket = new Socket("localhost", PORT);
+			OutputStream output = socket.getOutputStream();
+			output.write(("PUT\nk\u00e4se\nsch\u00f6n \u20ac\n\n" +
+				"GET\nk\u00e4se\n\n").getBytes(StandardCharsets.UTF_8));
+			output.flush();
+			socket.shutdownOutput();
+
+			BufferedReader input = new BufferedReader(new InputStreamReader(
+				socket.getInputStream(), StandardCharsets.UTF_8));
+			String line;
+			while((line = input.readLine()) != null) {
+				responses.append(line).append('\n');
+			}
+			socket.close();
+		} catch (Exception e) {
+			ex = e;
+		}
+
+		assertTrue(ex == null && responses.toString().equals(
+			"PUT_SUCCESS\nk\u00e4se\nsch\u00f6n \u20ac\n\n" +
+			"GET_SUCCESS\nk\u00e4se\nsch\u00f6n \u20ac\n\n"));
+	}
+
+	@Test
+	public void testManyConnections() {
+		int nConnections = 50;
+		int nSucceeded = 0;
+		Exception ex = null;
+
+		try {
+			Socket[] sockets = new Socket[nConnections];
+			for(int i = 0; i < nConnections; i++) {
+				sockets[i] = new Socket("localhost", PORT);
+			}
+			for(int i = 0; i < nConnections; i++) {
+				sockets[i].getOutputStream().write(
+					("PUT\nkey" + i + "\nvalue\n\n").getBytes());
+			}
+			for(int i = 0; i < nConnections; i++) {
+				BufferedReader input = new BufferedReader(
+					new InputStreamReader(sockets[i].getInputStream()));
+				if(input.readLine().equals("PUT_SUCCESS") &&
+						input.readLine().equals("key" + i)) {
+					nSucceeded++;
+				}
+				sockets[i].close();
+			}
+		} catch (Exception e) {
+			ex = e;
+		}
+
+		assertTrue(ex == null && nSucceeded == nConnections);
+	}
+
+	@Test
+	public void testSlowReaderGetsAllResponses() {
+		final int nRequests = 1000;
+		String value = new String(new char[10000]).replace('\0', 'x');
+		int nReceived = 0;
+		Exception ex = null;
+
+		try {
+			final Socket socket = new Socket("localhost", PORT);
+			socket.getOutputStream().write(
+				("PUT\nbig\n" + value + "\n\n").getBytes());
+			// Responses far exceed what the server queues, so it stops
+			// reading until the client catches up
+			Thread writer = new Thread() {
+				public void run() {
+					try {
+						OutputStream output = socket.getOutputStream();
+						for(int i = 0; i < nRequests; i++) {
+							output.write("GET\nbig\n\n".getBytes());
+						}
+						output.flush();
+					} catch (Exception e) {
+						// Seen as missing responses
+					}
+				}
+			};
+			writer.start();
+			Thread.sleep(500);
+
+			BufferedReader input = new BufferedReader(
+				new InputStreamReader(socket.getInputStream()));
+			String line;
+			while(nReceived <= nRequests &&
+					(line = input.readLine()) != null) {
+				if(line.equals("GET_SUCCESS") || line.equals("PUT_SUCCESS")) {
+					nReceived++;
+				}
+			}
+			writer.join();
+			socket.close();
+		} catch (Exception e) {
+			ex = e;
+		}
+
+		assertTrue(ex == null && nReceived == nRequests + 1);
+	}
+}
@@ -0,0 +1,187 @@
+package testing;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import app_kvServer.KVServer;
+import app_kvServer.IKVServer.CacheStrategy;
+import client.KVStore;
+import common.messages.KVMessage;
+import common.messages.KVMessage.StatusType;
+import junit.framework.TestCase;
+
+public class ScanTest extends TestCase {
+
+	private static final int PORT = 50014;
+
+	private KVServer kvServer;
+	private TestServer server;
+	private KVStore kvClient;
+
+	public void setUp() throws Exception {
+		startServer();
+		kvServer.clearStorage();
+		kvClient = new KVStore("localhost", PORT);
+		kvClient.connect();
+	}
+
+	public void tearDown() throws Exception {
+		kvClient.disconnect();
+		kvServer.clearStorage();
+		stopServer();
+	}
+
+	@Test
+	public void testScanPages() {
+		List<String> scanned = new ArrayList<String>();
+		int nPages = 0;
+		Exception ex = null;
+
+		try {
+			// Zero-padded so that key order matches numeric order
+			putKeys("key", 250);
+			kvClient.put("key0042", null);
+			kvClient.put("other", "value");
+
+			String startKey = "key0010";
+			while(true) {
+				List<KVMessage> page = kvClient.scan(startKey, "key0200", 64);
+				nPages++;
+				for(KVMessage entry : page) {
+					scanned.add(entry.getKey());
+				}
+				if(page.size() < 64) {
+					break;
+				}
+				startKey = page.get(page.size() - 1).getKey() + '\0';
+			}
+		} catch (Exception e) {
+			ex = e;
+		}
+
+		assertTrue(ex == null && nPages == 3 && scanned.size() == 189 &&
+			scanned.get(0).equals("key0010") &&
+			scanned.get(31).equals("key0041") &&
+			scanned.get(32).equals("key0043") &&
+			scanned.get(188).equals("key0199"));
+	}
+
+	@Test
+	public void testPrefixIterator() {
+		int nFound = 0;
+		boolean isOrdered = true;
+		Exception ex = null;
+
+		try {
+			putKeys("a", 10);
+			putKeys("b", 350);
+			putKeys("c", 10);
+
+			String previous = "";
+			Iterator<KVMessage> entries = kvClient.prefix("b");
+			while(entries.hasNext()) {
+				KVMessage entry = entries.next();
+				isOrdered &= entry.getStatus() == StatusType.GET_SUCCESS &&
+					entry.getKey().startsWith("b") &&
+					entry.getKey().compareTo(previous) > 0 &&
+					entry.getValue().equals("value" + entry.getKey());
+				previous = entry.getKey();
+				nFound++;
+			}
+		} catch (Exception e) {
+			ex = e;
+		}
+
+		assertTrue(ex == null && isOrdered && nFound == 350);
+	}
+
+	@Test
+	public void testEmptyPrefixAndEndKey() {
+		int nText = 0, nBinary = 0;
+		boolean rejectedEndKey = false;
+		Exception ex = null;
+
+		try {
+			putKeys("a", 5);
+			putKeys("b", 5);
+
+			KVStore binaryClient = new KVStore("localhost", PORT);
+			binaryClient.setBinaryProtocol(true);
+			binaryClient.connect();
+			for(Iterator<KVMessage> entries = kvClient.prefix("");
+					entries.hasNext(); entries.next()) {
+				nText++;
+			}
+			for(Iterator<KVMessage> entries = binaryClient.prefix("");
+					entries.hasNext(); entries.next()) {
+				nBinary++;
+			}
+			try {
+				binaryClient.scan("a", "", 10);
+			} catch (IllegalArgumentException e) {
+				rejectedEndKey = true;
+			}
+			try {
+				kvClient.scan("a", "", 10);
+				rejectedEndKey = false;
+			} catch (IllegalArgumentException e) {
+				// Expected
+			}
+			binaryClient.disconnect();
+		} catch (Exception e) {
+			ex = e;
+		}
+
+		assertTrue(ex == null && nText == 10 && nBinary == 10 &&
+			rejectedEndKey);
+	}
+
+	@Test
+	public void testIndexRebuiltOnRestart() {
+		List<String> scanned = new ArrayList<String>();
+		Exception ex = null;
+
+		try {
+			putKeys("key", 20);
+			kvClient.disconnect();
+			stopServer();
+			startServer();
+			kvClient = new KVStore("localhost", PORT);
+			kvClient.connect();
+
+			Iterator<KVMessage> entries = kvClient.scan("key0005", "key0008");
+			while(entries.hasNext()) {
+				scanned.add(entries.next().getKey());
+			}
+		} catch (Exception e) {
+			ex = e;
+		}
+
+		assertTrue(ex == null && scanned.size() == 3 &&
+			scanned.get(0).equals("key0005") &&
+			scanned.get(2).equals("key0007"));
+	}
+
+	private void putKeys(String prefix, int nKeys) throws Exception {
+		Map<String, String> entries = new LinkedHashMap<String, String>();
+		for(int i = 0; i < nKeys; i++) {
+			String key = prefix + String.format("%04d", i);
+			entries.put(key, "value" + key);
+		}
+		kvClient.multiPut(entries);
+	}
+
+	private void startServer() throws Exception {
+		kvServer = new KVServer(PORT, 10, CacheStrategy.LRU);
+		server = TestServer.start(kvServer, PORT);
+	}
+
+	private void stopServer() throws Exception {
+		server.stop();
+	}
+}
@@ -0,0 +1,205 @@
+package testing;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import common.messages.KVBatchMessage;
+import common.messages.KVMessage;
+import common.messages.KVMessageImpl;
+import common.messages.KVScanMessage;
+import common.messages.KVMessage.StatusType;
+import junit.framework.TestCase;
+import serialization.BinarySerialization;
+import serialization.Serialization;
+import serialization.TextMessageReader;
+
+public class SerializationTest extends TestCase {
+
+	@Test
+	public void testReadSplitMessages() {
+		StringBuilder read = new StringBuilder();
+		int nInvalid = 0;
+		Exception ex = null;
+
+		try {
+			// Deliver one byte per read, so that every line is split
+			InputStream input = new ByteArrayInputStream(
+				("PUT\r\nfoo\r\nbar\r\n\r\n" +
+				"BOGUS\nfoo\n\n" +
+				"GET\nfoo\n\n" +
+				"PUT\nfoo\n\n").getBytes()) {
+				public synchronized int read(byte[] b, int off, int len) {
+					return super.read(b, off, Math.min(len, 1));
+				}
+			};
+			TextMessageReader reader = new TextMessageReader(input);
+			while(true) {
+				try {
+					KVMessage message = reader.read();
+					if(message == null) {
+						break;
+					}
+					read.append(message.getStatus()).append(' ')
+						.append(message.getKey()).append(' ')
+						.append(message.getValue()).append(';');
+				} catch(IllegalArgumentException e) {
+					nInvalid++;
+				}
+			}
+		} catch (Exception e) {
+			ex = e;
+		}
+
+		assertTrue(ex == null && nInvalid == 1 && read.toString().equals(
+			"PUT foo bar;GET foo null;PUT foo null;"));
+	}
+
+	@Test
+	public void testSerializeToStream() {
+		boolean isSame = true;
+		Exception ex = null;
+
+		try {
+			KVMessage[] messages = {
+				new KVMessageImpl("foo", null, StatusType.GET),
+				new KVMessageImpl("foo", "bar", StatusType.PUT),
+				new KVMessageImpl("foo", null, StatusType.PUT),
+				new KVMessageImpl("foo", "bar", StatusType.GET_SUCCESS),
+				new KVMessageImpl("foo", null, StatusType.DELETE_SUCCESS),
+				new KVMessageImpl(null, "Invalid request", StatusType.GET_ERROR)
+			};
+			for(KVMessage message : messages) {
+				ByteArrayOutputStream output = new ByteArrayOutputStream();
+				Serialization.serialize(message, output);
+				isSame &= output.toString().equals(
+					Serialization.serialize(message));
+			}
+		} catch (Exception e) {
+			ex = e;
+		}
+
+		assertTrue(ex == null && isSame);
+	}
+
+	@Test
+	public void testBatchRoundTrip() {
+		boolean isSame = true;
+		Exception ex = null;
+
+		try {
+			List<KVMessage> responses = new ArrayList<KVMessage>();
+			responses.add(new KVMessageImpl("foo", "bar",
+				StatusType.GET_SUCCESS));
+			responses.add(new KVMessageImpl(null, "Specified key not found",
+				StatusType.GET_ERROR));
+			responses.add(new KVMessageImpl("baz", "qux",
+				StatusType.GET_SUCCESS));
+			KVMessage batch = new KVBatchMessage(StatusType.MGET_RESPONSE,
+				responses);
+
+			String text = Serialization.serialize(batch);
+			KVMessage fromText = Serialization.unserialize(
+				text.substring(0, text.length() - 2).split("\n"));
+			KVMessage fromBinary = BinarySerialization.unserialize(
+				ByteBuffer.wrap(BinarySerialization.serialize(batch)));
+			for(KVMessage copy : new KVMessage[] { fromText, fromBinary }) {
+				List<KVMessage> copied = ((KVBatchMessage) copy).getMessages();
+				isSame &= copy.getStatus() == StatusType.MGET_RESPONSE &&
+					copied.size() == responses.size();
+				for(int i = 0; i < responses.size(); i++) {
+					isSame &= copied.get(i).getStatus() ==
+						responses.get(i).getStatus() &&
+						String.valueOf(copied.get(i).getKey()).equals(
+						String.valueOf(responses.get(i).getKey())) &&
+						copied.get(i).getValue().equals(
+						responses.get(i).getValue());
+				}
+			}
+		} catch (Exception e) {
+			ex = e;
+		}
+
+		assertTrue(ex == null && isSame);
+	}
+
+	@Test
+	public void testScanRoundTrip() {
+		boolean isSame = true;
+		Exception ex = null;
+
+		try {
+			KVMessage[] scans = {
+				new KVScanMessage("a", "b", 10),
+				new KVScanMessage("a", null, 1000)
+			};
+			for(KVMessage scan : scans) {
+				String text = Serialization.serialize(scan);
+				KVMessage fromText = Serialization.unserialize(
+					text.substring(0, text.length() - 2).split("\n"));
+				KVMessage fromBinary = BinarySerialization.unserialize(
+					ByteBuffer.wrap(BinarySerialization.serialize(scan)));
+				for(KVMessage copy : new KVMessage[] { fromText, fromBinary }) {
+					isSame &= copy.getStatus() == StatusType.SCAN &&
+						copy.getKey().equals(scan.getKey()) &&
+						String.valueOf(copy.getValue()).equals(
+						String.valueOf(scan.getValue())) &&
+						((KVScanMessage) copy).getLimit() ==
+						((KVScanMessage) scan).getLimit();
+				}
+			}
+		} catch (Exception e) {
+			ex = e;
+		}
+
+		assertTrue(ex == null && isSame);
+	}
+
+	@Test
+	public void testInvalidBatch() {
+		int nInvalid = 0;
+		String[][] requests = {
+			{ "MGET" },
+			{ "MPUT", "foo" },
+			{ "MGET_RESPONSE", "GET_SUCCESS", "foo" },
+			{ "MPUT_RESPONSE", "MPUT_RESPONSE" }
+		};
+		for(String[] request : requests) {
+			try {
+				Serialization.unserialize(request);
+			} catch (IllegalArgumentException e) {
+				nInvalid++;
+			}
+		}
+
+		assertTrue(nInvalid == requests.length);
+	}
+
+	@Test
+	public void testDeeplyNestedBinaryBatch() {
+		int depth = 1000000;
+		ByteBuffer frame = ByteBuffer.allocate(
+			depth * BinarySerialization.HEADER_BYTES);
+		for(int i = depth - 1; i >= 0; i--) {
+			// MGET frames, each holding the rest as its payload
+			frame.put((byte) 9);
+			frame.putShort((short) 0);
+			frame.putInt(i * BinarySerialization.HEADER_BYTES);
+		}
+		frame.flip();
+		boolean rejected = false;
+
+		try {
+			BinarySerialization.unserialize(frame);
+		} catch (IllegalArgumentException e) {
+			rejected = true;
+		}
+
+		assertTrue(rejected);
+	}
+}
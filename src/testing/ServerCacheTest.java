@@ -13,11 +13,13 @@ public class ServerCacheTest extends TestCase {
 	private KVServer lruServer;
 	private KVServer lfuServer;
 	private KVServer fifoServer;
+	private KVServer clockServer;
 	
 	public void setUp() {
 		lruServer = new KVServer(4000, 2, CacheStrategy.LRU);
 		lfuServer = new KVServer(4001, 2, CacheStrategy.LFU);
 		fifoServer = new KVServer(4002, 2, CacheStrategy.FIFO);
+		clockServer = new KVServer(4003, 2, CacheStrategy.CLOCK);
 		lruServer.clearStorage();
 	}
 
@@ -26,6 +28,7 @@ public class ServerCacheTest extends TestCase {
 		lruServer.close();
 		lfuServer.close();
 		fifoServer.close();
+		clockServer.close();
 	}
 	
 	@Test
@@ -86,4 +89,50 @@ public class ServerCacheTest extends TestCase {
 
 		assertTrue(ex == null && inCache1 == true && inCache2 == false);
 	}
+
+	@Test
+	public void testClockCache() {
+		boolean inCache1 = false, inCache2 = false;
+		Exception ex = null;
+
+		try {
+			clockServer.putKV("key1", "value");
+			clockServer.putKV("key2", "value");
+			clockServer.getKV("key1");
+			inCache1 = clockServer.inCache("key2");
+			clockServer.putKV("key3", "value");
+			inCache2 = clockServer.inCache("key2");
+		} catch (Exception e) {
+			ex = e;
+		}
+
+		assertTrue(ex == null && inCache1 == true && inCache2 == false &&
+			clockServer.inCache("key1"));
+	}
+
+	@Test
+	public void testNegativeCache() {
+		String missing = "", found = null;
+		boolean threwMissing = false;
+		Exception ex = null;
+
+		try {
+			lruServer.configureNegativeCache(10, 60000);
+			missing = lruServer.lookupKV("key1");
+			try {
+				lruServer.getKV("key1");
+			} catch (FileNotFoundException e) {
+				threwMissing = true;
+			}
+			// A put makes the key visible again well before it expires
+			lruServer.putKV("key1", "value");
+			lruServer.clearCache();
+			found = lruServer.getKV("key1");
+		} catch (Exception e) {
+			ex = e;
+		}
+
+		assertTrue(ex == null && missing == null && threwMissing &&
+			"value".equals(found));
+	}
 }
@@ -72,4 +72,48 @@ public class ServerTest extends TestCase {
 
 		assertTrue(ex instanceof FileNotFoundException && response == null);
 	}
+
+	@Test
+	public void testConcurrentPutGet() {
+		final int nThreads = 8;
+		final int nKeys = 20;
+		final boolean[] failed = new boolean[nThreads];
+		Thread[] threads = new Thread[nThreads];
+
+		for(int i = 0; i < nThreads; i++) {
+			final int id = i;
+			threads[i] = new Thread() {
+				public void run() {
+					try {
+						for(int j = 0; j < nKeys; j++) {
+							String key = "t" + id + "k" + j;
+							kvServer.putKV(key, "value" + j);
+							kvServer.putKV("shared", "value" + id);
+						}
+						for(int j = 0; j < nKeys; j++) {
+							String key = "t" + id + "k" + j;
+							failed[id] |= !("value" + j).equals(
+								kvServer.getKV(key));
+						}
+					} catch (Exception e) {
+						failed[id] = true;
+					}
+				}
+			};
+			threads[i].start();
+		}
+
+		boolean anyFailed = false;
+		try {
+			for(int i = 0; i < nThreads; i++) {
+				threads[i].join();
+				anyFailed |= failed[i];
+			}
+			anyFailed |= !kvServer.getKV("shared").startsWith("value");
+		} catch (Exception e) {
+			anyFailed = true;
+		}
+
+		assertFalse(anyFailed);
+	}
 }
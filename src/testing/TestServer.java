@@ -0,0 +1,74 @@
+package testing;
+
+import java.io.IOException;
+import java.net.Socket;
+
+import app_kvServer.KVServer;
+import junit.framework.Assert;
+
+/**
+ * A KVServer running on its own thread for the duration of a test
+ */
+class TestServer {
+
+	private static final long START_TIMEOUT_MS = 5000;
+	private static final long RETRY_INTERVAL_MS = 20;
+
+	private final KVServer kvServer;
+	private final Thread serverThread;
+
+	private TestServer(final KVServer kvServer) {
+		this.kvServer = kvServer;
+		this.serverThread = new Thread() {
+			public void run() {
+				kvServer.run();
+			}
+		};
+		// Never keeps the tests from exiting
+		serverThread.setDaemon(true);
+	}
+
+	/**
+	 * Runs a configured server, returning once it accepts connections.
+	 * The test fails if it does not do so in time.
+	 * @param kvServer the server to run
+	 * @param port the port the server listens on
+	 * @return the running server
+	 */
+	static TestServer start(KVServer kvServer, int port) {
+		TestServer server = new TestServer(kvServer);
+		server.serverThread.start();
+
+		long deadline = System.currentTimeMillis() + START_TIMEOUT_MS;
+		try {
+			while(true) {
+				try {
+					new Socket("localhost", port).close();
+					return server;
+				} catch (IOException e) {
+					if(System.currentTimeMillis() >= deadline) {
+						break;
+					}
+					Thread.sleep(RETRY_INTERVAL_MS);
+				}
+			}
+			// The thread may be stuck, so it is not waited for long
+			kvServer.close();
+			server.serverThread.join(START_TIMEOUT_MS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			kvServer.close();
+		}
+		Assert.fail("Server on port " + port +
+			" not accepting connections after " + START_TIMEOUT_MS + " ms");
+		return null;
+	}
+
+	/**
+	 * Closes the server and waits for it to stop
+	 */
+	void stop() throws InterruptedException {
+		kvServer.close();
+		serverThread.join();
+	}
+}